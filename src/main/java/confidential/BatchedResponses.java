@@ -0,0 +1,77 @@
+package confidential;
+
+import vss.secretsharing.VerifiableShare;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Packs the responses of a batch of operations into a single {@link ConfidentialMessage}, so that batch replies
+ * go through the same reply quorum and share combination as single replies. The plain data of the packed
+ * message describes each operation's response and the shares of all operations are concatenated in order.
+ */
+public final class BatchedResponses {
+
+    private BatchedResponses() {}
+
+    public static ConfidentialMessage pack(ConfidentialMessage[] responses) {
+        List<VerifiableShare> shares = new ArrayList<>();
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.writeInt(responses.length);
+            for (ConfidentialMessage response : responses) {
+                byte[] plainData = response == null ? null : response.getPlainData();
+                VerifiableShare[] responseShares = response == null ? null : response.getShares();
+                out.writeBoolean(response != null);
+                out.writeInt(plainData == null ? -1 : plainData.length);
+                if (plainData != null)
+                    out.write(plainData);
+                out.writeInt(responseShares == null ? -1 : responseShares.length);
+                if (responseShares != null) {
+                    for (VerifiableShare share : responseShares)
+                        shares.add(share);
+                }
+            }
+            out.flush();
+            bos.flush();
+            return new ConfidentialMessage(bos.toByteArray(), shares.toArray(new VerifiableShare[0]));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Splits a combined batch response into the responses of each operation.
+     * @param plainData Plain data of the packed message
+     * @param confidentialData Secrets combined from the shares of the packed message
+     * @return Response of each operation, with null for operations that had no response
+     */
+    public static ExtractedResponse[] unpack(byte[] plainData, byte[][] confidentialData) {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(plainData);
+             ObjectInput in = new ObjectInputStream(bis)) {
+            ExtractedResponse[] result = new ExtractedResponse[in.readInt()];
+            int nextSecret = 0;
+            for (int i = 0; i < result.length; i++) {
+                boolean hasResponse = in.readBoolean();
+                int len = in.readInt();
+                byte[] operationPlainData = len == -1 ? null : new byte[len];
+                if (len != -1)
+                    in.readFully(operationPlainData);
+                len = in.readInt();
+                byte[][] operationConfidentialData = len == -1 ? null : new byte[len][];
+                if (len > 0) {
+                    System.arraycopy(confidentialData, nextSecret, operationConfidentialData, 0, len);
+                    nextSecret += len;
+                }
+                if (hasResponse)
+                    result[i] = new ExtractedResponse(operationPlainData, operationConfidentialData);
+            }
+            return result;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
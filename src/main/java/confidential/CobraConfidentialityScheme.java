@@ -16,8 +16,6 @@ import java.security.*;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author Robin
@@ -26,14 +24,12 @@ public abstract class CobraConfidentialityScheme {
     protected final VSSFacade vss;
     private final Map<Integer, BigInteger> serverToShareholder;
     private final Map<BigInteger, Integer> shareholderToServer;
-    private final Cipher cipher;
-    private final Lock cipherLock;
+    private final ThreadLocal<Cipher> ciphers;
     private final boolean isLinearCommitmentScheme;
     protected KeysManager keysManager;
     protected int threshold;
 
     public CobraConfidentialityScheme(View view) throws SecretSharingException {
-        cipherLock = new ReentrantLock(true);
         int[] processes = view.getProcesses();
         serverToShareholder = new HashMap<>(processes.length);
         shareholderToServer = new HashMap<>(processes.length);
@@ -58,11 +54,20 @@ public abstract class CobraConfidentialityScheme {
             properties.put(Constants.TAG_SUB_FIELD, configuration.getSubPrimeField());
             properties.put(Constants.TAG_GENERATOR, configuration.getGenerator());
         }
+        String shareEncryptionAlgorithm = configuration.getShareEncryptionAlgorithm();
         try {
-            cipher = Cipher.getInstance(configuration.getShareEncryptionAlgorithm());
+            Cipher.getInstance(shareEncryptionAlgorithm);
         } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
             throw new SecretSharingException("Failed to initialize the cipher");
         }
+        // Each thread has its own cipher, so that replies and requests can be encrypted in parallel
+        ciphers = ThreadLocal.withInitial(() -> {
+            try {
+                return Cipher.getInstance(shareEncryptionAlgorithm);
+            } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
+                throw new IllegalStateException("Failed to initialize the cipher", e);
+            }
+        });
         vss = new VSSFacade(properties, shareholders);
         keysManager = new KeysManager();
         isLinearCommitmentScheme = Configuration.getInstance().getVssScheme().equals("1");
@@ -90,6 +95,10 @@ public abstract class CobraConfidentialityScheme {
         return shareholderToServer.get(shareholder);
     }
 
+    public int getThreshold() {
+        return threshold;
+    }
+
     public void updateParameters(View view) {
         throw new UnsupportedOperationException("Not implemented");
     }
@@ -122,6 +131,24 @@ public abstract class CobraConfidentialityScheme {
         }
     }
 
+    /**
+     * Encrypts several shares for the same process, initializing the cipher only once.
+     */
+    public byte[][] encryptSharesFor(int id, Share[] clearShares) throws SecretSharingException {
+        Key encryptionKey = keysManager.getEncryptionKeyFor(id);
+        Cipher cipher = ciphers.get();
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey);
+            byte[][] result = new byte[clearShares.length][];
+            for (int i = 0; i < clearShares.length; i++) {
+                result[i] = cipher.doFinal(clearShares[i].getShare().toByteArray());
+            }
+            return result;
+        } catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
+            throw new SecretSharingException("Failed to encrypt shares", e);
+        }
+    }
+
     public BigInteger decryptShareFor(int id, byte[] encryptedShare) throws SecretSharingException {
         Key decryptionKey = keysManager.getDecryptionKeyFor(id);
         try {
@@ -142,23 +169,15 @@ public abstract class CobraConfidentialityScheme {
 
     protected byte[] encrypt(byte[] data, Key encryptionKey) throws InvalidKeyException,
             BadPaddingException, IllegalBlockSizeException {
-        try {
-            cipherLock.lock();
-            cipher.init(Cipher.ENCRYPT_MODE, encryptionKey);
-            return cipher.doFinal(data);
-        } finally {
-            cipherLock.unlock();
-        }
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.ENCRYPT_MODE, encryptionKey);
+        return cipher.doFinal(data);
     }
 
     protected byte[] decrypt(byte[] data, Key decryptionKey) throws InvalidKeyException,
             BadPaddingException, IllegalBlockSizeException {
-        try {
-            cipherLock.lock();
-            cipher.init(Cipher.DECRYPT_MODE, decryptionKey);
-            return cipher.doFinal(data);
-        } finally {
-            cipherLock.unlock();
-        }
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, decryptionKey);
+        return cipher.doFinal(data);
     }
 }
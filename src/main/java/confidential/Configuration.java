@@ -21,6 +21,21 @@ public final class Configuration {
 	private boolean useTLSEncryption;
 	private int shareProcessingThreads;
 	private boolean verifyClientRequests;
+	private int dispatcherQueueSize = 1000;
+	private int dispatcherThreads = 2;
+	private boolean digestReplies;
+	private int replyCacheSize = 1000;
+	private int missingSharesLimit = 1000;
+	private int executionThreads = 1;
+	private String logDirectory = "logs";
+	private int logSegmentSize = 64 * 1024 * 1024;
+	private long logSyncInterval = 10;
+	private int checkpointCompactionPeriod = 10;
+	private int recoveryChunkSize = 1024 * 1024;
+	private int computeClientLimit;
+	private int computeRecoveryLimit;
+	private int computeRenewalLimit;
+	private int extractionYield;
 	private final BigInteger[] vandermondeMatrixInitializationValues;
 
 	private static Configuration INSTANT;
@@ -109,6 +124,51 @@ public final class Configuration {
 					case "cobra.verify.requests":
 						verifyClientRequests = Boolean.parseBoolean(value);
 						break;
+					case "cobra.communication.dispatcher_queue_size":
+						dispatcherQueueSize = Integer.parseInt(value);
+						break;
+					case "cobra.communication.dispatcher_threads":
+						dispatcherThreads = Integer.parseInt(value);
+						break;
+					case "cobra.communication.digest_replies":
+						digestReplies = Boolean.parseBoolean(value);
+						break;
+					case "cobra.communication.reply_cache_size":
+						replyCacheSize = Integer.parseInt(value);
+						break;
+					case "cobra.missing_shares_limit":
+						missingSharesLimit = Integer.parseInt(value);
+						break;
+					case "cobra.execution_threads":
+						executionThreads = Integer.parseInt(value);
+						break;
+					case "cobra.log.directory":
+						logDirectory = value;
+						break;
+					case "cobra.log.segment_size":
+						logSegmentSize = Integer.parseInt(value);
+						break;
+					case "cobra.log.sync_interval":
+						logSyncInterval = Long.parseLong(value);
+						break;
+					case "cobra.checkpoint.compaction_period":
+						checkpointCompactionPeriod = Integer.parseInt(value);
+						break;
+					case "cobra.recovery.chunk_size":
+						recoveryChunkSize = Integer.parseInt(value);
+						break;
+					case "cobra.compute.client_limit":
+						computeClientLimit = Integer.parseInt(value);
+						break;
+					case "cobra.compute.recovery_limit":
+						computeRecoveryLimit = Integer.parseInt(value);
+						break;
+					case "cobra.compute.renewal_limit":
+						computeRenewalLimit = Integer.parseInt(value);
+						break;
+					case "cobra.polynomial.extraction_yield":
+						extractionYield = Integer.parseInt(value);
+						break;
 					case "cobra.send_all_shares_together":
 						sendAllSharesTogether = Boolean.parseBoolean(value);
 						break;
@@ -127,6 +187,62 @@ public final class Configuration {
 		return shareProcessingThreads;
 	}
 
+	public int getComputeClientLimit() {
+		return computeClientLimit;
+	}
+
+	public int getComputeRecoveryLimit() {
+		return computeRecoveryLimit;
+	}
+
+	public int getComputeRenewalLimit() {
+		return computeRenewalLimit;
+	}
+
+	public int getExtractionYield() {
+		return extractionYield;
+	}
+
+	public int getDispatcherQueueSize() {
+		return dispatcherQueueSize;
+	}
+
+	public int getDispatcherThreads() {
+		return dispatcherThreads;
+	}
+
+	public boolean isDigestReplies() {
+		return digestReplies;
+	}
+
+	public int getReplyCacheSize() {
+		return replyCacheSize;
+	}
+
+	public int getMissingSharesLimit() {
+		return missingSharesLimit;
+	}
+
+	public int getExecutionThreads() {
+		return executionThreads;
+	}
+
+	public String getLogDirectory() {
+		return logDirectory;
+	}
+
+	public int getLogSegmentSize() {
+		return logSegmentSize;
+	}
+
+	public long getLogSyncInterval() {
+		return logSyncInterval;
+	}
+
+	public int getCheckpointCompactionPeriod() {
+		return checkpointCompactionPeriod;
+	}
+
 	public boolean isVerifyClientRequests() {
 		return verifyClientRequests;
 	}
@@ -163,6 +279,10 @@ public final class Configuration {
 		return shareEncryptionAlgorithm;
 	}
 
+	public int getRecoveryChunkSize() {
+		return recoveryChunkSize;
+	}
+
 	public int getRecoveryPort() {
 		return recoveryPort;
 	}
@@ -0,0 +1,108 @@
+package confidential;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Reply sent when cobra.communication.digest_replies is active. Only the designated replica of a request includes
+ * the plain data and the shared data of the response. The other replicas omit them and send only their shares.
+ * Every replica sends a digest of the common part, which clients use to check the designated replica's payload.
+ */
+public final class DigestedReply {
+    private final boolean isFull;
+    private final byte[] commonDigest;
+    private final byte[] message;
+
+    public DigestedReply(boolean isFull, byte[] commonDigest, byte[] message) {
+        this.isFull = isFull;
+        this.commonDigest = commonDigest;
+        this.message = message;
+    }
+
+    /**
+     * @return True if the message contains the plain data and the shared data of the response
+     */
+    public boolean isFull() {
+        return isFull;
+    }
+
+    public byte[] getCommonDigest() {
+        return commonDigest;
+    }
+
+    /**
+     * @return Serialized {@link ConfidentialMessage} or {@link confidential.encrypted.EncryptedConfidentialMessage}
+     */
+    public byte[] getMessage() {
+        return message;
+    }
+
+    /**
+     * Selects the replica that sends the full reply, rotating with the request sequence.
+     * @param processes Processes of the current view
+     */
+    public static int getDesignatedReplica(int[] processes, int sequence) {
+        return processes[Math.floorMod(sequence, processes.length)];
+    }
+
+    public static byte[] computeCommonDigest(byte[] plainData, byte[][] sharedData) {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to initialize message digest", e);
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        updateDigest(messageDigest, length, plainData);
+        length.clear();
+        length.putInt(sharedData == null ? -1 : sharedData.length);
+        messageDigest.update(length.array());
+        if (sharedData != null) {
+            for (byte[] data : sharedData)
+                updateDigest(messageDigest, length, data);
+        }
+        return messageDigest.digest();
+    }
+
+    private static void updateDigest(MessageDigest messageDigest, ByteBuffer length, byte[] data) {
+        length.clear();
+        length.putInt(data == null ? -1 : data.length);
+        messageDigest.update(length.array());
+        if (data != null)
+            messageDigest.update(data);
+    }
+
+    public byte[] serialize() {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.writeBoolean(isFull);
+            out.writeInt(commonDigest.length);
+            out.write(commonDigest);
+            out.writeInt(message.length);
+            out.write(message);
+            out.flush();
+            bos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    public static DigestedReply deserialize(byte[] serializedData) {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
+             ObjectInput in = new ObjectInputStream(bis)) {
+            boolean isFull = in.readBoolean();
+            byte[] commonDigest = new byte[in.readInt()];
+            in.readFully(commonDigest);
+            byte[] message = new byte[in.readInt()];
+            in.readFully(message);
+            return new DigestedReply(isFull, commonDigest, message);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
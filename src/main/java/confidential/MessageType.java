@@ -3,7 +3,10 @@ package confidential;
 public enum  MessageType {
     CLIENT,
     APPLICATION,
-    RECONFIGURATION;
+    RECONFIGURATION,
+    CLIENT_BATCH,
+    REPLY_FETCH,
+    SHARE_DELIVERY;
 
     public static MessageType[] values = values();
 
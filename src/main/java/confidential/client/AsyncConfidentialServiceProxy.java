@@ -0,0 +1,147 @@
+package confidential.client;
+
+import bftsmart.tom.core.messages.TOMMessageType;
+import confidential.Configuration;
+import vss.facade.SecretSharingException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous version of {@link ConfidentialServiceProxy}. Requests return immediately and many requests can
+ * be outstanding at the same time. Share generation, encryption and response combination run in the given
+ * executor, so a single proxy can serve many logical clients with a few threads and one set of connections.
+ */
+public class AsyncConfidentialServiceProxy {
+    private final AsyncServiceProxy service;
+    private final ConfidentialRequestComposer requestComposer;
+    private final Supplier<ServersResponseHandler> responseHandlerSupplier;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final PrivateDataRedelivery privateDataRedelivery;
+
+    /**
+     * Creates a proxy that processes requests using a pool with cobra.share_processing_threads threads.
+     */
+    public AsyncConfidentialServiceProxy(int clientId) throws SecretSharingException {
+        this(clientId, Executors.newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads()), true);
+    }
+
+    public AsyncConfidentialServiceProxy(int clientId, Executor executor) throws SecretSharingException {
+        this(clientId, executor, false);
+    }
+
+    private AsyncConfidentialServiceProxy(int clientId, Executor executor, boolean ownsExecutor)
+            throws SecretSharingException {
+        this.executor = executor;
+        this.ownedExecutor = ownsExecutor ? (ExecutorService) executor : null;
+        this.service = new AsyncServiceProxy(clientId, executor);
+        ClientConfidentialityScheme confidentialityScheme =
+                new ClientConfidentialityScheme(service.getViewManager().getCurrentView());
+        this.requestComposer = new ConfidentialRequestComposer(confidentialityScheme,
+                Configuration.getInstance().isSendAllSharesTogether());
+        if (Configuration.getInstance().isSendAllSharesTogether()) {
+            this.privateDataRedelivery = null;
+        } else {
+            this.privateDataRedelivery = new PrivateDataRedelivery(service, requestComposer,
+                    Configuration.getInstance().getMissingSharesLimit());
+            service.setNotificationListener(report -> {
+                if (PrivateDataRedelivery.isMissingPrivateDataReport(report))
+                    privateDataRedelivery.missingPrivateDataReported(report);
+            });
+        }
+        boolean useTLSEncryption = Configuration.getInstance().useTLSEncryption();
+        this.responseHandlerSupplier = () -> {
+            ServersResponseHandler handler = useTLSEncryption ? new PlainServersResponseHandler()
+                    : new EncryptedServersResponseHandler(clientId);
+            handler.setClientConfidentialityScheme(confidentialityScheme);
+            return handler;
+        };
+    }
+
+    public CompletableFuture<Response> invokeOrdered(byte[] plainData, byte[]... confidentialData) {
+        return invoke(TOMMessageType.ORDERED_REQUEST, plainData, confidentialData);
+    }
+
+    public CompletableFuture<Response> invokeUnordered(byte[] plainData, byte[]... confidentialData) {
+        return invoke(TOMMessageType.UNORDERED_REQUEST, plainData, confidentialData);
+    }
+
+    /**
+     * Asynchronous version of {@link ConfidentialServiceProxy#invokeOrderedBatch(BatchOperation...)}.
+     */
+    public CompletableFuture<Response[]> invokeOrderedBatch(BatchOperation... operations) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return requestComposer.composeBatchRequest(service.getViewManager().getCurrentViewProcesses(),
+                        operations);
+            } catch (SecretSharingException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).thenCompose(request -> send(TOMMessageType.ORDERED_REQUEST, request)).thenApply(response -> {
+            try {
+                return requestComposer.composeBatchResponse(response);
+            } catch (SecretSharingException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    public AsyncServiceProxy getServiceProxy() {
+        return service;
+    }
+
+    public void close() {
+        service.close();
+        if (ownedExecutor != null)
+            ownedExecutor.shutdown();
+    }
+
+    private CompletableFuture<Response> invoke(TOMMessageType type, byte[] plainData, byte[]... confidentialData) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return requestComposer.composeRequest(service.getViewManager().getCurrentViewProcesses(),
+                        plainData, confidentialData);
+            } catch (SecretSharingException e) {
+                throw new CompletionException(e);
+            }
+        }, executor).thenCompose(request -> send(type, request)).thenApply(response -> {
+            try {
+                return requestComposer.composeResponse(response);
+            } catch (SecretSharingException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+
+    /**
+     * Sends a composed request and, if the reply of the designated server was missing or invalid, asks all
+     * servers for the full reply. An unordered request is sent again as an ordered one instead.
+     */
+    private CompletableFuture<byte[]> send(TOMMessageType type, ConfidentialRequestComposer.ComposedRequest request) {
+        if (request == null)
+            return CompletableFuture.completedFuture(null);
+        if (privateDataRedelivery != null && type == TOMMessageType.ORDERED_REQUEST)
+            privateDataRedelivery.requestSent(request.getCommonData(), request.getPrivateData());
+        ServersResponseHandler responseHandler = responseHandlerSupplier.get();
+        return service.invoke(type, request.getCommonData(), request.getPrivateData(), request.getMetadata(),
+                responseHandler).thenCompose(response -> {
+            if (response == null || response.length != 0)
+                return CompletableFuture.completedFuture(response);
+            // servers only keep the replies of ordered requests
+            if (type == TOMMessageType.UNORDERED_REQUEST)
+                return send(TOMMessageType.ORDERED_REQUEST, request);
+            ConfidentialRequestComposer.ComposedRequest fetchRequest =
+                    requestComposer.composeReplyFetchRequest(responseHandler.getMissingPayloadSequence(), type);
+            if (fetchRequest == null)
+                return CompletableFuture.completedFuture(null);
+            return service.invoke(TOMMessageType.UNORDERED_REQUEST, fetchRequest.getCommonData(), null,
+                    fetchRequest.getMetadata(), responseHandlerSupplier.get()).thenApply(fetchedResponse ->
+                    fetchedResponse == null || fetchedResponse.length == 0 ? null : fetchedResponse);
+        });
+    }
+}
@@ -0,0 +1,303 @@
+package confidential.client;
+
+import bftsmart.reconfiguration.ReconfigureReply;
+import bftsmart.reconfiguration.views.View;
+import bftsmart.tom.core.TOMSender;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Client proxy that supports many outstanding requests over the same connections. Replies are matched to
+ * requests by operation id and handed to the request's {@link ServersResponseHandler} in the given executor. A
+ * request completes as soon as its handler has enough consistent replies, without waiting for BFT-SMaRt's reply
+ * quorum.
+ * <p>
+ * As in {@link bftsmart.tom.ServiceProxy}, a request is sent again when f + 1 servers reply from a different view:
+ * an ordered request is sent to the new view they reply with and an unordered request is sent as an ordered one.
+ * An unordered request whose replies are all received without enough consistent ones is also sent as an ordered
+ * one. The request is sent again with the same private data.
+ */
+public class AsyncServiceProxy extends TOMSender {
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final Map<Integer, PendingRequest> pendingRequests;
+    private final Lock sendLock;
+    private final Executor responseExecutor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private int invokeTimeout = 40;
+    private volatile Consumer<TOMMessage> notificationListener;
+
+    public AsyncServiceProxy(int processId, Executor responseExecutor) {
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.sendLock = new ReentrantLock();
+        this.responseExecutor = responseExecutor;
+        this.timeoutScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "Async proxy timeout thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+        init(processId, null);
+    }
+
+    /**
+     * @return Timeout in seconds for a request to complete
+     */
+    public int getInvokeTimeout() {
+        return invokeTimeout;
+    }
+
+    public void setInvokeTimeout(int invokeTimeout) {
+        this.invokeTimeout = invokeTimeout;
+    }
+
+    /**
+     * @param notificationListener Receives the {@link TOMMessageType#REPLY} messages that servers send outside
+     *                             replies, such as reports of missing private data
+     */
+    public void setNotificationListener(Consumer<TOMMessage> notificationListener) {
+        this.notificationListener = notificationListener;
+    }
+
+    public int getNPendingRequests() {
+        return pendingRequests.size();
+    }
+
+    /**
+     * Sends a request to all servers of the current view without waiting for the replies.
+     * @param responseHandler Handler used to extract the replies of this request, not shared with other requests
+     * @return Future completed with the extracted response, which is empty if the handler is missing the payload
+     * of a digest reply
+     */
+    public CompletableFuture<byte[]> invoke(TOMMessageType type, byte[] content, Map<Integer, byte[]> privateData,
+                                            byte metadata, ServersResponseHandler responseHandler) {
+        CompletableFuture<byte[]> result = new CompletableFuture<>();
+        send(type, content, privateData, metadata, responseHandler, result);
+        return result;
+    }
+
+    private void send(TOMMessageType type, byte[] content, Map<Integer, byte[]> privateData, byte metadata,
+                      ServersResponseHandler responseHandler, CompletableFuture<byte[]> result) {
+        int[] targets = getViewManager().getCurrentViewProcesses();
+        PendingRequest pending;
+        int operationId;
+        // requests must leave in the same order as their sequence numbers
+        sendLock.lock();
+        try {
+            int requestId = generateRequestId(type);
+            operationId = generateOperationId();
+            pending = new PendingRequest(requestId, type, content, privateData, metadata, targets,
+                    responseHandler, targets.length - getViewManager().getCurrentViewF(),
+                    getViewManager().getCurrentViewF() + 1, result);
+            pendingRequests.put(operationId, pending);
+            sendMessageToTargets(content, privateData, metadata, requestId, operationId, type, targets);
+        } finally {
+            sendLock.unlock();
+        }
+
+        ScheduledFuture<?> timeout = timeoutScheduler.schedule(() -> {
+            if (pendingRequests.remove(operationId, pending))
+                pending.result.completeExceptionally(new TimeoutException("Request " + pending.requestId
+                        + " timed out after " + invokeTimeout + " seconds"));
+        }, invokeTimeout, TimeUnit.SECONDS);
+        pending.result.whenComplete((r, t) -> timeout.cancel(false));
+    }
+
+    /**
+     * Sends a pending request again as a new request of the given type, completing the same future.
+     */
+    private void resend(int operationId, PendingRequest pending, TOMMessageType type) {
+        if (!pendingRequests.remove(operationId, pending))
+            return;
+        logger.debug("Sending request {} again as {}", pending.requestId, type);
+        pending.responseHandler.reset();
+        send(type, pending.content, pending.privateData, pending.metadata, pending.responseHandler,
+                pending.result);
+    }
+
+    private void reconfigureTo(View view) {
+        // requests of other operations may carry the same view
+        sendLock.lock();
+        try {
+            if (view.getId() <= getViewManager().getCurrentViewId())
+                return;
+            logger.debug("Installing view {}", view.getId());
+            getViewManager().reconfigureTo(view);
+            getViewManager().getViewStore().storeView(view);
+            getCommunicationSystem().updateConnections();
+        } finally {
+            sendLock.unlock();
+        }
+    }
+
+    @Override
+    public void replyReceived(TOMMessage reply) {
+        if (reply.getReqType() == TOMMessageType.REPLY) {
+            Consumer<TOMMessage> listener = notificationListener;
+            if (listener != null)
+                listener.accept(reply);
+            return;
+        }
+        int operationId = reply.getOperationId();
+        PendingRequest pending = pendingRequests.get(operationId);
+        if (pending == null) {
+            logger.debug("Ignoring reply from {} for operation {} without pending request", reply.getSender(),
+                    operationId);
+            return;
+        }
+        // replies are parsed and their shares decrypted outside the connection threads
+        responseExecutor.execute(() -> {
+            if (reply.getViewID() != getViewManager().getCurrentViewId()) {
+                handleOtherViewReply(operationId, pending, reply);
+                return;
+            }
+            int lastReceived = pending.addReply(reply);
+            if (lastReceived == -2) {
+                if (pending.type == TOMMessageType.UNORDERED_REQUEST) {
+                    resend(operationId, pending, TOMMessageType.ORDERED_REQUEST);
+                    return;
+                }
+                if (pendingRequests.remove(operationId, pending))
+                    pending.result.completeExceptionally(new IllegalStateException("Received all replies for "
+                            + "request " + pending.requestId + " without enough consistent replies"));
+                return;
+            }
+            if (lastReceived < 0 || !pendingRequests.remove(operationId, pending))
+                return;
+            try {
+                TOMMessage response = pending.responseHandler.extractResponse(pending.replies, 0, lastReceived);
+                pending.result.complete(response == null ? null : response.getContent());
+            } catch (Exception e) {
+                pending.result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private void handleOtherViewReply(int operationId, PendingRequest pending, TOMMessage reply) {
+        boolean isOrdered = pending.type != TOMMessageType.UNORDERED_REQUEST;
+        if (isOrdered && reply.getViewID() < getViewManager().getCurrentViewId()) {
+            logger.debug("Ignoring reply from {} in old view {}", reply.getSender(), reply.getViewID());
+            return;
+        }
+        if (!pending.addOtherViewReply(reply))
+            return;
+        if (!isOrdered) {
+            resend(operationId, pending, TOMMessageType.ORDERED_REQUEST);
+            return;
+        }
+        Object response = TOMUtil.getObject(reply.getContent());
+        View view = null;
+        if (response instanceof View)
+            view = (View) response;
+        else if (response instanceof ReconfigureReply)
+            view = ((ReconfigureReply) response).getView();
+        if (view == null || view.getId() <= getViewManager().getCurrentViewId()) {
+            if (pendingRequests.remove(operationId, pending))
+                pending.result.completeExceptionally(new IllegalStateException("Servers replied to request "
+                        + pending.requestId + " from view " + reply.getViewID() + " without a newer view"));
+            return;
+        }
+        reconfigureTo(view);
+        resend(operationId, pending, pending.type);
+    }
+
+    @Override
+    public void close() {
+        timeoutScheduler.shutdownNow();
+        for (PendingRequest pending : pendingRequests.values()) {
+            pending.result.completeExceptionally(new CancellationException("Proxy closed"));
+        }
+        pendingRequests.clear();
+        super.close();
+    }
+
+    private static class PendingRequest {
+        private final int requestId;
+        private final TOMMessageType type;
+        private final byte[] content;
+        private final Map<Integer, byte[]> privateData;
+        private final byte metadata;
+        private final int[] targets;
+        private final ServersResponseHandler responseHandler;
+        private final int nExpectedReplies;
+        private final int nOtherViewReplies;
+        private final TOMMessage[] replies;
+        private final Map<Integer, Integer> otherViewReplies;
+        private final CompletableFuture<byte[]> result;
+        private int nReceivedReplies;
+        private boolean isComplete;
+
+        private PendingRequest(int requestId, TOMMessageType type, byte[] content, Map<Integer, byte[]> privateData,
+                               byte metadata, int[] targets, ServersResponseHandler responseHandler,
+                               int nExpectedReplies, int nOtherViewReplies, CompletableFuture<byte[]> result) {
+            this.requestId = requestId;
+            this.type = type;
+            this.content = content;
+            this.privateData = privateData;
+            this.metadata = metadata;
+            this.targets = targets;
+            this.responseHandler = responseHandler;
+            this.nExpectedReplies = nExpectedReplies;
+            this.nOtherViewReplies = nOtherViewReplies;
+            this.replies = new TOMMessage[targets.length];
+            this.otherViewReplies = new HashMap<>();
+            this.result = result;
+        }
+
+        private int getPosition(TOMMessage reply) {
+            for (int i = 0; i < targets.length; i++) {
+                if (targets[i] == reply.getSender())
+                    return i;
+            }
+            return -1;
+        }
+
+        /**
+         * Registers a reply sent from a view other than the client's.
+         * @return True the first time f + 1 servers replied from the same other view
+         */
+        private synchronized boolean addOtherViewReply(TOMMessage reply) {
+            if (isComplete || reply.getSequence() != requestId || reply.getReqType() != type)
+                return false;
+            int pos = getPosition(reply);
+            if (pos < 0 || replies[pos] != null)
+                return false;
+            replies[pos] = reply;
+            int count = otherViewReplies.merge(reply.getViewID(), 1, Integer::sum);
+            if (count < nOtherViewReplies)
+                return false;
+            isComplete = true;
+            return true;
+        }
+
+        /**
+         * @return Position of the reply that completed the response, -2 if all replies were received without
+         * completing it, or -1 otherwise
+         */
+        private synchronized int addReply(TOMMessage reply) {
+            if (isComplete || reply.getSequence() != requestId || reply.getReqType() != type)
+                return -1;
+            int pos = getPosition(reply);
+            if (pos < 0 || replies[pos] != null)
+                return -1;
+            replies[pos] = reply;
+            nReceivedReplies++;
+
+            // a missing payload is only fetched once all the replies expected from correct servers arrived
+            if (responseHandler.addReply(reply.getContent())
+                    || (nReceivedReplies >= nExpectedReplies && responseHandler.isMissingPayload())) {
+                isComplete = true;
+                return pos;
+            }
+            return nReceivedReplies == targets.length ? -2 : -1;
+        }
+    }
+}
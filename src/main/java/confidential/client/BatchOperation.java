@@ -0,0 +1,22 @@
+package confidential.client;
+
+/**
+ * Operation to be sent inside a batch request. See {@link ConfidentialServiceProxy#invokeOrderedBatch}.
+ */
+public class BatchOperation {
+    private final byte[] plainData;
+    private final byte[][] confidentialData;
+
+    public BatchOperation(byte[] plainData, byte[]... confidentialData) {
+        this.plainData = plainData;
+        this.confidentialData = confidentialData;
+    }
+
+    public byte[] getPlainData() {
+        return plainData;
+    }
+
+    public byte[][] getConfidentialData() {
+        return confidentialData;
+    }
+}
@@ -50,4 +50,12 @@ public class ClientConfidentialityScheme extends CobraConfidentialityScheme {
             System.out.println("Confidential data is null");
         return b;
     }
+
+    /**
+     * Reconstructs the secret from shares that were already verified. Can be called concurrently.
+     */
+    public byte[] combineVerifiedShares(Share[] shares, byte[] sharedData) throws SecretSharingException {
+        return vss.combineVerifiedShares(shares, sharedData,
+                sharedData == null ? Mode.SMALL_SECRET : Mode.LARGE_SECRET, threshold);
+    }
 }
@@ -0,0 +1,304 @@
+package confidential.client;
+
+import bftsmart.tom.core.messages.TOMMessageType;
+import confidential.BatchedResponses;
+import confidential.ExtractedResponse;
+import confidential.MessageType;
+import confidential.Metadata;
+import confidential.encrypted.EncryptedPublishedShares;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import vss.commitment.Commitment;
+import vss.commitment.CommitmentUtils;
+import vss.commitment.constant.ConstantCommitment;
+import vss.facade.Mode;
+import vss.facade.SecretSharingException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shares the confidential data of client requests, serializes requests and extracts responses. Shared by the
+ * synchronous and asynchronous client proxies.
+ */
+public class ConfidentialRequestComposer {
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final ClientConfidentialityScheme confidentialityScheme;
+    private final boolean isLinearCommitmentScheme;
+    private final boolean isSendAllSharesTogether;
+
+    public ConfidentialRequestComposer(ClientConfidentialityScheme confidentialityScheme,
+                                       boolean isSendAllSharesTogether) {
+        this.confidentialityScheme = confidentialityScheme;
+        this.isLinearCommitmentScheme = confidentialityScheme.isLinearCommitmentScheme();
+        this.isSendAllSharesTogether = isSendAllSharesTogether;
+    }
+
+    /**
+     * Shares and serializes a request.
+     * @param servers Servers that will receive the request
+     * @return Composed request or null if the request could not be serialized
+     */
+    public ComposedRequest composeRequest(int[] servers, byte[] plainData, byte[]... confidentialData)
+            throws SecretSharingException {
+        EncryptedPublishedShares[] shares = sharePrivateData(confidentialData);
+        if (confidentialData.length != 0 && shares == null)
+            return null;
+        byte[] commonData = serializeCommonData(plainData, shares);
+        if (commonData == null)
+            return null;
+
+        Map<Integer, byte[]> privateData = null;
+        if (!isSendAllSharesTogether && confidentialData.length != 0) {
+            privateData = new HashMap<>(servers.length);
+            for (int server : servers) {
+                byte[] b = serializePrivateDataFor(server, shares);
+                privateData.put(server, b);
+            }
+        }
+        byte metadata = (byte)(confidentialData.length == 0 ? Metadata.DOES_NOT_VERIFY.ordinal() : Metadata.VERIFY.ordinal());
+        return new ComposedRequest(commonData, privateData, metadata);
+    }
+
+    /**
+     * Shares and serializes a batch of operations as a single request. The shares of all operations are
+     * serialized once per server.
+     * @param servers Servers that will receive the request
+     * @return Composed request or null if the request could not be serialized
+     */
+    public ComposedRequest composeBatchRequest(int[] servers, BatchOperation... operations)
+            throws SecretSharingException {
+        EncryptedPublishedShares[][] shares = new EncryptedPublishedShares[operations.length][];
+        boolean hasConfidentialData = false;
+        for (int i = 0; i < operations.length; i++) {
+            byte[][] confidentialData = operations[i].getConfidentialData();
+            shares[i] = sharePrivateData(confidentialData);
+            if (confidentialData.length != 0)
+                hasConfidentialData = true;
+        }
+
+        byte[] commonData;
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.write((byte) MessageType.CLIENT_BATCH.ordinal());
+            out.writeInt(operations.length);
+            for (int i = 0; i < operations.length; i++) {
+                writeCommonData(out, operations[i].getPlainData(), shares[i]);
+            }
+            out.flush();
+            bos.flush();
+            commonData = bos.toByteArray();
+        } catch (IOException e) {
+            logger.error("Occurred while composing batch request", e);
+            return null;
+        }
+
+        Map<Integer, byte[]> privateData = null;
+        if (!isSendAllSharesTogether && hasConfidentialData) {
+            privateData = new HashMap<>(servers.length);
+            for (int server : servers) {
+                try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                     ObjectOutput out = new ObjectOutputStream(bos)) {
+                    for (EncryptedPublishedShares[] operationShares : shares) {
+                        writePrivateDataFor(out, server, operationShares);
+                    }
+                    out.flush();
+                    bos.flush();
+                    privateData.put(server, bos.toByteArray());
+                } catch (IOException e) {
+                    logger.error("Occurred while composing batch request", e);
+                    return null;
+                }
+            }
+        }
+        byte metadata = (byte)(hasConfidentialData ? Metadata.VERIFY.ordinal() : Metadata.DOES_NOT_VERIFY.ordinal());
+        return new ComposedRequest(commonData, privateData, metadata);
+    }
+
+    /**
+     * Composes the unordered request that asks every server for the full reply of a previous request, used when
+     * the reply of the designated server was missing or did not match the digest of the other replies.
+     * @param sequence Sequence of the previous request
+     * @param requestType Type of the previous request, since ordered and unordered requests have their own
+     *                    sequences. Servers only keep the replies of ordered requests
+     * @return Composed request or null if the request could not be serialized
+     */
+    public ComposedRequest composeReplyFetchRequest(int sequence, TOMMessageType requestType) {
+        return composeSequenceRequest(MessageType.REPLY_FETCH, sequence, (byte) requestType.toInt());
+    }
+
+    /**
+     * Composes the unordered request that delivers again the private data of a previous request to a server that
+     * executed it without the private data. The private data must be attached when sending the request.
+     * @param sequence Sequence of the previous request
+     * @return Composed request or null if the request could not be serialized
+     */
+    public ComposedRequest composeShareDeliveryRequest(int sequence) {
+        return composeSequenceRequest(MessageType.SHARE_DELIVERY, sequence);
+    }
+
+    public Response composeResponse(byte[] response) throws SecretSharingException {
+        if (response == null)
+            return null;
+        ExtractedResponse extractedResponse = ExtractedResponse.deserialize(response);
+        if (extractedResponse == null)
+            return null;
+        if (extractedResponse.getThrowable() != null)
+            throw extractedResponse.getThrowable();
+        return new Response(extractedResponse.getPlainData(), extractedResponse.getConfidentialData());
+    }
+
+    /**
+     * @return Response of each operation of a batch request, with null for operations without response
+     */
+    public Response[] composeBatchResponse(byte[] response) throws SecretSharingException {
+        Response batchResponse = composeResponse(response);
+        if (batchResponse == null)
+            return null;
+        ExtractedResponse[] extractedResponses = BatchedResponses.unpack(batchResponse.getPainData(),
+                batchResponse.getConfidentialData());
+        if (extractedResponses == null)
+            return null;
+        Response[] result = new Response[extractedResponses.length];
+        for (int i = 0; i < extractedResponses.length; i++) {
+            ExtractedResponse extractedResponse = extractedResponses[i];
+            if (extractedResponse != null)
+                result[i] = new Response(extractedResponse.getPlainData(), extractedResponse.getConfidentialData());
+        }
+        return result;
+    }
+
+    private ComposedRequest composeSequenceRequest(MessageType type, int sequence, byte... suffix) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.write((byte) type.ordinal());
+            out.writeInt(4 + suffix.length);
+            out.writeInt(sequence);
+            out.write(suffix);
+            out.flush();
+            bos.flush();
+            return new ComposedRequest(bos.toByteArray(), null, (byte) Metadata.DOES_NOT_VERIFY.ordinal());
+        } catch (IOException e) {
+            logger.error("Occurred while composing {} request", type, e);
+            return null;
+        }
+    }
+
+    private byte[] serializePrivateDataFor(int server, EncryptedPublishedShares[] shares) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            writePrivateDataFor(out, server, shares);
+
+            out.flush();
+            bos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            logger.error("Occurred while composing request", e);
+            return null;
+        }
+    }
+
+    private byte[] serializeCommonData(byte[] plainData, EncryptedPublishedShares[] shares) {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+
+            out.write((byte) MessageType.CLIENT.ordinal());
+            writeCommonData(out, plainData, shares);
+
+            out.flush();
+            bos.flush();
+            return bos.toByteArray();
+        } catch (IOException e) {
+            logger.error("Occurred while composing request", e);
+            return null;
+        }
+    }
+
+    private void writePrivateDataFor(ObjectOutput out, int server, EncryptedPublishedShares[] shares)
+            throws IOException {
+        if (shares == null)
+            return;
+        BigInteger shareholder = confidentialityScheme.getShareholder(server);
+        for (EncryptedPublishedShares share : shares) {
+            byte[] encryptedShareBytes = share.getShareOf(server);
+            out.writeInt(encryptedShareBytes == null ? -1 : encryptedShareBytes.length);
+            if (encryptedShareBytes != null)
+                out.write(encryptedShareBytes);
+            if (!isLinearCommitmentScheme) {
+                ConstantCommitment commitment = (ConstantCommitment)share.getCommitment();
+                byte[] witness = commitment.getWitness(shareholder);
+                out.writeInt(witness.length);
+                out.write(witness);
+            }
+        }
+    }
+
+    private void writeCommonData(ObjectOutput out, byte[] plainData, EncryptedPublishedShares[] shares)
+            throws IOException {
+        out.writeInt(plainData == null ? -1 : plainData.length);
+        if (plainData != null)
+            out.write(plainData);
+
+        out.writeInt(shares == null ? -1 : shares.length);
+        if (shares != null) {
+            for (EncryptedPublishedShares share : shares) {
+                if (isSendAllSharesTogether) {
+                    share.writeExternal(out);
+                } else {
+                    byte[] sharedData = share.getSharedData();
+                    Commitment commitment = share.getCommitment();
+                    out.writeInt(sharedData == null ? -1 : sharedData.length);
+                    if (sharedData != null)
+                        out.write(sharedData);
+                    if (isLinearCommitmentScheme)
+                        CommitmentUtils.getInstance().writeCommitment(commitment, out);
+                    else {
+                        byte[] c = ((ConstantCommitment) commitment).getCommitment();
+                        out.writeInt(c.length);
+                        out.write(c);
+                    }
+                }
+
+            }
+        }
+    }
+
+    private EncryptedPublishedShares[] sharePrivateData(byte[]... privateData) throws SecretSharingException {
+        if (privateData == null)
+            return null;
+        EncryptedPublishedShares[] result = new EncryptedPublishedShares[privateData.length];
+        for (int i = 0; i < privateData.length; i++) {
+            result[i] = confidentialityScheme.share(privateData[i], Mode.LARGE_SECRET);
+        }
+        return result;
+    }
+
+    public static class ComposedRequest {
+        private final byte[] commonData;
+        private final Map<Integer, byte[]> privateData;
+        private final byte metadata;
+
+        public ComposedRequest(byte[] commonData, Map<Integer, byte[]> privateData, byte metadata) {
+            this.commonData = commonData;
+            this.privateData = privateData;
+            this.metadata = metadata;
+        }
+
+        public byte[] getCommonData() {
+            return commonData;
+        }
+
+        public Map<Integer, byte[]> getPrivateData() {
+            return privateData;
+        }
+
+        public byte getMetadata() {
+            return metadata;
+        }
+    }
+}
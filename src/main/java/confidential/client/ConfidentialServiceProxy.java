@@ -1,34 +1,16 @@
 package confidential.client;
 
 import bftsmart.tom.ServiceProxy;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
 import confidential.Configuration;
-import confidential.ExtractedResponse;
-import confidential.MessageType;
-import confidential.Metadata;
-import confidential.encrypted.EncryptedPublishedShares;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-import vss.commitment.Commitment;
-import vss.commitment.CommitmentUtils;
-import vss.commitment.constant.ConstantCommitment;
-import vss.facade.Mode;
 import vss.facade.SecretSharingException;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
-import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
-
 public class ConfidentialServiceProxy {
-    private final Logger logger = LoggerFactory.getLogger("confidential");
     private final ServiceProxy service;
-    private final ClientConfidentialityScheme confidentialityScheme;
     private final ServersResponseHandler serversResponseHandler;
-    private final boolean isLinearCommitmentScheme;
-    private final boolean isSendAllSharesTogether;
+    private final ConfidentialRequestComposer requestComposer;
+    private final PrivateDataRedelivery privateDataRedelivery;
 
     public ConfidentialServiceProxy(int clientId) throws SecretSharingException {
         if (Configuration.getInstance().useTLSEncryption()) {
@@ -37,153 +19,97 @@ public class ConfidentialServiceProxy {
             serversResponseHandler = new EncryptedServersResponseHandler(clientId);
         }
         this.service = new ServiceProxy(clientId, null, serversResponseHandler,
-                serversResponseHandler, null);
-        this.confidentialityScheme = new ClientConfidentialityScheme(service.getViewManager().getCurrentView());
+                serversResponseHandler, null) {
+            @Override
+            public void replyReceived(TOMMessage reply) {
+                if (PrivateDataRedelivery.isMissingPrivateDataReport(reply)) {
+                    if (privateDataRedelivery != null)
+                        privateDataRedelivery.missingPrivateDataReported(reply);
+                    return;
+                }
+                super.replyReceived(reply);
+            }
+        };
+        ClientConfidentialityScheme confidentialityScheme =
+                new ClientConfidentialityScheme(service.getViewManager().getCurrentView());
         serversResponseHandler.setClientConfidentialityScheme(confidentialityScheme);
-        isLinearCommitmentScheme = confidentialityScheme.isLinearCommitmentScheme();
-        isSendAllSharesTogether = Configuration.getInstance().isSendAllSharesTogether();
+        this.requestComposer = new ConfidentialRequestComposer(confidentialityScheme,
+                Configuration.getInstance().isSendAllSharesTogether());
+        this.privateDataRedelivery = Configuration.getInstance().isSendAllSharesTogether() ? null
+                : new PrivateDataRedelivery(service, requestComposer, Configuration.getInstance().getMissingSharesLimit());
     }
 
     public Response invokeOrdered(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
         serversResponseHandler.reset();
-        EncryptedPublishedShares[] shares = sharePrivateData(confidentialData);
-        if (confidentialData.length != 0 && shares == null)
+        ConfidentialRequestComposer.ComposedRequest request = requestComposer.composeRequest(
+                service.getViewManager().getCurrentViewProcesses(), plainData, confidentialData);
+        if (request == null)
             return null;
-        byte[] commonData = serializeCommonData(plainData, shares);
-        if (commonData == null)
-            return null;
-
-        Map<Integer, byte[]> privateData = null;
-        if (!isSendAllSharesTogether && confidentialData.length != 0) {
-            int[] servers = service.getViewManager().getCurrentViewProcesses();
-            privateData = new HashMap<>(servers.length);
-            for (int server : servers) {
-                byte[] b = serializePrivateDataFor(server, shares);
-                privateData.put(server, b);
-            }
-        }
-        byte metadata = (byte)(confidentialData.length == 0 ? Metadata.DOES_NOT_VERIFY.ordinal() : Metadata.VERIFY.ordinal());
-        byte[] response = service.invokeOrdered(commonData, privateData, metadata);
+        if (privateDataRedelivery != null)
+            privateDataRedelivery.requestSent(request.getCommonData(), request.getPrivateData());
+        byte[] response = fetchMissingPayload(service.invokeOrdered(request.getCommonData(),
+                request.getPrivateData(), request.getMetadata()), TOMMessageType.ORDERED_REQUEST, request);
 
-        return composeResponse(response);
+        return requestComposer.composeResponse(response);
     }
 
     public Response invokeUnordered(byte[] plainData, byte[]... confidentialData) throws SecretSharingException {
         serversResponseHandler.reset();
-        EncryptedPublishedShares[] shares = sharePrivateData(confidentialData);
-        if (confidentialData.length != 0 && shares == null)
-            return null;
-        byte[] commonData = serializeCommonData(plainData, shares);
-        if (commonData == null)
+        ConfidentialRequestComposer.ComposedRequest request = requestComposer.composeRequest(
+                service.getViewManager().getCurrentViewProcesses(), plainData, confidentialData);
+        if (request == null)
             return null;
+        byte[] response = fetchMissingPayload(service.invokeUnordered(request.getCommonData(),
+                request.getPrivateData(), request.getMetadata()), TOMMessageType.UNORDERED_REQUEST, request);
 
-        Map<Integer, byte[]> privateData = null;
-        if (!isSendAllSharesTogether && confidentialData.length != 0) {
-            int[] servers = service.getViewManager().getCurrentViewProcesses();
-            privateData = new HashMap<>(servers.length);
-            for (int server : servers) {
-                byte[] b = serializePrivateDataFor(server, shares);
-                privateData.put(server, b);
-            }
-        }
-        byte metadata = (byte)(confidentialData.length == 0 ? Metadata.DOES_NOT_VERIFY.ordinal() : Metadata.VERIFY.ordinal());
-        byte[] response = service.invokeUnordered(commonData, privateData, metadata);
-
-        return composeResponse(response);
-    }
-
-    public void close() {
-        service.close();
+        return requestComposer.composeResponse(response);
     }
 
-    private Response composeResponse(byte[] response) throws SecretSharingException {
-        if (response == null)
-            return null;
-        ExtractedResponse extractedResponse = ExtractedResponse.deserialize(response);
-        if (extractedResponse == null)
+    /**
+     * Executes several operations in a single ordered request. Operations are executed in order by the servers
+     * and the response of each operation is returned at the same position.
+     */
+    public Response[] invokeOrderedBatch(BatchOperation... operations) throws SecretSharingException {
+        serversResponseHandler.reset();
+        ConfidentialRequestComposer.ComposedRequest request = requestComposer.composeBatchRequest(
+                service.getViewManager().getCurrentViewProcesses(), operations);
+        if (request == null)
             return null;
-        if (extractedResponse.getThrowable() != null)
-            throw extractedResponse.getThrowable();
-        return new Response(extractedResponse.getPlainData(), extractedResponse.getConfidentialData());
-    }
+        if (privateDataRedelivery != null)
+            privateDataRedelivery.requestSent(request.getCommonData(), request.getPrivateData());
+        byte[] response = fetchMissingPayload(service.invokeOrdered(request.getCommonData(),
+                request.getPrivateData(), request.getMetadata()), TOMMessageType.ORDERED_REQUEST, request);
 
-    private byte[] serializePrivateDataFor(int server, EncryptedPublishedShares[] shares) {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutput out = new ObjectOutputStream(bos)) {
-            if (shares != null) {
-                BigInteger shareholder = confidentialityScheme.getShareholder(server);
-                for (EncryptedPublishedShares share : shares) {
-                    byte[] encryptedShareBytes = share.getShareOf(server);
-                    out.writeInt(encryptedShareBytes == null ? -1 : encryptedShareBytes.length);
-                    if (encryptedShareBytes != null)
-                        out.write(encryptedShareBytes);
-                    if (!isLinearCommitmentScheme) {
-                        ConstantCommitment commitment = (ConstantCommitment)share.getCommitment();
-                        byte[] witness = commitment.getWitness(shareholder);
-                        out.writeInt(witness.length);
-                        out.write(witness);
-                    }
-                }
-            }
-
-            out.flush();
-            bos.flush();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            logger.error("Occurred while composing request", e);
-            return null;
-        }
+        return requestComposer.composeBatchResponse(response);
     }
 
-    private byte[] serializeCommonData(byte[] plainData, EncryptedPublishedShares[] shares) {
-        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
-             ObjectOutput out = new ObjectOutputStream(bos)) {
-
-            out.write((byte) MessageType.CLIENT.ordinal());
-
-            out.writeInt(plainData == null ? -1 : plainData.length);
-            if (plainData != null)
-                out.write(plainData);
-
-            out.writeInt(shares == null ? -1 : shares.length);
-            if (shares != null) {
-                for (EncryptedPublishedShares share : shares) {
-                    if (isSendAllSharesTogether) {
-                        share.writeExternal(out);
-                    } else {
-                        byte[] sharedData = share.getSharedData();
-                        Commitment commitment = share.getCommitment();
-                        out.writeInt(sharedData == null ? -1 : sharedData.length);
-                        if (sharedData != null)
-                            out.write(sharedData);
-                        if (isLinearCommitmentScheme)
-                            CommitmentUtils.getInstance().writeCommitment(commitment, out);
-                        else {
-                            byte[] c = ((ConstantCommitment) commitment).getCommitment();
-                            out.writeInt(c.length);
-                            out.write(c);
-                        }
-                    }
-
-                }
-            }
-
-            out.flush();
-            bos.flush();
-            return bos.toByteArray();
-        } catch (IOException e) {
-            logger.error("Occurred while composing request", e);
-            return null;
+    /**
+     * An empty response means that the designated server's reply was missing or invalid, so the full replies are
+     * requested from all servers. Servers only keep the replies of ordered requests, so an unordered request is
+     * sent again as an ordered one.
+     */
+    private byte[] fetchMissingPayload(byte[] response, TOMMessageType type,
+                                       ConfidentialRequestComposer.ComposedRequest sentRequest) {
+        if (response == null || response.length != 0)
+            return response;
+        if (type == TOMMessageType.UNORDERED_REQUEST) {
+            serversResponseHandler.reset();
+            if (privateDataRedelivery != null)
+                privateDataRedelivery.requestSent(sentRequest.getCommonData(), sentRequest.getPrivateData());
+            return fetchMissingPayload(service.invokeOrdered(sentRequest.getCommonData(),
+                    sentRequest.getPrivateData(), sentRequest.getMetadata()), TOMMessageType.ORDERED_REQUEST,
+                    sentRequest);
         }
+        ConfidentialRequestComposer.ComposedRequest request = requestComposer.composeReplyFetchRequest(
+                serversResponseHandler.getMissingPayloadSequence(), type);
+        serversResponseHandler.reset();
+        if (request == null)
+            return null;
+        response = service.invokeUnordered(request.getCommonData(), request.getPrivateData(), request.getMetadata());
+        return response == null || response.length == 0 ? null : response;
     }
 
-    private EncryptedPublishedShares[] sharePrivateData(byte[]... privateData) throws SecretSharingException {
-        if (privateData == null)
-            return null;
-        EncryptedPublishedShares[] result = new EncryptedPublishedShares[privateData.length];
-        for (int i = 0; i < privateData.length; i++) {
-            result[i] = confidentialityScheme.share(privateData[i], Mode.LARGE_SECRET);
-        }
-        return result;
+    public void close() {
+        service.close();
     }
 }
@@ -0,0 +1,74 @@
+package confidential.client;
+
+import bftsmart.tom.core.TOMSender;
+import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
+import bftsmart.tom.util.TOMUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Keeps the private data of recent requests and sends it again to servers that report having executed a request
+ * without it. Servers report it with a {@link TOMMessageType#REPLY} message carrying the hash of the request's
+ * common data, which BFT-SMaRt does not use for regular replies.
+ */
+public class PrivateDataRedelivery {
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final TOMSender sender;
+    private final ConfidentialRequestComposer requestComposer;
+    private final Map<ByteBuffer, Map<Integer, byte[]>> recentPrivateData;
+
+    public PrivateDataRedelivery(TOMSender sender, ConfidentialRequestComposer requestComposer, int capacity) {
+        this.sender = sender;
+        this.requestComposer = requestComposer;
+        this.recentPrivateData = new LinkedHashMap<ByteBuffer, Map<Integer, byte[]>>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Map<Integer, byte[]>> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static boolean isMissingPrivateDataReport(TOMMessage message) {
+        return message.getReqType() == TOMMessageType.REPLY;
+    }
+
+    /**
+     * Must be called before sending a request, since reports may arrive before the replies.
+     */
+    public void requestSent(byte[] commonData, Map<Integer, byte[]> privateData) {
+        if (privateData == null)
+            return;
+        ByteBuffer hash = ByteBuffer.wrap(TOMUtil.computeHash(commonData));
+        synchronized (recentPrivateData) {
+            recentPrivateData.put(hash, privateData);
+        }
+    }
+
+    public void missingPrivateDataReported(TOMMessage report) {
+        int server = report.getSender();
+        byte[] privateData;
+        synchronized (recentPrivateData) {
+            Map<Integer, byte[]> requestPrivateData = recentPrivateData.get(ByteBuffer.wrap(report.getContent()));
+            privateData = requestPrivateData == null ? null : requestPrivateData.get(server);
+        }
+        if (privateData == null) {
+            logger.warn("Server {} is missing the private data of request {}, which is no longer available", server,
+                    report.getSequence());
+            return;
+        }
+        ConfidentialRequestComposer.ComposedRequest delivery =
+                requestComposer.composeShareDeliveryRequest(report.getSequence());
+        if (delivery == null)
+            return;
+        logger.debug("Delivering again the private data of request {} to server {}", report.getSequence(), server);
+        sender.sendMessageToTargets(delivery.getCommonData(), Collections.singletonMap(server, privateData),
+                delivery.getMetadata(), sender.generateRequestId(TOMMessageType.UNORDERED_REQUEST),
+                sender.generateOperationId(), TOMMessageType.UNORDERED_REQUEST, new int[]{server});
+    }
+}
@@ -1,24 +1,331 @@
 package confidential.client;
 
+import bftsmart.tom.core.messages.TOMMessage;
 import bftsmart.tom.util.Extractor;
+import confidential.Configuration;
+import confidential.DigestedReply;
+import confidential.ExtractedResponse;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import vss.commitment.Commitment;
 import vss.commitment.CommitmentScheme;
+import vss.facade.SecretSharingException;
+import vss.secretsharing.Share;
 
-import java.util.Comparator;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.stream.IntStream;
 
 /**
+ * Handles the replies of a single request. Each reply is parsed once, its shares are decrypted and verified as it
+ * arrives and it is grouped with the replies that have the same content digest, i.e., the same plain data, shared
+ * data and commitment hashes, and commitments of the same secrets. A reply whose commitments differ from those of
+ * every group with its digest opens a new group, so a faulty server cannot keep correct replies out of their group.
+ * The response can be extracted as soon as a group has threshold + 1 replies and threshold + 1 valid shares of
+ * every secret, which is reported by {@link #addReply(byte[])}.
+ * <p>
+ * With digest replies, replies are grouped by the digest of the common part they carry and a group also needs the
+ * payload of a full reply matching that digest. If the group has enough shares but the payload never arrives,
+ * {@link #extractResponse(TOMMessage[], int, int)} returns an empty response and the proxy must fetch the full
+ * replies using {@link #getMissingPayloadSequence()}.
+ *
  * @author Robin
  */
 public abstract class ServersResponseHandler implements Comparator<byte[]>, Extractor {
     protected final Logger logger = LoggerFactory.getLogger("confidential");
     protected CommitmentScheme commitmentScheme;
     protected ClientConfidentialityScheme confidentialityScheme;
+    private final Map<byte[], ParsedReply> parsedReplies;
+    private final Map<ByteBuffer, List<ReplyGroup>> groups;
+    private final MessageDigest messageDigest;
+    private final boolean isDigestReplies;
+    private ReplyGroup completedGroup;
+    private int missingPayloadSequence;
+
+    protected ServersResponseHandler() {
+        this.parsedReplies = new IdentityHashMap<>();
+        this.groups = new HashMap<>();
+        this.isDigestReplies = Configuration.getInstance().isDigestReplies();
+        try {
+            this.messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to initialize message digest", e);
+        }
+    }
 
     public void setClientConfidentialityScheme(ClientConfidentialityScheme confidentialityScheme) {
         this.confidentialityScheme = confidentialityScheme;
         this.commitmentScheme = confidentialityScheme.getCommitmentScheme();
     }
 
-    public abstract void reset();
+    /**
+     * Deserializes a reply and decrypts its shares.
+     * @return Parsed reply or null if the reply is malformed
+     */
+    protected abstract ParsedReply parseReply(byte[] content);
+
+    /**
+     * Registers a reply of the current request.
+     * @return True if the replies received so far are enough to extract the response
+     */
+    public synchronized boolean addReply(byte[] content) {
+        if (completedGroup != null)
+            return true;
+        ParsedReply reply = getParsedReply(content);
+        if (reply == null || reply.isGrouped)
+            return false;
+        reply.isGrouped = true;
+        List<ReplyGroup> digestGroups = groups.computeIfAbsent(reply.digest, k -> new ArrayList<>(1));
+        ReplyGroup group = null;
+        for (ReplyGroup digestGroup : digestGroups) {
+            if (digestGroup.add(reply)) {
+                group = digestGroup;
+                break;
+            }
+        }
+        if (group == null) {
+            if (!digestGroups.isEmpty())
+                logger.warn("Reply has the same digest as other replies but different commitments");
+            group = new ReplyGroup(reply);
+            digestGroups.add(group);
+        }
+        if (group.payload != null && group.hasEnoughShares(confidentialityScheme.getThreshold()))
+            completedGroup = group;
+        return completedGroup != null;
+    }
+
+    /**
+     * @return True if a group has enough consistent shares but none of its replies carried the payload
+     */
+    public synchronized boolean isMissingPayload() {
+        if (completedGroup != null)
+            return false;
+        for (List<ReplyGroup> digestGroups : groups.values()) {
+            for (ReplyGroup group : digestGroups) {
+                if (group.payload == null && group.hasEnoughShares(confidentialityScheme.getThreshold()))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Sequence of the request whose response was extracted without payload
+     */
+    public synchronized int getMissingPayloadSequence() {
+        return missingPayloadSequence;
+    }
+
+    @Override
+    public synchronized TOMMessage extractResponse(TOMMessage[] replies, int sameContent, int lastReceived) {
+        for (TOMMessage reply : replies) {
+            if (reply != null)
+                addReply(reply.getContent());
+        }
+        TOMMessage lastMsg = replies[lastReceived];
+        if (completedGroup == null) {
+            if (isMissingPayload()) {
+                logger.debug("Replies of request {} do not contain a valid payload", lastMsg.getSequence());
+                missingPayloadSequence = lastMsg.getSequence();
+                return new TOMMessage(lastMsg.getSender(), lastMsg.getSession(), lastMsg.getSequence(),
+                        lastMsg.getOperationId(), new byte[0], new byte[0], lastMsg.getViewID(),
+                        lastMsg.getReqType());
+            }
+            logger.error("This should not happen. Did not found {} equivalent responses", sameContent);
+            return null;
+        }
+
+        ReplyGroup group = completedGroup;
+        byte[] plainData = group.payload.plainData;
+        byte[][] confidentialData = null;
+        ExtractedResponse extractedResponse;
+        if (group.representative.shares != null) { // this response has secret data
+            int numSecrets = group.representative.shares.length;
+            confidentialData = new byte[numSecrets][];
+            SecretSharingException[] errors = new SecretSharingException[numSecrets];
+            byte[][] result = confidentialData;
+            IntStream secrets = IntStream.range(0, numSecrets);
+            if (numSecrets > 1)
+                secrets = secrets.parallel();
+            secrets.forEach(i -> {
+                try {
+                    result[i] = confidentialityScheme.combineVerifiedShares(
+                            group.validShares.get(i).toArray(new Share[0]), group.payload.sharedData[i]);
+                } catch (SecretSharingException e) {
+                    errors[i] = e;
+                }
+            });
+            SecretSharingException error = null;
+            for (SecretSharingException e : errors) {
+                if (e != null) {
+                    error = e;
+                    break;
+                }
+            }
+            extractedResponse = error == null ? new ExtractedResponse(plainData, confidentialData)
+                    : new ExtractedResponse(plainData, confidentialData, error);
+        } else {
+            extractedResponse = new ExtractedResponse(plainData, null);
+        }
+        return new TOMMessage(lastMsg.getSender(),
+                lastMsg.getSession(), lastMsg.getSequence(),
+                lastMsg.getOperationId(), extractedResponse.serialize(), new byte[0],
+                lastMsg.getViewID(), lastMsg.getReqType());
+    }
+
+    @Override
+    public synchronized int compare(byte[] o1, byte[] o2) {
+        if (o1 == null && o2 == null)
+            return 0;
+        ParsedReply response1 = getParsedReply(o1);
+        ParsedReply response2 = getParsedReply(o2);
+        if (response1 == null && response2 == null)
+            return 0;
+        if (response1 == null)
+            return 1;
+        if (response2 == null)
+            return -1;
+        return response1.digest.compareTo(response2.digest);
+    }
+
+    public synchronized void reset() {
+        parsedReplies.clear();
+        groups.clear();
+        completedGroup = null;
+    }
+
+    private ParsedReply getParsedReply(byte[] content) {
+        if (content == null)
+            return null;
+        if (parsedReplies.containsKey(content))
+            return parsedReplies.get(content);
+        ParsedReply reply;
+        if (isDigestReplies) {
+            DigestedReply digestedReply = DigestedReply.deserialize(content);
+            reply = digestedReply == null ? null : parseReply(digestedReply.getMessage());
+            if (reply != null) {
+                reply.isFull = digestedReply.isFull();
+                reply.commonDigest = digestedReply.getCommonDigest();
+                if (reply.isFull && !Arrays.equals(reply.commonDigest,
+                        DigestedReply.computeCommonDigest(reply.plainData, reply.sharedData))) {
+                    logger.warn("Received full reply that does not match its digest");
+                    reply = null;
+                }
+            }
+        } else {
+            reply = parseReply(content);
+        }
+        if (reply != null)
+            reply.initialize(commitmentScheme, messageDigest);
+        parsedReplies.put(content, reply);
+        return reply;
+    }
+
+    /**
+     * Reply with the decrypted shares of each secret. Shares that could not be decrypted are null.
+     */
+    protected static final class ParsedReply {
+        private final byte[] plainData;
+        private final Share[] shares;
+        private final Commitment[] commitments;
+        private final byte[][] sharedData;
+        private boolean[] isValid;
+        private ByteBuffer digest;
+        private boolean isGrouped;
+        private boolean isFull = true;
+        private byte[] commonDigest;
+
+        protected ParsedReply(byte[] plainData, Share[] shares, Commitment[] commitments, byte[][] sharedData) {
+            this.plainData = plainData;
+            this.shares = shares;
+            this.commitments = commitments;
+            this.sharedData = sharedData;
+        }
+
+        private void initialize(CommitmentScheme commitmentScheme, MessageDigest messageDigest) {
+            messageDigest.reset();
+            if (commonDigest != null)
+                messageDigest.update(commonDigest);
+            else if (plainData != null)
+                messageDigest.update(plainData);
+            if (shares != null) {
+                isValid = new boolean[shares.length];
+                ByteBuffer commitmentHash = ByteBuffer.allocate(4);
+                for (int i = 0; i < shares.length; i++) {
+                    isValid[i] = isValidShare(commitmentScheme, shares[i], commitments[i]);
+                    if (commonDigest == null && sharedData[i] != null)
+                        messageDigest.update(sharedData[i]);
+                    commitmentHash.clear();
+                    commitmentHash.putInt(commitments[i].consistentHash());
+                    messageDigest.update(commitmentHash.array());
+                }
+            }
+            digest = ByteBuffer.wrap(messageDigest.digest());
+        }
+    }
+
+    /**
+     * Shares of servers that executed a request without their private data have no witness, so verification may
+     * fail with an exception instead of returning false.
+     */
+    private static boolean isValidShare(CommitmentScheme commitmentScheme, Share share, Commitment commitment) {
+        if (share == null)
+            return false;
+        try {
+            return commitmentScheme.checkValidityWithoutPreComputation(share, commitment);
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static final class ReplyGroup {
+        private final ParsedReply representative;
+        private final List<List<Share>> validShares;
+        private ParsedReply payload;
+        private int nReplies;
+
+        private ReplyGroup(ParsedReply representative) {
+            this.representative = representative;
+            int numSecrets = representative.shares == null ? 0 : representative.shares.length;
+            this.validShares = new ArrayList<>(numSecrets);
+            for (int i = 0; i < numSecrets; i++) {
+                validShares.add(new ArrayList<>());
+            }
+            addShares(representative);
+        }
+
+        /**
+         * @return False if the reply has commitments of different secrets
+         */
+        private boolean add(ParsedReply reply) {
+            for (int i = 0; i < validShares.size(); i++) {
+                if (!representative.commitments[i].isOfSameSecret(reply.commitments[i]))
+                    return false;
+            }
+            addShares(reply);
+            return true;
+        }
+
+        private void addShares(ParsedReply reply) {
+            if (payload == null && reply.isFull)
+                payload = reply;
+            nReplies++;
+            for (int i = 0; i < validShares.size(); i++) {
+                if (reply.isValid[i])
+                    validShares.get(i).add(reply.shares[i]);
+            }
+        }
+
+        private boolean hasEnoughShares(int threshold) {
+            if (nReplies <= threshold)
+                return false;
+            for (List<Share> shares : validShares) {
+                if (shares.size() <= threshold)
+                    return false;
+            }
+            return true;
+        }
+    }
 }
@@ -3,26 +3,51 @@ package confidential.demo.map.server;
 import bftsmart.tom.MessageContext;
 import confidential.ConfidentialMessage;
 import confidential.demo.map.client.Operation;
+import confidential.facade.server.ConfidentialIncrementalCheckpointable;
+import confidential.facade.server.ConfidentialParallelExecutable;
 import confidential.facade.server.ConfidentialServerFacade;
-import confidential.facade.server.ConfidentialSingleExecutable;
+import confidential.facade.server.ConflictClasses;
 import confidential.statemanagement.ConfidentialSnapshot;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.secretsharing.VerifiableShare;
 
 import java.io.*;
+import java.util.HashSet;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
-public class KVStoreServer implements ConfidentialSingleExecutable {
+public class KVStoreServer implements ConfidentialParallelExecutable, ConfidentialIncrementalCheckpointable {
     private final Logger logger = LoggerFactory.getLogger("demo");
     private Map<String, VerifiableShare> map;
+    private final Set<String> dirtyKeys;
 
     KVStoreServer(int processId) {
-        map = new TreeMap<>();
+        map = new ConcurrentSkipListMap<>();
+        dirtyKeys = ConcurrentHashMap.newKeySet();
         new ConfidentialServerFacade(processId, this);
     }
 
+    @Override
+    public ConflictClasses getConflictClasses(byte[] plainData, VerifiableShare[] shares) {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(plainData);
+             ObjectInput in = new ObjectInputStream(bis)) {
+            Operation op = Operation.getOperation(in.read());
+            switch (op) {
+                case GET:
+                    return ConflictClasses.read(in.readUTF());
+                case PUT:
+                case REMOVE:
+                    return ConflictClasses.write(in.readUTF());
+            }
+        } catch (IOException e) {
+            logger.error("Failed to read conflict classes of request", e);
+        }
+        return ConflictClasses.global();
+    }
+
     @Override
     public ConfidentialMessage appExecuteOrdered(byte[] plainData, VerifiableShare[] shares, MessageContext msgCtx) {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(plainData);
@@ -41,6 +66,7 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
                 case PUT:
                     str = in.readUTF();
                     value = map.put(str, shares[0]);
+                    dirtyKeys.add(str);
                     if (value != null)
                         return new ConfidentialMessage(null, value);
                     else
@@ -48,6 +74,7 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
                 case REMOVE:
                     str = in.readUTF();
                     value = map.remove(str);
+                    dirtyKeys.add(str);
                     if (value != null)
                         return new ConfidentialMessage(null, value);
                     else
@@ -119,7 +146,7 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(snapshot.getPlainData());
              ObjectInput in = new ObjectInputStream(bis)) {
             int size = in.readInt();
-            map = new TreeMap<>();
+            map = new ConcurrentSkipListMap<>();
             VerifiableShare[] shares = snapshot.getShares();
             for (int i = 0; i < size; i++) {
                 map.put(in.readUTF(), shares[i]);
@@ -128,4 +155,26 @@ public class KVStoreServer implements ConfidentialSingleExecutable {
             e.printStackTrace();
         }
     }
+
+    @Override
+    public Set<String> takeDirtyKeys() {
+        Set<String> keys = new HashSet<>(dirtyKeys);
+        dirtyKeys.removeAll(keys);
+        return keys;
+    }
+
+    @Override
+    public ConfidentialSnapshot getEntry(String key) {
+        VerifiableShare value = map.get(key);
+        return value == null ? null : new ConfidentialSnapshot(null, value);
+    }
+
+    @Override
+    public void installEntries(Map<String, ConfidentialSnapshot> entries) {
+        Map<String, VerifiableShare> newMap = new ConcurrentSkipListMap<>();
+        for (Map.Entry<String, ConfidentialSnapshot> entry : entries.entrySet())
+            newMap.put(entry.getKey(), entry.getValue().getShares()[0]);
+        map = newMap;
+        dirtyKeys.clear();
+    }
 }
@@ -0,0 +1,29 @@
+package confidential.facade.server;
+
+import bftsmart.tom.MessageContext;
+import confidential.ConfidentialMessage;
+import vss.secretsharing.VerifiableShare;
+
+/**
+ * Application that executes all ordered operations of a consensus decision at once, e.g., to commit them as a group
+ * or to update its indexes in bulk. The operations of client batch requests are passed individually, in delivery
+ * order, and share the message context of their request. Replies are sent after the whole batch is executed.
+ */
+public interface ConfidentialBatchExecutable extends ConfidentialSingleExecutable {
+    /**
+     * @param plainData Plain data of each operation
+     * @param shares Shares of this replica for each operation, already decrypted
+     * @param msgCtx Message context of each operation
+     * @return Response of each operation, in the same order
+     */
+    ConfidentialMessage[] appExecuteBatch(byte[][] plainData, VerifiableShare[][] shares, MessageContext[] msgCtx);
+
+    /**
+     * Ordered operations are always delivered through {@link #appExecuteBatch}.
+     */
+    @Override
+    default ConfidentialMessage appExecuteOrdered(byte[] plainData, VerifiableShare[] shares, MessageContext msgCtx) {
+        return appExecuteBatch(new byte[][]{plainData}, new VerifiableShare[][]{shares},
+                new MessageContext[]{msgCtx})[0];
+    }
+}
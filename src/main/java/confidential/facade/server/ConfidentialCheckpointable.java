@@ -0,0 +1,20 @@
+package confidential.facade.server;
+
+import confidential.statemanagement.ConfidentialSnapshot;
+
+import java.util.function.Supplier;
+
+/**
+ * Application that can capture a copy-on-write view of its state, e.g., by freezing the current version of a
+ * persistent data structure, so that checkpoints are built while requests keep executing. Applications that only
+ * implement {@link ConfidentialSingleExecutable#getConfidentialSnapshot()} have their snapshot taken on the
+ * delivery thread and only its serialization and hashing run in background.
+ */
+public interface ConfidentialCheckpointable {
+    /**
+     * Called between consensus decisions, while no request executes. Must return quickly and the returned view
+     * must not change when later requests execute.
+     * @return View of the current state, whose snapshot is built on the checkpoint thread
+     */
+    Supplier<ConfidentialSnapshot> captureSnapshotView();
+}
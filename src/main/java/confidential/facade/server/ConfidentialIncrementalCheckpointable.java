@@ -0,0 +1,32 @@
+package confidential.facade.server;
+
+import confidential.statemanagement.ConfidentialSnapshot;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Application whose state is a set of keyed entries and that tracks the keys written by requests, so that each
+ * checkpoint stores only the entries changed since the previous one. Snapshots of such applications are built
+ * from their entries and installed with {@link #installEntries(Map)}, so
+ * {@link ConfidentialSingleExecutable#getConfidentialSnapshot()} and
+ * {@link ConfidentialSingleExecutable#installConfidentialSnapshot(ConfidentialSnapshot)} are not used.
+ */
+public interface ConfidentialIncrementalCheckpointable {
+    /**
+     * Returns the keys written since the previous call and forgets them. Called between consensus decisions, while
+     * no request executes.
+     */
+    Set<String> takeDirtyKeys();
+
+    /**
+     * Called between consensus decisions, while no request executes.
+     * @return Plain data and shares of the entry or null if it was removed
+     */
+    ConfidentialSnapshot getEntry(String key);
+
+    /**
+     * Replaces the whole state with the given entries and forgets the dirty keys.
+     */
+    void installEntries(Map<String, ConfidentialSnapshot> entries);
+}
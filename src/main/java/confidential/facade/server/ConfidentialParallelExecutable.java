@@ -0,0 +1,17 @@
+package confidential.facade.server;
+
+import vss.secretsharing.VerifiableShare;
+
+/**
+ * Application that executes the ordered requests of a consensus decision in parallel. When
+ * cobra.execution_threads is greater than one, requests whose conflict classes do not overlap are executed
+ * concurrently, so {@link #appExecuteOrdered} must be thread-safe for non-conflicting requests. Conflicting requests
+ * are executed in delivery order and no request runs while a snapshot is taken.
+ */
+public interface ConfidentialParallelExecutable extends ConfidentialSingleExecutable {
+    /**
+     * Declares the state an ordered request reads and writes. Runs on the delivery thread and must return the same
+     * classes at every replica.
+     */
+    ConflictClasses getConflictClasses(byte[] plainData, VerifiableShare[] shares);
+}
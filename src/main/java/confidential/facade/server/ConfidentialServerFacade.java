@@ -3,6 +3,7 @@ package confidential.facade.server;
 import bftsmart.tom.ServiceReplica;
 import bftsmart.tom.server.Replier;
 import bftsmart.tom.server.RequestVerifier;
+import bftsmart.tom.server.defaultservices.DefaultReplier;
 import bftsmart.tom.util.KeyLoader;
 import confidential.server.ConfidentialRecoverable;
 
@@ -45,6 +46,9 @@ public final class ConfidentialServerFacade {
                                     Provider provider) {
         ConfidentialRecoverable cr =
                 new ConfidentialRecoverable(processId, confidentialExecutor);
+        if (replier == null)
+            replier = new DefaultReplier();
+        cr.setReplier(replier);
         new ServiceReplica(processId, cr, cr, requestVerifier, replier, loader,
                 provider, cr, cr);
     }
@@ -0,0 +1,21 @@
+package confidential.facade.server;
+
+import bftsmart.tom.MessageContext;
+import vss.secretsharing.VerifiableShare;
+
+/**
+ * Application that replaces by itself the placeholder shares of requests executed without this replica's private
+ * data. Placeholders have the commitments and shared data of the real shares and a zero share value. Applications
+ * that do not implement this interface only get the placeholder objects they were given completed in place, and
+ * only while the request is still in the log.
+ */
+public interface ConfidentialShareReplaceable {
+    /**
+     * Replaces the stored placeholders that have the same commitments as the given shares, e.g., marking their keys
+     * as written. Called between consensus decisions, while no request executes, both when the shares arrive and
+     * when the log is replayed, so shares whose placeholders were already replaced or overwritten must be ignored.
+     * @param shares Shares of this replica, already decrypted and verified
+     * @param msgCtx Message context of the request executed with the placeholders
+     */
+    void appReplacePlaceholderShares(VerifiableShare[] shares, MessageContext msgCtx);
+}
@@ -0,0 +1,74 @@
+package confidential.facade.server;
+
+import java.util.*;
+
+/**
+ * Keys of the state read and written by an ordered request. Two requests conflict if one writes a key the other
+ * reads or writes, or if either of them is global. Keys are compared using equals and hashCode.
+ */
+public final class ConflictClasses {
+    private static final ConflictClasses GLOBAL = new ConflictClasses(Collections.emptySet(),
+            Collections.emptySet(), true);
+    private static final ConflictClasses NONE = new ConflictClasses(Collections.emptySet(),
+            Collections.emptySet(), false);
+    private final Set<Object> readKeys;
+    private final Set<Object> writeKeys;
+    private final boolean isGlobal;
+
+    private ConflictClasses(Set<Object> readKeys, Set<Object> writeKeys, boolean isGlobal) {
+        this.readKeys = readKeys;
+        this.writeKeys = writeKeys;
+        this.isGlobal = isGlobal;
+    }
+
+    public static ConflictClasses of(Collection<?> readKeys, Collection<?> writeKeys) {
+        return new ConflictClasses(new HashSet<>(readKeys), new HashSet<>(writeKeys), false);
+    }
+
+    public static ConflictClasses read(Object... keys) {
+        return of(Arrays.asList(keys), Collections.emptySet());
+    }
+
+    public static ConflictClasses write(Object... keys) {
+        return of(Collections.emptySet(), Arrays.asList(keys));
+    }
+
+    /**
+     * @return Classes of a request that conflicts with every other request
+     */
+    public static ConflictClasses global() {
+        return GLOBAL;
+    }
+
+    /**
+     * @return Classes of a request that does not access the replicated state
+     */
+    public static ConflictClasses none() {
+        return NONE;
+    }
+
+    /**
+     * @return Classes of a request that executes both this request and the other one
+     */
+    public ConflictClasses merge(ConflictClasses other) {
+        if (isGlobal || other.isGlobal)
+            return GLOBAL;
+        Set<Object> reads = new HashSet<>(readKeys);
+        reads.addAll(other.readKeys);
+        Set<Object> writes = new HashSet<>(writeKeys);
+        writes.addAll(other.writeKeys);
+        return new ConflictClasses(reads, writes, false);
+    }
+
+    public Set<Object> getReadKeys() {
+        return readKeys;
+    }
+
+    public Set<Object> getWriteKeys() {
+        return writeKeys;
+    }
+
+    public boolean isGlobal() {
+        return isGlobal;
+    }
+}
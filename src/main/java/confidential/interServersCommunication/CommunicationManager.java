@@ -1,26 +1,23 @@
 package confidential.interServersCommunication;
 
 import bftsmart.reconfiguration.ServerViewController;
+import confidential.Configuration;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
-public class CommunicationManager extends Thread {
+public class CommunicationManager {
     private final Logger logger = LoggerFactory.getLogger("communication");
-    private boolean doWork;
-    private final LinkedBlockingQueue<InternalMessage> inQueue;
-    private final HashMap<CommunicationTag, MessageListener> messageListeners;
+    private final Map<CommunicationTag, MessageDispatcher> dispatchers;
     private final ConnectionManager connectionManager;
 
     public CommunicationManager(ServerViewController svController) {
-        super("Communication Manager Thread");
-        this.doWork = true;
-        this.inQueue = new LinkedBlockingQueue<>(svController.getStaticConf().getInQueueSize());
-        this.messageListeners = new HashMap<>();
+        this.dispatchers = new ConcurrentHashMap<>();
         try {
-            this.connectionManager = new ConnectionManager(svController, inQueue);
+            this.connectionManager = new ConnectionManager(svController, this);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to initialize connection manager", e);
         }
@@ -29,41 +26,48 @@ public class CommunicationManager extends Thread {
 
     public boolean registerMessageListener(MessageListener listener) {
         CommunicationTag tag = listener.getTag();
-        if (messageListeners.containsKey(tag))
+        Configuration configuration = Configuration.getInstance();
+        MessageDispatcher dispatcher = new MessageDispatcher(listener, configuration.getDispatcherThreads(),
+                configuration.getDispatcherQueueSize());
+        if (dispatchers.putIfAbsent(tag, dispatcher) != null)
             return false;
-        messageListeners.put(tag, listener);
+        dispatcher.start();
         return true;
     }
 
-    @Override
-    public void run() {
-        while (doWork) {
-            try {
-                InternalMessage message = inQueue.take();
-
-                logger.debug("Received a message with tag {}", message.getTag());
-                MessageListener listener = messageListeners.get(message.getTag());
-                if (listener == null) {
-                    logger.warn("There is no listener for tag {}", message.getTag());
-                    continue;
-                }
-                listener.messageReceived(message);
-            } catch (InterruptedException e) {
-                logger.error("Failed to take internal message from inQueue", e);
-                break;
-            }
+    /**
+     * Hands a received message to the dispatcher of its tag without blocking.
+     * @param message Received message
+     */
+    public void deliver(InternalMessage message) {
+        logger.debug("Received a message with tag {}", message.getTag());
+        MessageDispatcher dispatcher = dispatchers.get(message.getTag());
+        if (dispatcher == null) {
+            logger.warn("There is no listener for tag {}", message.getTag());
+            return;
         }
+        dispatcher.dispatch(message);
+    }
 
-        logger.debug("Exiting communication manager thread");
+    public int getQueueDepth(CommunicationTag tag) {
+        MessageDispatcher dispatcher = dispatchers.get(tag);
+        return dispatcher == null ? 0 : dispatcher.getQueueDepth();
     }
 
-    public void send(CommunicationTag tag, InternalMessage message, int... targets) {
-        connectionManager.send(tag, message, targets);
+    public void send(CommunicationTag tag, TrafficClass trafficClass, InternalMessage message, int... targets) {
+        connectionManager.send(tag, trafficClass, message, targets);
+    }
+
+    public CompletableFuture<Void> sendAsync(CommunicationTag tag, TrafficClass trafficClass,
+                                             InternalMessage message, int... targets) {
+        return connectionManager.sendAsync(tag, trafficClass, message, targets);
     }
 
     public void shutdown() {
         logger.info("Shutting down communication manager");
-        doWork = false;
         connectionManager.shutdown();
+        for (MessageDispatcher dispatcher : dispatchers.values()) {
+            dispatcher.shutdown();
+        }
     }
 }
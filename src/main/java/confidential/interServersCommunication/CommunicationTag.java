@@ -1,10 +1,25 @@
 package confidential.interServersCommunication;
 
 public enum CommunicationTag {
-    POLYNOMIAL;
+    POLYNOMIAL(true);
 
     private static final CommunicationTag[] values = CommunicationTag.values();
 
+    private final boolean isControl;
+
+    CommunicationTag(boolean isControl) {
+        this.isControl = isControl;
+    }
+
+    /**
+     * @return true if the messages of this tag belong to protocols that do not retransmit them, so they are never
+     * dropped. Their dispatcher queues are unbounded, which is safe because these protocols exchange a bounded
+     * number of messages per execution.
+     */
+    public boolean isControl() {
+        return isControl;
+    }
+
     public static CommunicationTag getTag(int ordinal) {
         return values[ordinal];
     }
@@ -13,7 +13,7 @@ import java.io.IOException;
 import java.net.SocketException;
 import java.security.*;
 import java.security.cert.CertificateException;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -24,14 +24,14 @@ public class Connection {
     private final Logger logger = LoggerFactory.getLogger("communication");
     private static final long POOL_TIME = 5000;
     private final boolean useSenderThread;
-    private final LinkedBlockingQueue<byte[]> outQueue;
+    private final TrafficClassQueues outQueues;
     private final ServerViewController svController;
     private final int remoteId;
     private Lock sendLock;
-    private SSLSocket socket;
+    private volatile SSLSocket socket;
     private DataOutputStream socketOutStream;
     private DataInputStream socketInStream;
-    private boolean doWork;
+    private volatile boolean doWork;
     private final Lock connectLock;
     private final ReceiverThread receiverThread;
     private KeyStore ks;
@@ -40,9 +40,9 @@ public class Connection {
     private static final String SECRET = "MySeCreT_2hMOygBwY";
 
     public Connection(ServerViewController svController, int remoteId, SSLSocket socket,
-                      LinkedBlockingQueue<InternalMessage> inQueue) {
+                      CommunicationManager communicationManager) {
         this.useSenderThread = svController.getStaticConf().isUseSenderThread();
-        this.outQueue = new LinkedBlockingQueue<>(svController.getStaticConf().getOutQueueSize());
+        this.outQueues = new TrafficClassQueues(svController.getStaticConf().getOutQueueSize());
         this.svController = svController;
         this.remoteId = remoteId;
         this.socket = socket;
@@ -63,21 +63,37 @@ public class Connection {
 
         if (useSenderThread) {
             logger.debug("Using sender thread for {}", remoteId);
-            new SenderThread(remoteId, outQueue, this)
+            new SenderThread(remoteId, outQueues, this)
                     .start();
         } else {
             sendLock = new ReentrantLock(true);
         }
 
-        receiverThread = new ReceiverThread(remoteId, inQueue, this.socket, socketInStream, this);
+        receiverThread = new ReceiverThread(remoteId, communicationManager, this.socket, socketInStream, this);
         receiverThread.start();
     }
 
-    public void send(byte[] data) {
+    /**
+     * Sends data to the remote replica. When using the sender thread, data is queued in the out queue of its
+     * traffic class, otherwise it is written immediately and the traffic class is ignored.
+     */
+    public void send(TrafficClass trafficClass, byte[] data) {
         if (useSenderThread) {
-            logger.debug("Queue message for {}", remoteId);
-            if (!outQueue.offer(data)) {
-                logger.debug("Out queue for {} is full (message discarded)", remoteId);
+            logger.debug("Queue {} message for {}", trafficClass, remoteId);
+            try {
+                // block while the connection is up and the out queue is full, instead of discarding the message.
+                // The receiver of the peer never blocks, so the queue drains while the connection is up
+                while (!outQueues.offer(trafficClass, data, POOL_TIME, TimeUnit.MILLISECONDS)) {
+                    if (!doWork || socket == null) {
+                        logger.debug("{} out queue for {} is full and connection is down (message discarded)",
+                                trafficClass, remoteId);
+                        return;
+                    }
+                    logger.debug("{} out queue for {} is full (waiting)", trafficClass, remoteId);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("Interrupted while queueing message for {} (message discarded)", remoteId);
+                Thread.currentThread().interrupt();
             }
         } else {
             sendLock.lock();
@@ -119,6 +135,10 @@ public class Connection {
         } while (doWork);
     }
 
+    public TrafficClassQueues getOutQueues() {
+        return outQueues;
+    }
+
     public boolean isDoingWork() {
         return doWork;
     }
@@ -128,6 +148,12 @@ public class Connection {
 
         doWork = false;
         closeSocket();
+        if (useSenderThread) {
+            for (TrafficClass trafficClass : TrafficClass.values()) {
+                logger.info("{} traffic to {}: {} messages, {} bytes", trafficClass, remoteId,
+                        outQueues.getNSentMessages(trafficClass), outQueues.getNSentBytes(trafficClass));
+            }
+        }
     }
 
     private boolean isToConnect() {
@@ -161,7 +187,7 @@ public class Connection {
                 Thread.sleep(POOL_TIME);
             } catch (InterruptedException ignored) { }
 
-            outQueue.clear();
+            outQueues.clear();
             reconnect(null);
         }
     }
@@ -15,9 +15,12 @@ import java.security.SecureRandom;
 import java.security.Security;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -29,21 +32,23 @@ public class ConnectionManager extends Thread {
     private boolean doWork;
     private final ServerViewController svController;
     private final Lock connectionsLock;
-    private final HashMap<Integer, Connection> connections;
-    private final LinkedBlockingQueue<InternalMessage> inQueue;
+    private final Map<Integer, Connection> connections;
+    private final Map<Integer, ExecutorService> asyncSenders;
+    private final CommunicationManager communicationManager;
     private final int me;
 
     private static final String SECRET = "MySeCreT_2hMOygBwY";
     private final SSLServerSocket serverSocketSSLTLS;
 
     public ConnectionManager(ServerViewController svController,
-                             LinkedBlockingQueue<InternalMessage> inQueue) throws Exception{
+                             CommunicationManager communicationManager) throws Exception{
         super("Connection Manager Thread");
         this.svController = svController;
-        this.inQueue = inQueue;
+        this.communicationManager = communicationManager;
         this.doWork = true;
         this.connectionsLock = new ReentrantLock(true);
-        this.connections = new HashMap<>(svController.getCurrentViewN());
+        this.connections = new ConcurrentHashMap<>(svController.getCurrentViewN());
+        this.asyncSenders = new ConcurrentHashMap<>(svController.getCurrentViewN());
         String ssltlsProtocolVersion = svController.getStaticConf().getSSLTLSProtocolVersion();
         this.me = svController.getStaticConf().getProcessId();
 
@@ -112,13 +117,9 @@ public class ConnectionManager extends Thread {
         }
     }
 
-    public void send(CommunicationTag tag, InternalMessage message, int... targets) {
-        try (ByteArrayOutputStream bOut = new ByteArrayOutputStream(512);
-             ObjectOutput out = new ObjectOutputStream(bOut)) {
-            message.writeExternal(out);
-            out.flush();
-            bOut.flush();
-            byte[] data = bOut.toByteArray();
+    public void send(CommunicationTag tag, TrafficClass trafficClass, InternalMessage message, int... targets) {
+        try {
+            byte[] data = serialize(message);
 
             List<Integer> targetIndexes = new ArrayList<>(targets.length);
             for (int i = 0; i < targets.length; i++) {
@@ -129,20 +130,66 @@ public class ConnectionManager extends Thread {
             for (int targetIndex : targetIndexes) {
                 int target = targets[targetIndex];
                 if (target == me) {
-                    inQueue.put(message);
+                    communicationManager.deliver(message);
                     logger.debug("Queueing (delivering) my own message with tag {}", tag);
                 } else {
                     logger.debug("Sending message to {} with tag {}", target, tag);
-                    getConnection(target).send(data);
+                    getConnection(target).send(trafficClass, data);
                 }
             }
         } catch (IOException e) {
             logger.error("Failed to serialize message with tag {}", tag, e);
-        } catch (InterruptedException e) {
-            logger.error("Failed to insert message into inQueue", e);
         }
     }
 
+    /**
+     * Sends a message without blocking the caller. The message is serialized once and queued in the outbound
+     * lane of each target, which preserves the order of asynchronous messages sent to the same target.
+     * @return Future completed when the message has been handed to the connection of every target
+     */
+    public CompletableFuture<Void> sendAsync(CommunicationTag tag, TrafficClass trafficClass,
+                                             InternalMessage message, int... targets) {
+        byte[] data;
+        try {
+            data = serialize(message);
+        } catch (IOException e) {
+            logger.error("Failed to serialize message with tag {}", tag, e);
+            CompletableFuture<Void> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[targets.length];
+        for (int i = 0; i < targets.length; i++) {
+            int target = targets[i];
+            futures[i] = CompletableFuture.runAsync(() -> {
+                if (target == me) {
+                    communicationManager.deliver(message);
+                } else {
+                    getConnection(target).send(trafficClass, data);
+                }
+            }, getAsyncSender(target));
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    private byte[] serialize(InternalMessage message) throws IOException {
+        try (ByteArrayOutputStream bOut = new ByteArrayOutputStream(512);
+             ObjectOutput out = new ObjectOutputStream(bOut)) {
+            message.writeExternal(out);
+            out.flush();
+            bOut.flush();
+            return bOut.toByteArray();
+        }
+    }
+
+    private ExecutorService getAsyncSender(int remoteId) {
+        return asyncSenders.computeIfAbsent(remoteId, id -> Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Async Sender Thread for " + id);
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
     @Override
     public void run() {
         while (doWork) {
@@ -174,6 +221,10 @@ public class ConnectionManager extends Thread {
 
         doWork = false;
 
+        for (ExecutorService asyncSender : asyncSenders.values()) {
+            asyncSender.shutdown();
+        }
+
         int[] activeServers = svController.getCurrentViewAcceptors();
         for (int activeServer : activeServers) {
             if (me != activeServer) {
@@ -183,10 +234,13 @@ public class ConnectionManager extends Thread {
     }
 
     private Connection getConnection(int remoteId) {
-        connectionsLock.lock();
         Connection ret = this.connections.get(remoteId);
+        if (ret != null)
+            return ret;
+        connectionsLock.lock();
+        ret = this.connections.get(remoteId);
         if (ret == null) {
-            ret = new Connection(svController, remoteId, null, inQueue);
+            ret = new Connection(svController, remoteId, null, communicationManager);
             this.connections.put(remoteId, ret);
         }
         connectionsLock.unlock();
@@ -200,7 +254,7 @@ public class ConnectionManager extends Thread {
                 //first time that this connection is being established
                 //System.out.println("THIS DOES NOT HAPPEN....."+remoteId);
                 this.connections.put(remoteId,
-                        new Connection(svController, remoteId, newSocket, inQueue));
+                        new Connection(svController, remoteId, newSocket, communicationManager));
             } else {
                 //reconnection
                 logger.debug("ReConnecting with replica: {}", remoteId);
@@ -14,8 +14,11 @@ import java.io.IOException;
 import java.io.ObjectOutput;
 import java.io.ObjectOutputStream;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class InterServersCommunication {
     private final Logger logger = LoggerFactory.getLogger("communication");
@@ -24,31 +27,89 @@ public class InterServersCommunication {
     private final Map<InterServersMessageType, InterServerMessageListener> listeners;
     private final CommunicationManager communicationManager;
     private final int pid;
+    private final Map<Integer, PendingOrderedMessage> pendingOrderedMessages;
+    private final Lock orderedFlushLock;
+    private volatile int nextOrderedSequence;
 
     public InterServersCommunication(ServerCommunicationSystem communicationSystem, ServerViewController viewController) {
         this.tomMessageGenerator = new TOMMessageGenerator(viewController);
         this.communicationSystem = communicationSystem;
-        this.listeners = new HashMap<>();
+        this.listeners = new ConcurrentHashMap<>();
         this.communicationManager = new CommunicationManager(viewController);
-        this.communicationManager.start();
         this.pid = viewController.getStaticConf().getProcessId();
+        this.pendingOrderedMessages = new ConcurrentHashMap<>();
+        this.orderedFlushLock = new ReentrantLock();
     }
 
-    public synchronized void sendOrdered(InterServersMessageType type, byte[] metadata, byte[] request,
+    /**
+     * Sends a request to be ordered. Requests can be created and signed concurrently, but are handed to the
+     * communication system in sequence order, because replicas discard forwarded requests whose sequence
+     * number is lower than the last one received from this replica.
+     */
+    public void sendOrdered(InterServersMessageType type, byte[] metadata, byte[] request,
                             int... targets) {
-        TOMMessage msg = tomMessageGenerator.getNextOrdered(metadata,
-                serializeRequest(type, request));
-        communicationSystem.send(targets, new ForwardedMessage(msg.getSender(), msg));
+        byte[] payload = serializeRequest(type, request);
+        if (payload == null) {
+            logger.error("Failed to serialize ordered request of type {}", type);
+            return;
+        }
+        TOMMessage msg = tomMessageGenerator.getNextOrdered(metadata, payload);
+        pendingOrderedMessages.put(msg.getSequence(), new PendingOrderedMessage(msg, targets));
+        flushOrderedMessages();
+    }
+
+    /**
+     * Sends pending ordered requests in sequence order. Only one thread flushes at a time; a thread that fails
+     * to acquire the flush lock leaves its request to the thread holding it, so no sender ever waits. A request
+     * that fails to be sent is dropped, so it does not hold back the ones queued after it.
+     */
+    private void flushOrderedMessages() {
+        while (!pendingOrderedMessages.isEmpty() && orderedFlushLock.tryLock()) {
+            try {
+                PendingOrderedMessage pending;
+                while ((pending = pendingOrderedMessages.remove(nextOrderedSequence)) != null) {
+                    try {
+                        communicationSystem.send(pending.targets,
+                                new ForwardedMessage(pending.message.getSender(), pending.message));
+                    } catch (RuntimeException e) {
+                        logger.error("Failed to send ordered request with sequence {}. Dropping it.",
+                                nextOrderedSequence, e);
+                    } finally {
+                        nextOrderedSequence++;
+                    }
+                }
+            } finally {
+                orderedFlushLock.unlock();
+            }
+            if (!pendingOrderedMessages.containsKey(nextOrderedSequence))
+                break;
+        }
     }
 
     public boolean registerListener(MessageListener listener) {
         return communicationManager.registerMessageListener(listener);
     }
 
-    public synchronized void sendUnordered(CommunicationTag tag, InterServersMessageType type,
-                                           byte[] request, int... targets) {
+    public void sendUnordered(CommunicationTag tag, InterServersMessageType type,
+                              byte[] request, int... targets) {
+        byte[] message = serializeInternalRequest(type, request);
+        communicationManager.send(tag, type.getTrafficClass(), new InternalMessage(pid, tag, message), targets);
+    }
+
+    /**
+     * Asynchronous version of {@link #sendUnordered(CommunicationTag, InterServersMessageType, byte[], int...)}.
+     * Messages sent asynchronously to the same target are delivered in the order they were sent.
+     * @return Future completed when the message has been queued for every target
+     */
+    public CompletableFuture<Void> sendUnorderedAsync(CommunicationTag tag, InterServersMessageType type,
+                                                      byte[] request, int... targets) {
         byte[] message = serializeInternalRequest(type, request);
-        communicationManager.send(tag, new InternalMessage(pid, tag, message), targets);
+        return communicationManager.sendAsync(tag, type.getTrafficClass(), new InternalMessage(pid, tag, message),
+                targets);
+    }
+
+    public int getQueueDepth(CommunicationTag tag) {
+        return communicationManager.getQueueDepth(tag);
     }
 
     public void registerListener(InterServerMessageListener listener, InterServersMessageType messageType,
@@ -92,4 +153,14 @@ public class InterServersCommunication {
         }
         return null;
     }
+
+    private static class PendingOrderedMessage {
+        private final TOMMessage message;
+        private final int[] targets;
+
+        private PendingOrderedMessage(TOMMessage message, int[] targets) {
+            this.message = message;
+            this.targets = targets;
+        }
+    }
 }
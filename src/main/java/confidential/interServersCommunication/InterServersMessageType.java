@@ -1,16 +1,31 @@
 package confidential.interServersCommunication;
 
+/**
+ * Messages of the same traffic class are delivered in the order they were sent, but messages of different classes
+ * are not. The polynomial creation protocol relies on that order, e.g., a proposal received before the
+ * NEW_POLYNOMIAL message that creates its polynomial creator is discarded, so all its messages use one class.
+ */
 public enum InterServersMessageType {
-    NEW_POLYNOMIAL,
-    POLYNOMIAL_PROPOSAL,
-    POLYNOMIAL_PROPOSAL_SET,
-    POLYNOMIAL_VOTE,
-    POLYNOMIAL_REQUEST_MISSING_PROPOSALS,
-    POLYNOMIAL_PROCESSED_VOTES,
-    POLYNOMIAL_MISSING_PROPOSALS;
+    NEW_POLYNOMIAL(TrafficClass.PROPOSAL),
+    POLYNOMIAL_PROPOSAL(TrafficClass.PROPOSAL),
+    POLYNOMIAL_PROPOSAL_SET(TrafficClass.PROPOSAL),
+    POLYNOMIAL_VOTE(TrafficClass.PROPOSAL),
+    POLYNOMIAL_REQUEST_MISSING_PROPOSALS(TrafficClass.PROPOSAL),
+    POLYNOMIAL_PROCESSED_VOTES(TrafficClass.PROPOSAL),
+    POLYNOMIAL_MISSING_PROPOSALS(TrafficClass.PROPOSAL);
 
     private static InterServersMessageType[] values = InterServersMessageType.values();
 
+    private final TrafficClass trafficClass;
+
+    InterServersMessageType(TrafficClass trafficClass) {
+        this.trafficClass = trafficClass;
+    }
+
+    public TrafficClass getTrafficClass() {
+        return trafficClass;
+    }
+
     public static InterServersMessageType getType(int ordinal) {
         return values[ordinal];
     }
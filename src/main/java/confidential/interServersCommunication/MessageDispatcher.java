@@ -0,0 +1,146 @@
+package confidential.interServersCommunication;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the messages of a single communication tag to its listener using a pool of worker threads.
+ * Each worker owns a bounded queue and messages are assigned to workers by sender, so messages from the
+ * same sender are delivered in the order they were received.
+ * <p>
+ * Dispatching never blocks, because the receiver thread of a connection reads the messages of every tag from its
+ * peer. Blocking it on a full queue of one tag would stall the other tags and, when two replicas wait for each other
+ * to read, deadlock both. Queues of control tags are unbounded. Queues of other tags hold up to
+ * cobra.communication.dispatcher_queue_size messages and further messages of that tag are dropped, so the
+ * backpressure of a slow listener only affects its own tag.
+ */
+public class MessageDispatcher {
+    private final Logger logger = LoggerFactory.getLogger("communication");
+    private final MessageListener listener;
+    private final List<BlockingQueue<InternalMessage>> queues;
+    private final Worker[] workers;
+    private final AtomicInteger maxQueueDepth;
+    private final AtomicLong nDispatchedMessages;
+    private final AtomicLong nDroppedMessages;
+    private volatile boolean doWork;
+
+    public MessageDispatcher(MessageListener listener, int nWorkers, int queueSize) {
+        this.listener = listener;
+        this.queues = new ArrayList<>(nWorkers);
+        this.workers = new Worker[nWorkers];
+        this.maxQueueDepth = new AtomicInteger();
+        this.nDispatchedMessages = new AtomicLong();
+        this.nDroppedMessages = new AtomicLong();
+        this.doWork = true;
+        for (int i = 0; i < nWorkers; i++) {
+            queues.add(listener.getTag().isControl() ? new LinkedBlockingQueue<>()
+                    : new ArrayBlockingQueue<>(queueSize));
+            workers[i] = new Worker(i);
+        }
+    }
+
+    public CommunicationTag getTag() {
+        return listener.getTag();
+    }
+
+    public void start() {
+        for (Worker worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a message to be delivered to the listener, dropping it if the queue of the responsible worker is
+     * full. Messages dispatched by one of this dispatcher's own workers are delivered directly to keep their order
+     * with the message being delivered.
+     * @param message Message to deliver
+     */
+    public void dispatch(InternalMessage message) {
+        Thread currentThread = Thread.currentThread();
+        if (currentThread instanceof Worker && ((Worker) currentThread).getDispatcher() == this) {
+            deliver(message);
+            return;
+        }
+        BlockingQueue<InternalMessage> queue = queues.get(Math.floorMod(message.getSender(), queues.size()));
+        if (!queue.offer(message)) {
+            nDroppedMessages.incrementAndGet();
+            logger.warn("Dispatcher queue for tag {} is full (dropping message from {})", getTag(),
+                    message.getSender());
+            return;
+        }
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+    }
+
+    public int getQueueDepth() {
+        int depth = 0;
+        for (BlockingQueue<InternalMessage> queue : queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    public long getNDispatchedMessages() {
+        return nDispatchedMessages.get();
+    }
+
+    public long getNDroppedMessages() {
+        return nDroppedMessages.get();
+    }
+
+    public void shutdown() {
+        doWork = false;
+        for (Worker worker : workers) {
+            worker.interrupt();
+        }
+        logger.info("Dispatcher for tag {}: {} messages delivered, max queue depth {}, {} dropped messages",
+                getTag(), getNDispatchedMessages(), getMaxQueueDepth(), getNDroppedMessages());
+    }
+
+    private void deliver(InternalMessage message) {
+        nDispatchedMessages.incrementAndGet();
+        try {
+            listener.deliverMessage(message);
+        } catch (Exception e) {
+            logger.warn("Failed to deliver a message with tag {}", getTag(), e);
+        }
+    }
+
+    private class Worker extends Thread {
+        private final BlockingQueue<InternalMessage> queue;
+
+        private Worker(int index) {
+            super("Message Dispatcher Thread " + index + " for " + listener.getTag());
+            this.queue = queues.get(index);
+        }
+
+        private MessageDispatcher getDispatcher() {
+            return MessageDispatcher.this;
+        }
+
+        @Override
+        public void run() {
+            while (doWork) {
+                try {
+                    InternalMessage message = queue.take();
+                    logger.debug("I have message with tag {} to deliver", getTag());
+                    deliver(message);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            logger.debug("Exiting {}", getName());
+        }
+    }
+}
@@ -5,7 +5,6 @@ import org.slf4j.LoggerFactory;
 
 import javax.net.ssl.SSLSocket;
 import java.io.*;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Copy of bftsmart.communication.server.ServerConnection.ReceiverThread.java
@@ -13,16 +12,16 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class ReceiverThread extends Thread {
     private final Logger logger = LoggerFactory.getLogger("communication");
     private final int remoteId;
-    private final LinkedBlockingQueue<InternalMessage> inQueue;
+    private final CommunicationManager communicationManager;
     private SSLSocket socket;
     private DataInputStream socketInStream;
     private final Connection connection;
 
-    public ReceiverThread(int remoteId, LinkedBlockingQueue<InternalMessage> inQueue, SSLSocket socket,
+    public ReceiverThread(int remoteId, CommunicationManager communicationManager, SSLSocket socket,
                           DataInputStream socketInStream, Connection connection) {
         super("Receiver Thread for " + remoteId);
         this.remoteId = remoteId;
-        this.inQueue = inQueue;
+        this.communicationManager = communicationManager;
         this.socket = socket;
         this.socketInStream = socketInStream;
         this.connection = connection;
@@ -49,9 +48,7 @@ public class ReceiverThread extends Thread {
                         message.readExternal(in);
 
                         if (message.getSender() == remoteId) {
-                            if (!inQueue.offer(message)) {
-                                logger.warn("InQueue full (message from {} discarded)", remoteId);
-                            }
+                            communicationManager.deliver(message);
                         }
                     } catch (ClassNotFoundException e) {
                         logger.warn("Invalid message received. Ignoring!");
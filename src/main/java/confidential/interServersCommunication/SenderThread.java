@@ -3,7 +3,6 @@ package confidential.interServersCommunication;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Copy of bftsmart.communication.server.ServerConnection.SenderThread.java
@@ -11,13 +10,13 @@ import java.util.concurrent.LinkedBlockingQueue;
 public class SenderThread extends Thread {
     private final Logger logger = LoggerFactory.getLogger("communication");
     private final int remoteId;
-    private final LinkedBlockingQueue<byte[]> outQueue;
+    private final TrafficClassQueues outQueues;
     private final Connection connection;
 
-    public SenderThread(int remoteId, LinkedBlockingQueue<byte[]> outQueue, Connection connection) {
+    public SenderThread(int remoteId, TrafficClassQueues outQueues, Connection connection) {
         super("Sender Thread for " + remoteId);
         this.remoteId = remoteId;
-        this.outQueue = outQueue;
+        this.outQueues = outQueues;
         this.connection = connection;
     }
 
@@ -26,8 +25,9 @@ public class SenderThread extends Thread {
         byte[] data;
         while (connection.isDoingWork()) {
             try {
-                data = outQueue.take();
-                connection.sendBytes(data);
+                data = outQueues.take();
+                if (data != null)
+                    connection.sendBytes(data);
             } catch (InterruptedException ignored) {
                 break;
             }
@@ -0,0 +1,31 @@
+package confidential.interServersCommunication;
+
+/**
+ * Traffic classes of the inter-server channel. Each class has its own out queue in every connection and the
+ * sender thread serves the queues in weighted round-robin, so small control messages are not delayed behind
+ * large messages.
+ */
+public enum TrafficClass {
+    CONTROL(4),
+    PROPOSAL(2),
+    BULK(1);
+
+    private static final TrafficClass[] values = TrafficClass.values();
+
+    private final int weight;
+
+    TrafficClass(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * @return Maximum number of consecutive messages of this class sent while other classes have messages queued
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+    public static TrafficClass getTrafficClass(int ordinal) {
+        return values[ordinal];
+    }
+}
@@ -0,0 +1,96 @@
+package confidential.interServersCommunication;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Out queues of a connection, one per traffic class. Messages are taken in weighted round-robin: in each round,
+ * a class can send up to its weight in messages before the next class with queued messages is served.
+ * Only the sender thread of the connection takes messages.
+ */
+public class TrafficClassQueues {
+    private static final TrafficClass[] trafficClasses = TrafficClass.values();
+    private final List<LinkedBlockingQueue<byte[]>> queues;
+    private final Semaphore queuedMessages;
+    private final int[] credits;
+    private final AtomicLong[] nSentMessages;
+    private final AtomicLong[] nSentBytes;
+    private int currentClass;
+
+    public TrafficClassQueues(int queueSize) {
+        this.queues = new ArrayList<>(trafficClasses.length);
+        this.credits = new int[trafficClasses.length];
+        this.nSentMessages = new AtomicLong[trafficClasses.length];
+        this.nSentBytes = new AtomicLong[trafficClasses.length];
+        this.queuedMessages = new Semaphore(0);
+        for (TrafficClass trafficClass : trafficClasses) {
+            int i = trafficClass.ordinal();
+            queues.add(new LinkedBlockingQueue<>(queueSize));
+            credits[i] = trafficClass.getWeight();
+            nSentMessages[i] = new AtomicLong();
+            nSentBytes[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Queues a message, waiting up to the given time for space in the queue of its traffic class.
+     * @return true if the message was queued
+     */
+    public boolean offer(TrafficClass trafficClass, byte[] data, long timeout, TimeUnit unit)
+            throws InterruptedException {
+        if (!queues.get(trafficClass.ordinal()).offer(data, timeout, unit))
+            return false;
+        queuedMessages.release();
+        return true;
+    }
+
+    /**
+     * Waits for a queued message and takes the next one according to the weighted round-robin.
+     * @return Next message to send, or null if the queues were cleared in the meantime
+     */
+    public byte[] take() throws InterruptedException {
+        queuedMessages.acquire();
+        for (int attempt = 0; attempt < 2 * trafficClasses.length; attempt++) {
+            int i = currentClass;
+            if (credits[i] > 0) {
+                byte[] data = queues.get(i).poll();
+                if (data != null) {
+                    credits[i]--;
+                    nSentMessages[i].incrementAndGet();
+                    nSentBytes[i].addAndGet(data.length);
+                    return data;
+                }
+            }
+            credits[i] = trafficClasses[i].getWeight();
+            currentClass = (i + 1) % trafficClasses.length;
+        }
+        return null;
+    }
+
+    /**
+     * Removes the queued messages together with their permits, so the sender thread does not wake up for messages
+     * that are no longer queued.
+     */
+    public void clear() {
+        for (LinkedBlockingQueue<byte[]> queue : queues) {
+            while (queue.poll() != null)
+                queuedMessages.tryAcquire();
+        }
+    }
+
+    public int getQueueDepth(TrafficClass trafficClass) {
+        return queues.get(trafficClass.ordinal()).size();
+    }
+
+    public long getNSentMessages(TrafficClass trafficClass) {
+        return nSentMessages[trafficClass.ordinal()].get();
+    }
+
+    public long getNSentBytes(TrafficClass trafficClass) {
+        return nSentBytes[trafficClass.ordinal()].get();
+    }
+}
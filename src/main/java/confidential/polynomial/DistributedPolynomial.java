@@ -5,6 +5,7 @@ import confidential.Configuration;
 import confidential.interServersCommunication.*;
 import confidential.polynomial.creator.PolynomialCreator;
 import confidential.polynomial.creator.PolynomialCreatorFactory;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,6 +18,7 @@ import java.math.BigInteger;
 import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
@@ -35,9 +37,9 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
     private final int processId;
     private final BlockingQueue<InterServerMessageHolder> pendingMessages;
     private final Lock entryLock;
-    private final ExecutorService jobsProcessor;
-    private final ExecutorService proposalSetVerifierExecutor;
-    private final BigInteger[][] vandermondeMatrix;
+    private final ComputeScheduler computeScheduler;
+    private final int extractionYield;
+    private final ConcurrentMap<List<Integer>, VandermondeMatrix> vandermondeMatrices;
 
     public DistributedPolynomial(ServerViewController svController, InterServersCommunication serversCommunication,
                                  ServerConfidentialityScheme confidentialityScheme) {
@@ -58,44 +60,31 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
             public void deliverMessage(InternalMessage message) {
                 InterServersMessageType type = InterServersMessageType.getType(message.getMessage()[0]);
                 byte[] m = Arrays.copyOfRange(message.getMessage(), 1, message.getMessage().length);
-                while (!pendingMessages.offer(new InterServerMessageHolder(type, m, null))){
-                    logger.debug("Distributed polynomial pending message queue is full");
-                }
+                queuePendingMessage(new InterServerMessageHolder(type, m, null));
             }
         };
-        polynomialMessageListener.start();
         boolean isRegistered = serversCommunication.registerListener(polynomialMessageListener);
         if (!isRegistered)
             throw new IllegalStateException("Could not register polynomial message listener");
-        int rows = svController.getCurrentViewF() + 1;// svController.getCurrentViewN() - svController.getCurrentViewF();
-        int columns = svController.getCurrentViewF() + 1;//svController.getCurrentViewN();
-        this.vandermondeMatrix = new BigInteger[rows][columns];
-        BigInteger[] matrixInitValues = Configuration.getInstance().getVandermondeMatrixInitializationValues();
-
-
-        //TODO invert the matrix before using it
-        for (int r = 0; r < rows; r++) {
-            BigInteger exponent = BigInteger.valueOf(r);
-            for (int c = 0; c < columns; c++) {
-                vandermondeMatrix[r][c] = matrixInitValues[c].modPow(exponent, field);
-            }
-        }
+        this.extractionYield = Configuration.getInstance().getExtractionYield();
+        this.vandermondeMatrices = new ConcurrentHashMap<>();
+        int f = svController.getCurrentViewF();
+        getVandermondeMatrix(getNCombinedProposals(svController.getCurrentViewN(), f), f);
 
-        jobsProcessor = Executors.newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads());
-        proposalSetVerifierExecutor = Executors.newFixedThreadPool(Configuration.getInstance()
-                .getShareProcessingThreads());
+        computeScheduler = ComputeScheduler.getInstance();
     }
 
     public int getProcessId() {
         return processId;
     }
 
-    public void submitJob(Runnable job) {
-        jobsProcessor.execute(job);
+    public void submitJob(PolynomialCreationReason reason, Runnable job) {
+        computeScheduler.execute(getComputeClass(reason), job);
     }
 
-    public void submitProposalVerificationJob(Runnable job) {
-        proposalSetVerifierExecutor.execute(job);
+    private static ComputeScheduler.ComputeClass getComputeClass(PolynomialCreationReason reason) {
+        return reason == PolynomialCreationReason.RECOVERY ? ComputeScheduler.ComputeClass.RECOVERY
+                : ComputeScheduler.ComputeClass.RENEWAL;
     }
 
     public void registerCreationListener(PolynomialCreationListener listener, PolynomialCreationReason reason) {
@@ -124,8 +113,36 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
         }
     }
 
-    public BigInteger[][] getVandermondeMatrix() {
-        return vandermondeMatrix;
+    /**
+     * Corrupted members know f of the combined proposals, so only nProposals - f of the extracted polynomials are
+     * independent of what they know. Extracting more reveals linear relations between the secrets, so the configured
+     * yield is capped at nProposals - f.
+     * @return Number of polynomials extracted from each execution combining nProposals proposals
+     */
+    public int getExtractionYield(int nProposals, int f) {
+        int maxYield = Math.max(1, nProposals - f);
+        return extractionYield <= 0 ? maxYield : Math.min(extractionYield, maxYield);
+    }
+
+    /**
+     * Executions using the vandermonde matrix wait for the proposals of n - f members, which the correct members
+     * always send, so that n - 2f polynomials are extracted from each one. There is one matrix initialization value
+     * per combined proposal, which limits how many are combined.
+     * @return Number of proposals combined by each execution using the vandermonde matrix among n members
+     */
+    public int getNCombinedProposals(int n, int f) {
+        int nInitializationValues = Configuration.getInstance().getVandermondeMatrixInitializationValues().length;
+        return Math.max(f + 1, Math.min(n - f, nInitializationValues));
+    }
+
+    /**
+     * @return Vandermonde matrix combining nProposals proposals in views tolerating f faults, computed once per
+     * view size
+     */
+    public VandermondeMatrix getVandermondeMatrix(int nProposals, int f) {
+        return vandermondeMatrices.computeIfAbsent(Arrays.asList(nProposals, f),
+                k -> new VandermondeMatrix(getExtractionYield(nProposals, f), nProposals,
+                        Configuration.getInstance().getVandermondeMatrixInitializationValues(), field));
     }
 
     private PolynomialCreator createNewPolynomialCreator(PolynomialCreationContext context) {
@@ -148,15 +165,20 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
 
     @Override
     public void messageReceived(InterServerMessageHolder message) {
-        while (!pendingMessages.offer(message)){
-            logger.debug("Distributed polynomial pending message queue is full");
+        queuePendingMessage(message);
+    }
+
+    private void queuePendingMessage(InterServerMessageHolder message) {
+        try {
+            pendingMessages.put(message);
+        } catch (InterruptedException e) {
+            logger.error("Interrupted while queueing polynomial message of type {}", message.getType(), e);
+            Thread.currentThread().interrupt();
         }
     }
 
     @Override
     public void run() {
-        ExecutorService executorService = Executors.newFixedThreadPool(
-                Configuration.getInstance().getShareProcessingThreads());
         while (true) {
             try {
                 InterServerMessageHolder message = pendingMessages.take();
@@ -201,8 +223,8 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
                     PolynomialCreator finalPolynomialCreator = polynomialCreator;
                     PolynomialMessage finalPolynomialMessage = polynomialMessage;
                     int cid = message.getMessageContext() == null ? -1 : message.getMessageContext().getConsensusId();
-                    executorService.execute(() -> finalPolynomialCreator.messageReceived(message.getType(),
-                            finalPolynomialMessage, cid));
+                    submitJob(polynomialCreator.getCreationContext().getReason(),
+                            () -> finalPolynomialCreator.messageReceived(message.getType(), finalPolynomialMessage, cid));
                 } catch (IOException | ClassNotFoundException e) {
                     logger.error("Failed to deserialize polynomial message of type {}", message.getType(), e);
                 }
@@ -212,7 +234,6 @@ public class DistributedPolynomial implements Runnable, InterServerMessageListen
                 entryLock.unlock();
             }
         }
-        executorService.shutdown();
         logger.debug("Exiting Distributed Polynomial");
     }
 
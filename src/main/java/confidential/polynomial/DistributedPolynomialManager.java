@@ -48,7 +48,9 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
         );
         logger.info("Starting creation of {} polynomial(s) with initial id {} to recover {}", nPolynomials,
                 internalId, server);
-        int nExecutions = (int)Math.ceil((double) nPolynomials / (f + 1));
+        int polynomialsPerExecution = distributedPolynomial.getExtractionYield(
+                distributedPolynomial.getNCombinedProposals(members.length, f), f);
+        int nExecutions = (int)Math.ceil((double) nPolynomials / polynomialsPerExecution);
         logger.info("Executing recovery polynomial generation protocol {} times to generate {} polynomial(s)",
                 nExecutions, nPolynomials);
 
@@ -102,7 +104,12 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
         int internalId = internalSequenceNumber;
         logger.info("Starting creation of {} polynomial(s) with initial id {} for resharing", nPolynomials,
                 internalId);
-        for (int i = 0; i < nPolynomials; i++) {
+        //Old and new proposals are combined with the same matrix rows, so each extracted pair shares its secret
+        int polynomialsPerExecution = getResharingPolynomialsPerExecution(oldF, oldMembers);
+        int nExecutions = (int)Math.ceil((double) nPolynomials / polynomialsPerExecution);
+        logger.info("Executing resharing polynomial generation protocol {} times to generate {} polynomial(s)",
+                nExecutions, nPolynomials);
+        for (int i = 0; i < nExecutions; i++) {
             int id = internalSequenceNumber++;
             int leader = oldMembers[id % oldMembers.length];
 
@@ -110,14 +117,14 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
                     id,
                     internalId,
                     nPolynomials,
-                    false,
-                    false,
+                    true,
+                    true,
                     leader,
                     PolynomialCreationReason.RESHARING,
                     oldView,
                     newView
             );
-            logger.debug("Starting creation of new polynomial with id {} for resharing", id);
+            logger.debug("Starting creation of new polynomial(s) with id {} for resharing", id);
             distributedPolynomial.createNewPolynomial(creationContext);
         }
         ViewStatus viewStatus;
@@ -136,7 +143,8 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
                 newF,
                 oldMembers,
                 newMembers,
-                viewStatus
+                viewStatus,
+                polynomialsPerExecution
         );
 
         if (!resharingPolynomialContexts.containsKey(internalId)) {
@@ -207,20 +215,12 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
                     newContext.getF(),
                     oldContext.getMembers(),
                     newContext.getMembers(),
-                    viewStatus
+                    viewStatus,
+                    getResharingPolynomialsPerExecution(oldContext.getF(), oldContext.getMembers())
             );
             resharingPolynomialContexts.put(context.getInternalId(), polynomialContext);
         }
-        int size = points[0].length;
-        if (points.length == 1) {
-            for (int i = 0; i < size; i++) {
-                polynomialContext.addPolynomial(context.getId(), points[0][i]);
-            }
-        } else {
-            for (int i = 0; i < size; i++) {
-                polynomialContext.addPolynomial(context.getId(), points[0][i], points[1][i]);
-            }
-        }
+        polynomialContext.addPolynomials(context.getId(), points);
         polynomialContext.updateCID(cid);
         internalSequenceNumber = Math.max(internalSequenceNumber, context.getId() + 1);
         if (polynomialContext.currentSize == polynomialContext.getNPolynomials()) {
@@ -288,12 +288,14 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
                     newContext.getF(),
                     oldContext.getMembers(),
                     newContext.getMembers(),
-                    viewStatus
+                    viewStatus,
+                    getResharingPolynomialsPerExecution(oldContext.getF(), oldContext.getMembers())
             );
             resharingPolynomialContexts.put(context.getInternalId(), polynomialContext);
         }
         polynomialContext.updateCID(cid);
-        InvalidPolynomialContext invalidPolynomialContext = new InvalidPolynomialContext(invalidProposals, invalidPoints, 1);
+        InvalidPolynomialContext invalidPolynomialContext = new InvalidPolynomialContext(invalidProposals, invalidPoints,
+                polynomialContext.getNPolynomialsOf(context.getId()));
         polynomialContext.addInvalidPolynomialProposals(context.getId(), invalidPolynomialContext);
         internalSequenceNumber = Math.max(internalSequenceNumber, context.getId() + 1);
         if (polynomialContext.currentSize == polynomialContext.getNPolynomials()) {
@@ -316,7 +318,9 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
         }
         polynomialContext.updateCID(cid);
         InvalidPolynomialContext invalidPolynomialContext = new InvalidPolynomialContext(invalidProposals, invalidPoints,
-                polynomialContext.getF() + 1);
+                distributedPolynomial.getExtractionYield(distributedPolynomial.getNCombinedProposals(
+                        context.getContexts()[0].getMembers().length, polynomialContext.getF()),
+                        polynomialContext.getF()));
         polynomialContext.addInvalidPolynomialProposals(context.getId(), invalidPolynomialContext);
         internalSequenceNumber = Math.max(internalSequenceNumber, context.getId() + 1);
         if (polynomialContext.currentSize >= polynomialContext.getNPolynomials()) {
@@ -324,6 +328,11 @@ public class DistributedPolynomialManager implements PolynomialCreationListener
         }
     }
 
+    private int getResharingPolynomialsPerExecution(int oldF, int[] oldMembers) {
+        return distributedPolynomial.getExtractionYield(
+                distributedPolynomial.getNCombinedProposals(oldMembers.length, oldF), oldF);
+    }
+
     private boolean isInView(int member, int[] view) {
         for (int i : view) {
             if (i == member)
@@ -11,11 +11,13 @@ public class ResharingPolynomialContext extends PolynomialManagerContext {
     private final ViewStatus viewStatus;
     private final VerifiableShare[] pointsForOldGroup;
     private final VerifiableShare[] pointsForNewGroup;
+    private final int polynomialsPerExecution;
 
     public ResharingPolynomialContext(int id, int nPolynomials, int oldF,
                                       int newF, int[] oldMembers, int[] newMembers,
-                                      ViewStatus viewStatus) {
+                                      ViewStatus viewStatus, int polynomialsPerExecution) {
         super(id, nPolynomials);
+        this.polynomialsPerExecution = polynomialsPerExecution;
         this.oldF = oldF;
         this.newF = newF;
         this.oldMembers = oldMembers;
@@ -65,9 +67,35 @@ public class ResharingPolynomialContext extends PolynomialManagerContext {
         return pointsForOldGroup;
     }
 
-    public void addPolynomial(int id, VerifiableShare... points) {
-        int index = id - initialId;
-        if (currentSize == nPolynomials) {
+    /**
+     * @return Number of polynomials created by each protocol execution
+     */
+    public int getPolynomialsPerExecution() {
+        return polynomialsPerExecution;
+    }
+
+    /**
+     * @return Index of the first polynomial created by the execution with the given id
+     */
+    public int getFirstPolynomialIndex(int id) {
+        return (id - initialId) * polynomialsPerExecution;
+    }
+
+    /**
+     * @return Number of polynomials created by the execution with the given id
+     */
+    public int getNPolynomialsOf(int id) {
+        return Math.max(0, Math.min(polynomialsPerExecution, nPolynomials - getFirstPolynomialIndex(id)));
+    }
+
+    /**
+     * Adds the polynomials created by the execution with the given id. Points for the group this replica belongs
+     * to come in the first row and, when it belongs to both groups, points for the new group come in the second row.
+     */
+    public void addPolynomials(int id, VerifiableShare[]... points) {
+        int index = getFirstPolynomialIndex(id);
+        int size = Math.min(points[0].length, nPolynomials - index);
+        if (currentSize == nPolynomials || size <= 0) {
             return;
         }
 
@@ -75,20 +103,20 @@ public class ResharingPolynomialContext extends PolynomialManagerContext {
             case IN_NEW:
                 if (pointsForNewGroup == null)
                     throw new IllegalStateException("Points holder for new group is null");
-                pointsForNewGroup[index] = points[0];
+                System.arraycopy(points[0], 0, pointsForNewGroup, index, size);
                 break;
             case IN_OLD:
                 if (pointsForOldGroup == null)
                     throw new IllegalStateException("Points holder for old group is null");
-                pointsForOldGroup[index] = points[0];
+                System.arraycopy(points[0], 0, pointsForOldGroup, index, size);
                 break;
             case IN_BOTH:
                 if (pointsForOldGroup == null || pointsForNewGroup == null)
                     throw new IllegalStateException("Points holder for old or new group is null");
-                pointsForOldGroup[index] = points[0];
-                pointsForNewGroup[index] = points[1];
+                System.arraycopy(points[0], 0, pointsForOldGroup, index, size);
+                System.arraycopy(points[1], 0, pointsForNewGroup, index, size);
                 break;
         }
-        currentSize++;
+        currentSize += size;
     }
 }
@@ -0,0 +1,130 @@
+package confidential.polynomial;
+
+import java.math.BigInteger;
+
+/**
+ * Vandermonde matrix used to extract several polynomials from the proposals combined by one execution of the
+ * polynomial generation protocol. Entry (r, c) is x_c^r, where x_c are the matrix initialization values. The window
+ * digits of every row are computed once, so that combining linear commitments of a row is a single
+ * multi-exponentiation.
+ * <p>
+ * Since the initialization values are distinct, the columns of any rows x rows submatrix form a square Vandermonde
+ * matrix, which is invertible. Whatever the proposals of the other members are, the extracted polynomials are then a
+ * bijection of the proposals of any rows members, so they are random if these members are correct. The polynomials
+ * are only extracted, never mapped back to the proposals, so the inverse is not needed.
+ */
+public class VandermondeMatrix {
+    private static final int WINDOW_SIZE = 4;
+    private static final int WINDOW_MASK = (1 << WINDOW_SIZE) - 1;
+
+    private final BigInteger field;
+    private final BigInteger[][] matrix;
+    private final int[][][] rowDigits;
+
+    /**
+     * @param rows Number of polynomials extracted from each execution
+     * @param columns Number of proposals combined by each execution
+     * @throws IllegalArgumentException If the initialization values of the columns repeat
+     */
+    public VandermondeMatrix(int rows, int columns, BigInteger[] initializationValues, BigInteger field) {
+        if (rows < 1 || rows > columns)
+            throw new IllegalArgumentException("Number of rows must be between 1 and " + columns);
+        if (initializationValues.length < columns)
+            throw new IllegalArgumentException("There are only " + initializationValues.length
+                    + " initialization values for " + columns + " columns");
+        for (int c = 0; c < columns; c++) {
+            for (int other = c + 1; other < columns; other++) {
+                if (initializationValues[c].mod(field).equals(initializationValues[other].mod(field)))
+                    throw new IllegalArgumentException("Initialization values " + c + " and " + other + " repeat");
+            }
+        }
+        this.field = field;
+        this.matrix = new BigInteger[rows][columns];
+        for (int r = 0; r < rows; r++) {
+            BigInteger exponent = BigInteger.valueOf(r);
+            for (int c = 0; c < columns; c++) {
+                matrix[r][c] = initializationValues[c].modPow(exponent, field);
+            }
+        }
+
+        this.rowDigits = new int[rows][columns][];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                rowDigits[r][c] = toDigits(matrix[r][c]);
+            }
+        }
+    }
+
+    public int getRows() {
+        return matrix.length;
+    }
+
+    public int getColumns() {
+        return matrix[0].length;
+    }
+
+    public BigInteger[][] getMatrix() {
+        return matrix;
+    }
+
+    /**
+     * @return Sum of matrix[row][c] * points[c] in the field
+     */
+    public BigInteger multiplyRow(int row, BigInteger[] points) {
+        BigInteger result = BigInteger.ZERO;
+        for (int c = 0; c < points.length; c++) {
+            result = result.add(matrix[row][c].multiply(points[c]));
+        }
+        return result.mod(field);
+    }
+
+    /**
+     * Precomputes base^d mod modulus for every window digit d, to be reused by the multi-exponentiation of all rows.
+     */
+    public static BigInteger[] precomputeBase(BigInteger base, BigInteger modulus) {
+        BigInteger[] table = new BigInteger[1 << WINDOW_SIZE];
+        table[0] = BigInteger.ONE;
+        table[1] = base.mod(modulus);
+        for (int d = 2; d < table.length; d++) {
+            table[d] = table[d - 1].multiply(table[1]).mod(modulus);
+        }
+        return table;
+    }
+
+    /**
+     * Computes the product of bases[c]^matrix[row][c] mod modulus, sharing the squarings among all bases.
+     * @param baseTables Tables of the bases computed by {@link #precomputeBase(BigInteger, BigInteger)}
+     */
+    public BigInteger multiExponentiateRow(int row, BigInteger[][] baseTables, BigInteger modulus) {
+        int[][] digits = rowDigits[row];
+        int nWindows = 0;
+        for (int[] d : digits) {
+            nWindows = Math.max(nWindows, d.length);
+        }
+        BigInteger result = BigInteger.ONE;
+        boolean isOne = true;
+        for (int w = nWindows - 1; w >= 0; w--) {
+            if (!isOne) {
+                for (int s = 0; s < WINDOW_SIZE; s++) {
+                    result = result.multiply(result).mod(modulus);
+                }
+            }
+            for (int c = 0; c < digits.length; c++) {
+                if (w >= digits[c].length || digits[c][w] == 0)
+                    continue;
+                result = result.multiply(baseTables[c][digits[c][w]]).mod(modulus);
+                isOne = false;
+            }
+        }
+        return result;
+    }
+
+    private static int[] toDigits(BigInteger exponent) {
+        int nWindows = (exponent.bitLength() + WINDOW_SIZE - 1) / WINDOW_SIZE;
+        int[] digits = new int[nWindows];
+        for (int w = 0; w < nWindows; w++) {
+            digits[w] = exponent.shiftRight(w * WINDOW_SIZE).intValue() & WINDOW_MASK;
+        }
+        return digits;
+    }
+}
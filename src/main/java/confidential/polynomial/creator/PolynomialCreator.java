@@ -7,6 +7,7 @@ import confidential.interServersCommunication.CommunicationTag;
 import confidential.interServersCommunication.InterServersCommunication;
 import confidential.interServersCommunication.InterServersMessageType;
 import confidential.polynomial.*;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -39,6 +40,7 @@ public abstract class PolynomialCreator {
     protected final PolynomialCreationContext creationContext;
     private final int quorumThreshold;
     private final int faultsThreshold;
+    private final int nCombinedProposals;
     protected final BigInteger field;
     protected final SecureRandom rndGenerator;
     protected final CommitmentScheme commitmentScheme;
@@ -84,6 +86,9 @@ public abstract class PolynomialCreator {
         this.distributedPolynomial = distributedPolynomial;
         this.quorumThreshold = n - f;
         this.faultsThreshold = f;
+        //summing proposals extracts a single polynomial, which f + 1 proposals are enough for
+        this.nCombinedProposals = creationContext.useVandermondeMatrix()
+                ? distributedPolynomial.getNCombinedProposals(n, f) : f + 1;
 
         this.lock = new ReentrantLock(true);
 
@@ -138,6 +143,10 @@ public abstract class PolynomialCreator {
         }
     }
 
+    protected void submitJob(Runnable job) {
+        distributedPolynomial.submitJob(creationContext.getReason(), job);
+    }
+
     public PolynomialCreationContext getCreationContext() {
         return creationContext;
     }
@@ -235,7 +244,7 @@ public abstract class PolynomialCreator {
         if (processId == creationContext.getLeader()) {
             validateProposal(message);
             lock.lock();
-            if (!proposalSetProposed && validProposals.size() > faultsThreshold)
+            if (!proposalSetProposed && validProposals.size() >= nCombinedProposals)
                 generateAndSendProposalSet();
             lock.unlock();
         }
@@ -243,6 +252,13 @@ public abstract class PolynomialCreator {
 
     abstract boolean validateProposal(ProposalMessage proposalMessage);
 
+    /**
+     * @return Index of the proposal whose points are decrypted at the given index
+     */
+    int getProposalIndex(int pointIndex) {
+        return pointIndex;
+    }
+
     private byte[] computeCryptographicHash(ProposalMessage message) {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutputStream out = new ObjectOutputStream(bos)) {
@@ -272,8 +288,8 @@ public abstract class PolynomialCreator {
     }
 
     private void generateAndSendProposalSet() {
-        int[] receivedNodes = new int[faultsThreshold + 1];
-        byte[][] receivedProposalsHashes = new byte[faultsThreshold + 1][];
+        int[] receivedNodes = new int[nCombinedProposals];
+        byte[][] receivedProposalsHashes = new byte[nCombinedProposals][];
 
         int index = 0;
         for (int validProposalId : validProposals) {
@@ -287,7 +303,7 @@ public abstract class PolynomialCreator {
         }
 
         if (index != receivedNodes.length)
-            throw new IllegalStateException("I should have f+1 validated proposals.");
+            throw new IllegalStateException("I should have " + nCombinedProposals + " validated proposals.");
 
         ProposalSetMessage proposalSetMessage =  new ProposalSetMessage(
                 creationContext.getId(),
@@ -314,6 +330,12 @@ public abstract class PolynomialCreator {
 
         int[] receivedNodes = message.getReceivedNodes();
         byte[][] receivedProposals = message.getReceivedProposals();
+        if (receivedNodes.length != nCombinedProposals || receivedProposals.length != nCombinedProposals
+                || Arrays.stream(receivedNodes).distinct().count() != nCombinedProposals) {
+            logger.warn("Proposal set for {} does not contain {} proposals from distinct members", message.getId(),
+                    nCombinedProposals);
+            return false;
+        }
 
         LinkedList<Integer> missingProposalIndexes = new LinkedList<>();
 
@@ -334,7 +356,7 @@ public abstract class PolynomialCreator {
         }
 
         try {
-            latch.await();
+            ComputeScheduler.getInstance().await(latch);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -373,7 +395,7 @@ public abstract class PolynomialCreator {
                 checkSelectedProposal(isValid, missingProposalsLatch, proposalSender, receivedProposalHash, proposal);
             }
             try {
-                missingProposalsLatch.await();
+                ComputeScheduler.getInstance().await(missingProposalsLatch);
             } catch (InterruptedException e) {
                 e.printStackTrace();
             }
@@ -383,7 +405,7 @@ public abstract class PolynomialCreator {
 
     private void checkSelectedProposal(AtomicBoolean isValid, CountDownLatch latch, int proposalSender,
                                        byte[] receivedProposalHash, ProposalMessage proposal) {
-        distributedPolynomial.submitProposalVerificationJob(() -> {
+        submitJob(() -> {
             if (!Arrays.equals(proposal.getCryptographicHash(), receivedProposalHash)) {
                 logger.warn("I received different proposal from {}", proposalSender);
                 isValid.set(false);
@@ -476,14 +498,14 @@ public abstract class PolynomialCreator {
             if (finalPoint == null) {
                 int nPolynomials = points.length;
                 if (useMatrix) {
-                    finalPoint = new BigInteger[nPolynomials][faultsThreshold + 1];
+                    finalPoint = new BigInteger[nPolynomials][nCombinedProposals];
                 } else {
                     finalPoint = new BigInteger[nPolynomials][1];
                     for (int j = 0; j < finalPoint.length; j++) {
                         finalPoint[j][0] = BigInteger.ZERO;
                     }
                 }
-                allCommitments = new Commitment[nPolynomials][faultsThreshold + 1];
+                allCommitments = new Commitment[nPolynomials][nCombinedProposals];
             }
             for (int j = 0; j < finalPoint.length; j++) {
                 if (useMatrix) {
@@ -491,7 +513,7 @@ public abstract class PolynomialCreator {
                 } else {
                     finalPoint[j][0] = finalPoint[j][0].add(points[j]);
                 }
-                allCommitments[j][i] = proposals.get(member).getProposals()[j].getCommitments();
+                allCommitments[j][i] = proposals.get(member).getProposals()[getProposalIndex(j)].getCommitments();
             }
             i++;
         }
@@ -501,10 +523,14 @@ public abstract class PolynomialCreator {
         }
         VerifiableShare[][] result;
         if (useMatrix) {
-            result = new VerifiableShare[finalPoint.length][faultsThreshold + 1];
+            result = new VerifiableShare[finalPoint.length][];
             for (int j = 0; j < finalPoint.length; j++) {
                 result[j] = computeResultUsingVandermondeMatrix(finalPoint[j], allCommitments[j],
                         creationContext.combineCommitments());
+                if (result[j] == null) {
+                    creationListener.onPolynomialCreationFailure(creationContext, consensusId, null, null);
+                    return;
+                }
             }
         } else {
             result = new VerifiableShare[finalPoint.length][1];
@@ -523,41 +549,106 @@ public abstract class PolynomialCreator {
         creationListener.onPolynomialCreationSuccess(creationContext, consensusId, result);
     }
 
+    /**
+     * @return Polynomials extracted from the proposals or null if combining them failed or was interrupted
+     */
     private VerifiableShare[] computeResultUsingVandermondeMatrix(BigInteger[] points, Commitment[] commitments,
                                                                   boolean combineCommitments) {
         logger.debug("Using vandermonde matrix for polynomial creation {}", creationContext.getId());
-        BigInteger[][] vandermondeMatrix = distributedPolynomial.getVandermondeMatrix();
-        int rows = vandermondeMatrix.length;
-        int columns = vandermondeMatrix[0].length;
-        VerifiableShare[] result = new VerifiableShare[vandermondeMatrix.length];
-        Commitment resultCommitment;
-        BigInteger[] linearCommitments;
+        VandermondeMatrix vandermondeMatrix = distributedPolynomial.getVandermondeMatrix(nCombinedProposals,
+                faultsThreshold);
+        int rows = vandermondeMatrix.getRows();
+        VerifiableShare[] result = new VerifiableShare[rows];
+        boolean isLinear = commitments[0] instanceof LinearCommitments;
+
+        //Tables of each commitment coefficient are shared by the multi-exponentiations of all rows
+        BigInteger[][][] baseTables = null;
+        Commitment[] shareCommitments = null;
+        if (combineCommitments && isLinear) {
+            int nCoefficients = ((LinearCommitments) commitments[0]).getCommitments().length;
+            baseTables = new BigInteger[nCoefficients][commitments.length][];
+            for (int c = 0; c < commitments.length; c++) {
+                BigInteger[] coefficients = ((LinearCommitments) commitments[c]).getCommitments();
+                for (int i = 0; i < nCoefficients; i++) {
+                    baseTables[i][c] = VandermondeMatrix.precomputeBase(coefficients[i], p);
+                }
+            }
+        } else if (combineCommitments) {
+            shareCommitments = new Commitment[commitments.length];
+            for (int c = 0; c < commitments.length; c++) {
+                shareCommitments[c] = commitmentScheme.extractCommitment(shareholderId, commitments[c]);
+            }
+        }
 
+        CountDownLatch latch = new CountDownLatch(rows);
+        BigInteger[][][] finalBaseTables = baseTables;
+        Commitment[] finalShareCommitments = shareCommitments;
         for (int r = 0; r < rows; r++) {
-            BigInteger temp = BigInteger.ZERO;
-            linearCommitments = new BigInteger[faultsThreshold + 1];
-            Arrays.fill(linearCommitments, BigInteger.ONE);
-            for (int c = 0; c < columns; c++) {
-                temp = temp.add(vandermondeMatrix[r][c].multiply(points[c])).mod(field);
-                if (combineCommitments) {
-                    BigInteger x = vandermondeMatrix[r][c];
-                    BigInteger[] tempC = ((LinearCommitments) commitments[c]).getCommitments();
-                    for (int i = 0; i < tempC.length; i++) {
-                        linearCommitments[i] = linearCommitments[i].multiply(tempC[i].modPow(x, p)).mod(p);
+            int row = r;
+            submitJob(() -> {
+                try {
+                    BigInteger point = vandermondeMatrix.multiplyRow(row, points);
+                    Commitment resultCommitment;
+                    if (combineCommitments && isLinear) {
+                        BigInteger[] linearCommitments = new BigInteger[finalBaseTables.length];
+                        for (int i = 0; i < linearCommitments.length; i++) {
+                            linearCommitments[i] = vandermondeMatrix.multiExponentiateRow(row, finalBaseTables[i], p);
+                        }
+                        resultCommitment = new LinearCommitments(linearCommitments);
+                    } else if (combineCommitments) {
+                        resultCommitment = combineRowCommitments(vandermondeMatrix, row, finalShareCommitments);
+                    } else {
+                        resultCommitment = commitments[row];
                     }
+                    result[row] = new VerifiableShare(new Share(shareholderId, point), resultCommitment, null);
+                } catch (SecretSharingException e) {
+                    logger.error("Failed to combine commitments of polynomial creation {}", creationContext.getId(),
+                            e);
+                } finally {
+                    latch.countDown();
                 }
+            });
+        }
+
+        try {
+            ComputeScheduler.getInstance().await(latch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Interrupted while combining proposals of polynomial creation {}", creationContext.getId());
+            return null;
+        }
+        for (VerifiableShare share : result) {
+            if (share == null) { // the job of its row failed
+                logger.error("Failed to combine proposals of polynomial creation {}", creationContext.getId());
+                return null;
             }
-            if (combineCommitments) {
-                resultCommitment = new LinearCommitments(linearCommitments);
-            } else {
-                resultCommitment = commitments[r];
-            }
-            result[r] = new VerifiableShare(new Share(shareholderId, temp), resultCommitment, null);
         }
 
         return result;
     }
 
+    /**
+     * Computes the sum of matrix[row][c] * commitments[c] for commitment schemes other than the linear one, which
+     * only provide the addition of commitments, by double-and-add.
+     */
+    private Commitment combineRowCommitments(VandermondeMatrix vandermondeMatrix, int row, Commitment[] commitments)
+            throws SecretSharingException {
+        BigInteger[] coefficients = vandermondeMatrix.getMatrix()[row];
+        Commitment result = null;
+        for (int c = 0; c < commitments.length; c++) {
+            Commitment term = null;
+            for (int bit = coefficients[c].bitLength() - 1; bit >= 0; bit--) {
+                if (term != null)
+                    term = commitmentScheme.sumCommitments(term, term);
+                if (coefficients[c].testBit(bit))
+                    term = term == null ? commitments[c] : commitmentScheme.sumCommitments(term, commitments[c]);
+            }
+            if (term != null)
+                result = result == null ? term : commitmentScheme.sumCommitments(result, term);
+        }
+        return result;
+    }
+
     private byte[] serialize(PolynomialMessage message) {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutput out = new ObjectOutputStream(bos)) {
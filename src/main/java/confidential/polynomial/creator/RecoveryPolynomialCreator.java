@@ -2,6 +2,7 @@ package confidential.polynomial.creator;
 
 import confidential.interServersCommunication.InterServersCommunication;
 import confidential.polynomial.*;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import vss.commitment.Commitment;
 import vss.polynomial.Polynomial;
@@ -36,7 +37,7 @@ public class RecoveryPolynomialCreator extends PolynomialCreator {
 
         for (int i = 0; i < creationContext.getContexts().length; i++) {
             int finalI = i;
-            distributedPolynomial.submitJob(() -> {
+            submitJob(() -> {
                 PolynomialContext context = creationContext.getContexts()[finalI];
                 //generating polynomial
                 Polynomial tempPolynomial = new Polynomial(field, context.getF(),
@@ -59,7 +60,7 @@ public class RecoveryPolynomialCreator extends PolynomialCreator {
         }
 
         try {
-            latch.await();
+            ComputeScheduler.getInstance().await(latch);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -89,7 +90,7 @@ public class RecoveryPolynomialCreator extends PolynomialCreator {
             Proposal proposal = proposals[i];
             PolynomialContext context = contexts[i];
             int finalI = i;
-            distributedPolynomial.submitJob(() -> {
+            submitJob(() -> {
                 if (!isValid.get()) {
                     latch.countDown();
                     return;
@@ -119,7 +120,7 @@ public class RecoveryPolynomialCreator extends PolynomialCreator {
             });
         }
         try {
-            latch.await();
+            ComputeScheduler.getInstance().await(latch);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -2,6 +2,7 @@ package confidential.polynomial.creator;
 
 import confidential.interServersCommunication.InterServersCommunication;
 import confidential.polynomial.*;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import vss.commitment.Commitment;
 import vss.polynomial.Polynomial;
@@ -38,6 +39,11 @@ public class ResharingPolynomialCreator extends PolynomialCreator {
         return proposalMembers ? creationContext.getContexts()[0].getMembers() : allMembers;
     }
 
+    @Override
+    int getProposalIndex(int pointIndex) {
+        return viewStatus == ViewStatus.IN_NEW ? 1 : pointIndex;
+    }
+
     @Override
     ProposalMessage computeProposalMessage() {
         BigInteger q = getRandomNumber();
@@ -47,7 +53,7 @@ public class ResharingPolynomialCreator extends PolynomialCreator {
         for (int i = 0; i < proposals.length; i++) {
             PolynomialContext context = creationContext.getContexts()[i];
             int finalI = i;
-            distributedPolynomial.submitJob(() -> {
+            submitJob(() -> {
                 Polynomial polynomial = new Polynomial(field, context.getF(), q, rndGenerator);
                 Commitment commitment = commitmentScheme.generateCommitments(polynomial, BigInteger.ZERO);
                 Map<Integer, byte[]> points = computeShares(polynomial, context.getMembers());
@@ -57,7 +63,7 @@ public class ResharingPolynomialCreator extends PolynomialCreator {
         }
 
         try {
-            latch.await();
+            ComputeScheduler.getInstance().await(latch);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -0,0 +1,241 @@
+package confidential.server;
+
+import confidential.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide scheduler of cryptographic work, backed by a work-stealing pool with cobra.share_processing_threads
+ * threads. Tasks wait in a queue per class and are started in priority order, so client work goes ahead of recovery
+ * and recovery goes ahead of renewal. Each class can be limited to a number of concurrent tasks.
+ * <p>
+ * Tasks that wait for other tasks must do it through {@link #await(CountDownLatch)}, which frees the waiting task's
+ * slot while it is blocked.
+ */
+public final class ComputeScheduler {
+    public enum ComputeClass {
+        CLIENT,
+        RECOVERY,
+        RENEWAL
+    }
+
+    private static ComputeScheduler INSTANCE;
+
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final ForkJoinPool pool;
+    private final int parallelism;
+    private final ClassQueue[] queues;
+    private final ThreadLocal<ClassQueue> runningClass;
+    private int nRunning;
+
+    public static synchronized ComputeScheduler getInstance() {
+        if (INSTANCE == null) {
+            Configuration configuration = Configuration.getInstance();
+            INSTANCE = new ComputeScheduler(configuration.getShareProcessingThreads(),
+                    configuration.getComputeClientLimit(), configuration.getComputeRecoveryLimit(),
+                    configuration.getComputeRenewalLimit());
+        }
+        return INSTANCE;
+    }
+
+    private ComputeScheduler(int parallelism, int... limits) {
+        this.parallelism = Math.max(1, parallelism);
+        this.pool = new ForkJoinPool(this.parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("Compute thread " + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, true);
+        ComputeClass[] classes = ComputeClass.values();
+        this.queues = new ClassQueue[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            queues[i] = new ClassQueue(classes[i], limits[i] <= 0 ? this.parallelism : limits[i]);
+        }
+        this.runningClass = new ThreadLocal<>();
+    }
+
+    public void execute(ComputeClass computeClass, Runnable task) {
+        ClassQueue queue = queues[computeClass.ordinal()];
+        synchronized (this) {
+            queue.tasks.add(new QueuedTask(task));
+            queue.maxQueued = Math.max(queue.maxQueued, queue.tasks.size());
+        }
+        queue.submitted.increment();
+        dispatch();
+    }
+
+    /**
+     * Waits for the latch. When called from a task, the task does not count towards the limits while it waits and
+     * the pool may add a thread to keep its parallelism.
+     */
+    public void await(CountDownLatch latch) throws InterruptedException {
+        ClassQueue queue = runningClass.get();
+        if (queue == null) {
+            latch.await();
+            return;
+        }
+        release(queue);
+        try {
+            ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                @Override
+                public boolean block() throws InterruptedException {
+                    latch.await();
+                    return true;
+                }
+
+                @Override
+                public boolean isReleasable() {
+                    return latch.getCount() == 0;
+                }
+            });
+        } finally {
+            synchronized (this) {
+                queue.running++;
+                nRunning++;
+            }
+        }
+    }
+
+    public synchronized Metrics getMetrics(ComputeClass computeClass) {
+        ClassQueue queue = queues[computeClass.ordinal()];
+        long completed = queue.completed.sum();
+        return new Metrics(computeClass, queue.tasks.size(), queue.running, queue.maxQueued,
+                queue.submitted.sum(), completed,
+                completed == 0 ? 0 : queue.queueTime.sum() / completed / 1_000_000.0);
+    }
+
+    private void dispatch() {
+        synchronized (this) {
+            while (nRunning < parallelism) {
+                ClassQueue next = null;
+                for (ClassQueue queue : queues) {
+                    if (!queue.tasks.isEmpty() && queue.running < queue.limit) {
+                        next = queue;
+                        break;
+                    }
+                }
+                if (next == null)
+                    return;
+                QueuedTask task = next.tasks.poll();
+                next.running++;
+                nRunning++;
+                ClassQueue queue = next;
+                pool.execute(() -> run(queue, task));
+            }
+        }
+    }
+
+    private void run(ClassQueue queue, QueuedTask task) {
+        queue.queueTime.add(System.nanoTime() - task.queuedAt);
+        runningClass.set(queue);
+        try {
+            task.task.run();
+        } catch (RuntimeException e) {
+            logger.error("Failed to execute {} task", queue.computeClass, e);
+        } finally {
+            runningClass.remove();
+            queue.completed.increment();
+            release(queue);
+        }
+    }
+
+    private void release(ClassQueue queue) {
+        synchronized (this) {
+            queue.running--;
+            nRunning--;
+        }
+        dispatch();
+    }
+
+    private static final class QueuedTask {
+        private final Runnable task;
+        private final long queuedAt;
+
+        private QueuedTask(Runnable task) {
+            this.task = task;
+            this.queuedAt = System.nanoTime();
+        }
+    }
+
+    private static final class ClassQueue {
+        private final ComputeClass computeClass;
+        private final int limit;
+        private final Deque<QueuedTask> tasks;
+        private final LongAdder submitted;
+        private final LongAdder completed;
+        private final LongAdder queueTime;
+        private int running;
+        private int maxQueued;
+
+        private ClassQueue(ComputeClass computeClass, int limit) {
+            this.computeClass = computeClass;
+            this.limit = limit;
+            this.tasks = new ArrayDeque<>();
+            this.submitted = new LongAdder();
+            this.completed = new LongAdder();
+            this.queueTime = new LongAdder();
+        }
+    }
+
+    public static final class Metrics {
+        private final ComputeClass computeClass;
+        private final int queued;
+        private final int running;
+        private final int maxQueued;
+        private final long submitted;
+        private final long completed;
+        private final double averageQueueTime;
+
+        private Metrics(ComputeClass computeClass, int queued, int running, int maxQueued, long submitted,
+                        long completed, double averageQueueTime) {
+            this.computeClass = computeClass;
+            this.queued = queued;
+            this.running = running;
+            this.maxQueued = maxQueued;
+            this.submitted = submitted;
+            this.completed = completed;
+            this.averageQueueTime = averageQueueTime;
+        }
+
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getMaxQueued() {
+            return maxQueued;
+        }
+
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        public long getCompleted() {
+            return completed;
+        }
+
+        /**
+         * @return Average time in milliseconds the completed tasks waited in the queue
+         */
+        public double getAverageQueueTime() {
+            return averageQueueTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s tasks: %d queued (max %d), %d running, %d/%d completed, " +
+                            "%.3f ms average queue time", computeClass, queued, maxQueued, running, completed,
+                    submitted, averageQueueTime);
+        }
+    }
+}
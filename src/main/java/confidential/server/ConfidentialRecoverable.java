@@ -7,27 +7,41 @@ import bftsmart.statemanagement.StateManager;
 import bftsmart.tom.MessageContext;
 import bftsmart.tom.ReplicaContext;
 import bftsmart.tom.core.messages.TOMMessage;
+import bftsmart.tom.core.messages.TOMMessageType;
 import bftsmart.tom.server.ProposeRequestVerifier;
 import bftsmart.tom.server.Recoverable;
+import bftsmart.tom.server.Replier;
 import bftsmart.tom.server.SingleExecutable;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.server.defaultservices.DefaultApplicationState;
 import bftsmart.tom.util.TOMUtil;
+import confidential.BatchedResponses;
 import confidential.ConfidentialMessage;
 import confidential.Configuration;
+import confidential.DigestedReply;
 import confidential.MessageType;
 import confidential.Metadata;
 import confidential.encrypted.EncryptedConfidentialData;
 import confidential.encrypted.EncryptedConfidentialMessage;
 import confidential.encrypted.EncryptedPublishedShares;
 import confidential.encrypted.EncryptedVerifiableShare;
+import confidential.facade.server.ConfidentialBatchExecutable;
+import confidential.facade.server.ConfidentialCheckpointable;
+import confidential.facade.server.ConfidentialIncrementalCheckpointable;
+import confidential.facade.server.ConfidentialParallelExecutable;
+import confidential.facade.server.ConfidentialShareReplaceable;
 import confidential.facade.server.ConfidentialSingleExecutable;
+import confidential.facade.server.ConflictClasses;
 import confidential.interServersCommunication.InterServersCommunication;
 import confidential.polynomial.DistributedPolynomial;
 import confidential.polynomial.ProposalSetMessage;
+import confidential.statemanagement.ChunkedByteArray;
 import confidential.statemanagement.ConfidentialSnapshot;
 import confidential.statemanagement.ConfidentialStateLog;
 import confidential.statemanagement.ConfidentialStateManager;
+import confidential.statemanagement.DiskConfidentialStateLog;
+import confidential.statemanagement.IncrementalState;
+import confidential.statemanagement.StateDelta;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.commitment.Commitment;
@@ -35,16 +49,29 @@ import vss.commitment.CommitmentScheme;
 import vss.commitment.CommitmentUtils;
 import vss.commitment.constant.ConstantCommitment;
 import vss.facade.SecretSharingException;
+import vss.secretsharing.Share;
 import vss.secretsharing.VerifiableShare;
 
 import java.io.*;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 public final class ConfidentialRecoverable implements SingleExecutable, Recoverable,
         ProposeRequestVerifier, IReconfigurationListener {
+    private static final int ENCRYPTION_CHUNK_SIZE = 256;
     private final Logger logger = LoggerFactory.getLogger("confidential");
     private ServerConfidentialityScheme confidentialityScheme;
     private CommitmentScheme commitmentScheme;
@@ -66,6 +93,21 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
     // Not the best solution. Requests failed during consensus, will not be removed from this map
     private final Map<Integer, Request> deserializedRequests;
     private final boolean verifyClientsRequests;
+    private final boolean digestReplies;
+    private final Map<Integer, CachedReply> replyCache;
+    private final Map<Integer, MissingShares> missingShares;
+    private final List<MissingShares> deliveredShares;
+    // replica-local record of the delivered shares applied since the last checkpoint, used to replay the log
+    private final Map<Integer, MissingShares> appliedDeliveries;
+    private final ConflictAwareScheduler scheduler;
+    private final boolean isBatchExecutor;
+    private final List<PendingExecution> pendingExecutions;
+    private final ReplyEncryptionStage replyEncryptionStage;
+    private final ExecutorService checkpointExecutor;
+    private final ComputeScheduler computeScheduler;
+    private volatile Future<?> pendingCheckpoint;
+    private IncrementalState incrementalState;
+    private Replier replier;
 
     public ConfidentialRecoverable(int processId, ConfidentialSingleExecutable confidentialExecutor) {
         this.processId = processId;
@@ -77,6 +119,43 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         this.deserializedRequests = new ConcurrentHashMap<>();
         this.verifyClientsRequests = Configuration.getInstance().isVerifyClientRequests();
         this.isCombinePrivateAndCommonData = Configuration.getInstance().isSendAllSharesTogether();
+        this.digestReplies = Configuration.getInstance().isDigestReplies();
+        int replyCacheSize = Configuration.getInstance().getReplyCacheSize();
+        this.replyCache = new LinkedHashMap<Integer, CachedReply>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, CachedReply> eldest) {
+                return size() > replyCacheSize;
+            }
+        };
+        int missingSharesLimit = Configuration.getInstance().getMissingSharesLimit();
+        this.missingShares = new LinkedHashMap<Integer, MissingShares>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, MissingShares> eldest) {
+                return size() > missingSharesLimit;
+            }
+        };
+        this.deliveredShares = new ArrayList<>();
+        this.appliedDeliveries = new HashMap<>();
+        this.isBatchExecutor = confidentialExecutor instanceof ConfidentialBatchExecutable;
+        int executionThreads = Configuration.getInstance().getExecutionThreads();
+        this.scheduler = !isBatchExecutor && confidentialExecutor instanceof ConfidentialParallelExecutable
+                && executionThreads > 1 ? new ConflictAwareScheduler(executionThreads) : null;
+        this.pendingExecutions = new ArrayList<>();
+        this.computeScheduler = ComputeScheduler.getInstance();
+        this.replyEncryptionStage = useTLSEncryption ? null : new ReplyEncryptionStage(computeScheduler);
+        this.checkpointExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "Confidential checkpoint thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Sets the replier used to send the replies that are not returned to BFT-SMaRt, i.e., replies of requests
+     * executed in parallel or in batch and replies encrypted after execution.
+     */
+    public void setReplier(Replier replier) {
+        this.replier = replier;
     }
 
     @Override
@@ -97,6 +176,8 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             stateManager.setDistributedPolynomial(distributedPolynomial);
             stateManager.setConfidentialityScheme(confidentialityScheme);
             log = getLog();
+            if (log instanceof DiskConfidentialStateLog)
+                recoverDurableState((DiskConfidentialStateLog) log);
             stateManager.askCurrentConsensusId();
         } catch (SecretSharingException e) {
             logger.error("Failed to initialize ServerConfidentialityScheme", e);
@@ -134,16 +215,27 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             if (!verifyClientsRequests)
                 return true;
             Request req = preprocessRequest(request.getContent(), request.getPrivateContent(), request.getSender());
-            if (req == null || req.getShares() == null) {
+            if (req == null)
                 return false;
-            }
+            Request[] operations = req.getType() == MessageType.CLIENT_BATCH ? req.getOperations()
+                    : new Request[]{req};
             deserializedRequests.put(hashRequest(request.getSender(), request.getSession(), request.getSequence()), req);
-            for (VerifiableShare vs : req.getShares()) {
-                boolean isValid = commitmentScheme.checkValidityWithoutPreComputation(vs.getShare(), vs.getCommitments());
-                if (!isValid) {
-                    logger.warn("Client {} sent me an invalid share", request.getSender());
+            List<VerifiableShare> shares = new ArrayList<>();
+            for (Request operation : operations) {
+                if (operation.isMissingShares()) {
+                    logger.debug("Cannot verify shares of client {} without private data", request.getSender());
+                    continue;
+                }
+                if (operation.getShares() == null) {
+                    if (req.getType() == MessageType.CLIENT_BATCH)
+                        continue;
                     return false;
                 }
+                Collections.addAll(shares, operation.getShares());
+            }
+            if (!verifyShares(shares)) {
+                logger.warn("Client {} sent me an invalid share", request.getSender());
+                return false;
             }
             return true;
         } else if (metadata == Metadata.DOES_NOT_VERIFY) {
@@ -154,6 +246,40 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         }
     }
 
+    /**
+     * Verifies the shares of a request, in parallel in the client class of the compute scheduler when there are
+     * several of them.
+     */
+    private boolean verifyShares(List<VerifiableShare> shares) {
+        if (shares.size() < 2) {
+            for (VerifiableShare vs : shares) {
+                if (!commitmentScheme.checkValidityWithoutPreComputation(vs.getShare(), vs.getCommitments()))
+                    return false;
+            }
+            return true;
+        }
+        AtomicBoolean isValid = new AtomicBoolean(true);
+        CountDownLatch latch = new CountDownLatch(shares.size());
+        for (VerifiableShare vs : shares) {
+            computeScheduler.execute(ComputeScheduler.ComputeClass.CLIENT, () -> {
+                try {
+                    if (isValid.get() && !commitmentScheme.checkValidityWithoutPreComputation(vs.getShare(),
+                            vs.getCommitments()))
+                        isValid.set(false);
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        try {
+            computeScheduler.await(latch);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        return isValid.get();
+    }
+
     private int hashRequest(int sender, int session, int sequence) {
         int hash = sender;
         hash = 31 * hash + session;
@@ -161,6 +287,10 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         return hash;
     }
 
+    private int hashReply(int sender, int session, int sequence, TOMMessageType type) {
+        return 31 * hashRequest(sender, session, sequence) + type.ordinal();
+    }
+
     private ConfidentialStateLog getLog() {
         if (log == null)
             log = initLog();
@@ -170,28 +300,70 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
     private ConfidentialStateLog initLog() {
         if (!replicaContext.getStaticConfiguration().isToLog())
             return null;
-        ConfidentialSnapshot snapshot = confidentialExecutor.getConfidentialSnapshot();
-        byte[] state = snapshot.serialize();
+        ChunkedByteArray state;
+        byte[] stateHash;
+        if (confidentialExecutor instanceof ConfidentialIncrementalCheckpointable) {
+            incrementalState = new IncrementalState();
+            state = incrementalState.serialize();
+            stateHash = incrementalState.getRootHash();
+        } else {
+            state = confidentialExecutor.getConfidentialSnapshot().serializeChunked();
+            stateHash = computeHash(state);
+        }
         if (replicaContext.getStaticConfiguration().logToDisk()) {
-            logger.error("Log to disk not implemented");
-            return null;
+            logger.info("Logging to disk");
+            try {
+                return new DiskConfidentialStateLog(processId, checkpointPeriod, state, stateHash,
+                        replicaContext.getStaticConfiguration().isToWriteSyncLog(),
+                        replicaContext.getStaticConfiguration().isToWriteSyncCkp());
+            } catch (IOException e) {
+                logger.error("Failed to initialize log on disk. Logging to memory", e);
+            }
+        } else {
+            logger.info("Logging to memory");
         }
-        logger.info("Logging to memory");
-        return new ConfidentialStateLog(processId, checkpointPeriod, state, TOMUtil.computeHash(state));
+        return new ConfidentialStateLog(processId, checkpointPeriod, state, stateHash);
+    }
+
+    /**
+     * Installs the checkpoint and executes the commands stored on disk before asking the other replicas for the
+     * consensus decisions executed while this replica was down. The checkpoint is proven to the other replicas,
+     * which then only send the log after it if they hold the same checkpoint.
+     */
+    private void recoverDurableState(DiskConfidentialStateLog diskLog) {
+        DefaultApplicationState durableState = diskLog.loadDurableState();
+        if (durableState == null || durableState.getLastCID() < 0)
+            return;
+        logger.info("Recovering state up to CID {} from disk", durableState.getLastCID());
+        if (durableState.getLastCheckpointCID() >= 0 && durableState.getSerializedState() != null) {
+            ConfidentialSnapshot checkpoint = ConfidentialSnapshot.deserialize(durableState.getSerializedState());
+            try {
+                if (checkpoint != null)
+                    stateManager.setDurableCheckpoint(durableState.getLastCheckpointCID(),
+                            checkpoint.computeCommonDigest());
+            } catch (NoSuchAlgorithmException e) {
+                logger.error("Failed to compute digest of checkpoint", e);
+            }
+        }
+        int lastCID = setState(durableState);
+        getStateManager().setLastCID(lastCID);
     }
 
     @Override
     public ApplicationState getState(int cid, boolean sendState) {
         logLock.lock();
-        logger.debug("Getting state until CID {}", cid);
-        ApplicationState state = (cid > -1 ? getLog().getApplicationState(cid, sendState)
-                : new DefaultApplicationState());
-        if (state == null ||
-                (replicaContext.getStaticConfiguration().isBFT()
-                        && state.getCertifiedDecision(replicaContext.getSVController()) == null))
-            state = new DefaultApplicationState();
-        logLock.unlock();
-        return state;
+        try {
+            logger.debug("Getting state until CID {}", cid);
+            ApplicationState state = (cid > -1 ? getLog().getApplicationState(cid, sendState)
+                    : new DefaultApplicationState());
+            if (state == null ||
+                    (replicaContext.getStaticConfiguration().isBFT()
+                            && state.getCertifiedDecision(replicaContext.getSVController()) == null))
+                state = new DefaultApplicationState();
+            return state;
+        } finally {
+            logLock.unlock();
+        }
     }
 
     @Override
@@ -202,62 +374,90 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             logger.info("I'm going to update myself from CID {} to CID {}",
                     state.getLastCheckpointCID(), state.getLastCID());
 
+            awaitPendingCheckpoint();
             stateLock.lock();
             logLock.lock();
-            log.update(state);
-
-            int lastCheckpointCID = log.getLastCheckpointCID();
-            lastCID = log.getLastCID();
-
+            try {
+                if (state.getSerializedState() == null && state.getLastCheckpointCID() >= 0
+                        && state.getLastCheckpointCID() == log.getLastCheckpointCID() && log.getState() != null) {
+                    // the other replicas only sent the log after the checkpoint this replica proved to hold
+                    logger.info("Reinstalling my checkpoint of CID {} before the received log",
+                            state.getLastCheckpointCID());
+                    state = new DefaultApplicationState(state.getMessageBatches(), state.getLastCheckpointCID(),
+                            state.getLastCID(), log.getState().toByteArray(), log.getStateHash(), processId);
+                }
+                log.update(state);
 
-            if (state.getSerializedState() != null) {
-                logger.info("Installing snapshot up to CID {}", lastCheckpointCID);
-                ConfidentialSnapshot snapshot = ConfidentialSnapshot.deserialize(state.getSerializedState());
-                confidentialExecutor.installConfidentialSnapshot(snapshot);
-            }
+                int lastCheckpointCID = log.getLastCheckpointCID();
+                lastCID = log.getLastCID();
 
-            for (int cid = lastCheckpointCID + 1; cid <= lastCID; cid++) {
-                try {
-                    logger.debug("Processing and verifying batched requests for CID {}", cid);
-                    CommandsInfo cmdInfo = log.getMessageBatch(cid);
-                    if (cmdInfo == null) {
-                        logger.warn("Consensus {} is null", cid);
-                        continue;
-                    }
-                    byte[][] commands = cmdInfo.commands;
-                    MessageContext[] msgCtx = cmdInfo.msgCtx;
 
-                    if (commands == null || msgCtx == null || msgCtx[0].isNoOp())
-                        continue;
+                if (state.getSerializedState() != null) {
+                    logger.info("Installing snapshot up to CID {}", lastCheckpointCID);
+                    ConfidentialSnapshot snapshot = ConfidentialSnapshot.deserialize(state.getSerializedState());
+                    if (incrementalState != null)
+                        installIncrementalState(snapshot);
+                    else
+                        confidentialExecutor.installConfidentialSnapshot(snapshot);
+                }
 
-                    for (int i = 0; i < commands.length; i++) {
-                        Request request = Request.deserialize(commands[i]);
-                        if (request == null) {
-                            logger.warn("Request is null");
+                for (int cid = lastCheckpointCID + 1; cid <= lastCID; cid++) {
+                    try {
+                        logger.debug("Processing and verifying batched requests for CID {}", cid);
+                        CommandsInfo cmdInfo = log.getMessageBatch(cid);
+                        if (cmdInfo == null) {
+                            logger.warn("Consensus {} is null", cid);
                             continue;
                         }
-                        if (request.getType() == MessageType.APPLICATION) {
-                            logger.debug("Ignoring application request");
+                        byte[][] commands = cmdInfo.commands;
+                        MessageContext[] msgCtx = cmdInfo.msgCtx;
+
+                        if (commands == null || msgCtx == null || msgCtx[0].isNoOp())
                             continue;
+
+                        for (int i = 0; i < commands.length; i++) {
+                            Request request = Request.deserialize(commands[i]);
+                            if (request == null) {
+                                logger.warn("Request is null");
+                                continue;
+                            }
+                            if (request.getType() == MessageType.APPLICATION) {
+                                logger.debug("Ignoring application request");
+                                continue;
+                            }
+                            if (request.getType() == MessageType.RECONFIGURATION) {
+                                logger.debug("Ignoring reconfiguration request");
+                                continue;
+                            }
+                            if (request.getType() == MessageType.SHARE_DELIVERY) {
+                                logger.debug("Ignoring share delivery request");
+                                continue;
+                            }
+                            if (request.getType() == MessageType.CLIENT_BATCH) {
+                                for (Request operation : request.getOperations())
+                                    confidentialExecutor.appExecuteOrdered(operation.getPlainData(),
+                                            operation.getShares(), msgCtx[i]);
+                            } else {
+                                confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(),
+                                        msgCtx[i]);
+                            }
+                            if (request.isMissingShares())
+                                replayMissingShares(request, msgCtx[i]);
                         }
-                        if (request.getType() == MessageType.RECONFIGURATION) {
-                            logger.debug("Ignoring reconfiguration request");
-                            continue;
+                    } catch (Exception e) {
+                        logger.error("Failed to process and verify batched requests for CID {}", cid, e);
+                        if (e instanceof ArrayIndexOutOfBoundsException) {
+                            logger.info("Last checkpoint CID: {}", lastCheckpointCID);
+                            logger.info("Last CID: {}", lastCID);
+                            logger.info("Number of messages expected to be in the batch: {}", (log.getLastCID() - log.getLastCheckpointCID() + 1));
+                            logger.info("Number of messages in the batch: {}", log.getMessageBatches().length);
                         }
-                        confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(), msgCtx[i]);
-                    }
-                } catch (Exception e) {
-                    logger.error("Failed to process and verify batched requests for CID {}", cid, e);
-                    if (e instanceof ArrayIndexOutOfBoundsException) {
-                        logger.info("Last checkpoint CID: {}", lastCheckpointCID);
-                        logger.info("Last CID: {}", lastCID);
-                        logger.info("Number of messages expected to be in the batch: {}", (log.getLastCID() - log.getLastCheckpointCID() + 1));
-                        logger.info("Number of messages in the batch: {}", log.getMessageBatches().length);
                     }
                 }
+            } finally {
+                logLock.unlock();
+                stateLock.unlock();
             }
-            logLock.unlock();
-            stateLock.unlock();
         }
         return lastCID;
     }
@@ -309,20 +509,36 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         }
         if (request == null)
             return null;
+        if (!pendingExecutions.isEmpty()
+                && pendingExecutions.get(0).msgCtx.getConsensusId() != msgCtx.getConsensusId())
+            executePendingRequests();
+        if (request.isMissingShares())
+            registerMissingShares(command, request, msgCtx);
         byte[] preprocessedCommand = request.serialize();
         byte[] response;
-        if (request.getType() == MessageType.APPLICATION) {
+        if ((isBatchExecutor || scheduler != null) && (request.getType() == MessageType.CLIENT
+                || request.getType() == MessageType.CLIENT_BATCH)) {
+            pendingExecutions.add(new PendingExecution(command, request, msgCtx));
+            response = null;
+        } else if (request.getType() == MessageType.APPLICATION) {
             logger.debug("Received application ordered message of {} in CID {}. Regency: {}", msgCtx.getSender(),
                     msgCtx.getConsensusId(), msgCtx.getRegency());
             interServersCommunication.messageReceived(request.getPlainData(), msgCtx);
             response = new byte[0];
-        } else if (request.getType() == MessageType.CLIENT) {
+        } else if (request.getType() == MessageType.CLIENT || request.getType() == MessageType.CLIENT_BATCH) {
+            ConfidentialMessage r;
             stateLock.lock();
-            ConfidentialMessage r = confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(),
-                    msgCtx);
-            response = useTLSEncryption ? r.serialize() :
-                    encryptResponse(r, msgCtx).serialize();
-            stateLock.unlock();
+            try {
+                r = executeClientRequest(request, msgCtx);
+            } finally {
+                stateLock.unlock();
+            }
+            if (replyEncryptionStage == null) {
+                response = serializeResponse(r, msgCtx, false);
+            } else {
+                encryptAndReply(command, r, msgCtx);
+                response = null;
+            }
         } else {
             logger.info("Received reconfiguration message in executeOrdered");
             response = null;
@@ -332,6 +548,129 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         return response;
     }
 
+    private ConfidentialMessage executeClientRequest(Request request, MessageContext msgCtx) {
+        ConfidentialMessage r;
+        if (request.getType() == MessageType.CLIENT_BATCH) {
+            logger.debug("Received batch of {} operations from {} in CID {}", request.getOperations().length,
+                    msgCtx.getSender(), msgCtx.getConsensusId());
+            Request[] operations = request.getOperations();
+            ConfidentialMessage[] responses = new ConfidentialMessage[operations.length];
+            for (int i = 0; i < operations.length; i++) {
+                responses[i] = confidentialExecutor.appExecuteOrdered(operations[i].getPlainData(),
+                        operations[i].getShares(), msgCtx);
+            }
+            r = BatchedResponses.pack(responses);
+        } else {
+            r = confidentialExecutor.appExecuteOrdered(request.getPlainData(), request.getShares(), msgCtx);
+        }
+        return r;
+    }
+
+    /**
+     * Executes the client requests of the current consensus decision, either in parallel or as a single batch, and
+     * sends their replies in delivery order. As when executing sequentially, a failure of the application is
+     * rethrown, after replying to the requests that were executed.
+     */
+    private void executePendingRequests() {
+        if (pendingExecutions.isEmpty())
+            return;
+        logger.debug("Executing {} requests of CID {}", pendingExecutions.size(),
+                pendingExecutions.get(0).msgCtx.getConsensusId());
+        RuntimeException failure = null;
+        stateLock.lock();
+        try {
+            if (isBatchExecutor)
+                executeBatch(pendingExecutions);
+            else
+                scheduler.execute(pendingExecutions);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            stateLock.unlock();
+        }
+        for (PendingExecution execution : pendingExecutions) {
+            if (execution.response == null)
+                continue;
+            if (replyEncryptionStage == null)
+                sendReply(execution.command, serializeResponse(execution.response, execution.msgCtx, false),
+                        execution.msgCtx);
+            else
+                encryptAndReply(execution.command, execution.response, execution.msgCtx);
+        }
+        pendingExecutions.clear();
+        if (failure != null)
+            throw failure;
+    }
+
+    /**
+     * Encrypts and sends the reply in the reply encryption stage, so that the delivery thread can continue with
+     * the next requests. The shares are copied because the application may update them before the reply is
+     * encrypted.
+     */
+    private void encryptAndReply(byte[] command, ConfidentialMessage response, MessageContext msgCtx) {
+        if (response == null)
+            return;
+        VerifiableShare[] shares = response.getShares();
+        ConfidentialMessage copy = response;
+        if (shares != null) {
+            VerifiableShare[] sharesCopy = new VerifiableShare[shares.length];
+            for (int i = 0; i < shares.length; i++) {
+                sharesCopy[i] = new VerifiableShare(shares[i].getShare(), shares[i].getCommitments(),
+                        shares[i].getSharedData());
+            }
+            copy = new ConfidentialMessage(response.getPlainData(), sharesCopy);
+        }
+        ConfidentialMessage reply = copy;
+        replyEncryptionStage.submit(msgCtx.getSender(),
+                () -> sendReply(command, serializeResponse(reply, msgCtx, false), msgCtx));
+    }
+
+    private void sendReply(byte[] command, byte[] response, MessageContext msgCtx) {
+        if (response == null)
+            return;
+        TOMMessage reply = getTOMMessage(processId, replicaContext.getCurrentView().getId(), command, msgCtx,
+                response);
+        if (replier == null)
+            replicaContext.getServerCommunicationSystem().send(new int[]{reply.getSender()}, reply.reply);
+        else
+            replier.manageReply(reply, msgCtx);
+    }
+
+    /**
+     * Hands all operations of the consensus decision to the application at once. The operations of a client batch
+     * request are flattened and their responses packed again into a single reply.
+     */
+    private void executeBatch(List<PendingExecution> executions) {
+        List<byte[]> plainData = new ArrayList<>(executions.size());
+        List<VerifiableShare[]> shares = new ArrayList<>(executions.size());
+        List<MessageContext> msgCtxs = new ArrayList<>(executions.size());
+        for (PendingExecution execution : executions) {
+            Request[] operations = execution.request.getType() == MessageType.CLIENT_BATCH
+                    ? execution.request.getOperations() : new Request[]{execution.request};
+            for (Request operation : operations) {
+                plainData.add(operation.getPlainData());
+                shares.add(operation.getShares());
+                msgCtxs.add(execution.msgCtx);
+            }
+        }
+        ConfidentialMessage[] responses = ((ConfidentialBatchExecutable) confidentialExecutor).appExecuteBatch(
+                plainData.toArray(new byte[0][]), shares.toArray(new VerifiableShare[0][]),
+                msgCtxs.toArray(new MessageContext[0]));
+
+        int nextResponse = 0;
+        for (PendingExecution execution : executions) {
+            ConfidentialMessage r;
+            if (execution.request.getType() == MessageType.CLIENT_BATCH) {
+                int nOperations = execution.request.getOperations().length;
+                r = BatchedResponses.pack(Arrays.copyOfRange(responses, nextResponse, nextResponse + nOperations));
+                nextResponse += nOperations;
+            } else {
+                r = responses[nextResponse++];
+            }
+            execution.response = r;
+        }
+    }
+
     @Override
     public byte[] executeUnordered(byte[] command, byte[] privateData, MessageContext msgCtx) {
         Request request = preprocessRequest(command, privateData, msgCtx.getSender());
@@ -342,10 +681,82 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             interServersCommunication.messageReceived(request.getPlainData(), msgCtx);
             return new byte[0];
         }
-        ConfidentialMessage r = confidentialExecutor.appExecuteUnordered(request.getPlainData(), request.getShares(),
-                msgCtx);
-        return useTLSEncryption ? r.serialize() :
-                encryptResponse(r, msgCtx).serialize();
+        if (request.getType() == MessageType.REPLY_FETCH)
+            return fetchReply(request, msgCtx);
+        if (request.getType() == MessageType.SHARE_DELIVERY)
+            return deliverMissingShares(request, privateData, msgCtx);
+        ConfidentialMessage r;
+        if (request.getType() == MessageType.CLIENT_BATCH) {
+            Request[] operations = request.getOperations();
+            ConfidentialMessage[] responses = new ConfidentialMessage[operations.length];
+            for (int i = 0; i < operations.length; i++) {
+                responses[i] = confidentialExecutor.appExecuteUnordered(operations[i].getPlainData(),
+                        operations[i].getShares(), msgCtx);
+            }
+            r = BatchedResponses.pack(responses);
+        } else {
+            r = confidentialExecutor.appExecuteUnordered(request.getPlainData(), request.getShares(), msgCtx);
+        }
+        return serializeResponse(r, msgCtx, false);
+    }
+
+    /**
+     * Serializes the response to a client. With digest replies, only the designated replica of the request, or
+     * every replica when answering a {@link MessageType#REPLY_FETCH}, includes the plain data and shared data.
+     */
+    private byte[] serializeResponse(ConfidentialMessage response, MessageContext msgCtx, boolean isFetch) {
+        if (!digestReplies)
+            return useTLSEncryption ? response.serialize() : encryptResponse(response, msgCtx).serialize();
+        // unordered requests use their own sequence numbers, so only ordered replies are cached to be fetched
+        if (!isFetch && msgCtx.getType() == TOMMessageType.ORDERED_REQUEST)
+            cacheReply(response, msgCtx);
+        VerifiableShare[] shares = response.getShares();
+        byte[][] sharedData = null;
+        VerifiableShare[] strippedShares = null;
+        if (shares != null) {
+            sharedData = new byte[shares.length][];
+            strippedShares = new VerifiableShare[shares.length];
+            for (int i = 0; i < shares.length; i++) {
+                sharedData[i] = shares[i].getSharedData();
+                strippedShares[i] = new VerifiableShare(shares[i].getShare(), shares[i].getCommitments(), null);
+            }
+        }
+        byte[] commonDigest = DigestedReply.computeCommonDigest(response.getPlainData(), sharedData);
+        boolean isFull = isFetch || DigestedReply.getDesignatedReplica(
+                replicaContext.getCurrentView().getProcesses(), msgCtx.getSequence()) == processId;
+        ConfidentialMessage message = isFull ? response : new ConfidentialMessage(null, strippedShares);
+        byte[] serializedMessage = useTLSEncryption ? message.serialize() : encryptResponse(message, msgCtx).serialize();
+        return new DigestedReply(isFull, commonDigest, serializedMessage).serialize();
+    }
+
+    private void cacheReply(ConfidentialMessage response, MessageContext msgCtx) {
+        synchronized (replyCache) {
+            replyCache.put(hashReply(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence(), msgCtx.getType()),
+                    new CachedReply(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence(), msgCtx.getType(),
+                            response));
+        }
+    }
+
+    private byte[] fetchReply(Request request, MessageContext msgCtx) {
+        if (request.getPlainData() == null || request.getPlainData().length < 5) {
+            logger.warn("Client {} sent a malformed reply fetch request", msgCtx.getSender());
+            return null;
+        }
+        ByteBuffer plainData = ByteBuffer.wrap(request.getPlainData());
+        int sequence = plainData.getInt();
+        TOMMessageType type = TOMMessageType.fromInt(plainData.get());
+        CachedReply cachedReply;
+        synchronized (replyCache) {
+            cachedReply = replyCache.get(hashReply(msgCtx.getSender(), msgCtx.getSession(), sequence, type));
+        }
+        if (cachedReply == null || cachedReply.sender != msgCtx.getSender()
+                || cachedReply.session != msgCtx.getSession() || cachedReply.sequence != sequence
+                || cachedReply.type != type) {
+            logger.warn("Client {} asked for reply of request {} that is no longer cached", msgCtx.getSender(),
+                    sequence);
+            return null;
+        }
+        return serializeResponse(cachedReply.response, msgCtx, true);
     }
 
     private EncryptedConfidentialMessage encryptResponse(ConfidentialMessage clearResponse, MessageContext msgCtx) {
@@ -354,27 +765,41 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             return new EncryptedConfidentialMessage(clearResponse.getPlainData());
 
         EncryptedConfidentialData[] shares = new EncryptedConfidentialData[clearShares.length];
-
-        for (int i = 0; i < clearShares.length; i++) {
-            VerifiableShare clearCD = clearShares[i];
-            EncryptedVerifiableShare encryptedVS =
-                    encryptShare(msgCtx.getSender(), clearCD);
-
-            shares[i] = new EncryptedConfidentialData(encryptedVS);
-        }
+        int nChunks = (clearShares.length + ENCRYPTION_CHUNK_SIZE - 1) / ENCRYPTION_CHUNK_SIZE;
+        IntStream chunks = IntStream.range(0, nChunks);
+        if (nChunks > 1)
+            chunks = chunks.parallel();
+        chunks.forEach(chunk -> {
+            int start = chunk * ENCRYPTION_CHUNK_SIZE;
+            int end = Math.min(start + ENCRYPTION_CHUNK_SIZE, clearShares.length);
+            encryptShares(msgCtx.getSender(), clearShares, shares, start, end);
+        });
 
         return new EncryptedConfidentialMessage(clearResponse.getPlainData(), shares);
     }
 
-    private EncryptedVerifiableShare encryptShare(int id, VerifiableShare clearShare) {
+    /**
+     * Encrypts the shares in [start, end) with a single cipher initialization.
+     */
+    private void encryptShares(int id, VerifiableShare[] clearShares, EncryptedConfidentialData[] result, int start,
+                               int end) {
+        Share[] shares = new Share[end - start];
+        for (int i = start; i < end; i++) {
+            shares[i - start] = clearShares[i].getShare();
+        }
         try {
-            byte[] encryptedShare = confidentialityScheme.encryptShareFor(id,
-                    clearShare.getShare());
-            return new EncryptedVerifiableShare(clearShare.getShare().getShareholder(), encryptedShare, clearShare.getCommitments(),
-                    clearShare.getSharedData());
+            byte[][] encryptedShares = confidentialityScheme.encryptSharesFor(id, shares);
+            for (int i = start; i < end; i++) {
+                VerifiableShare clearShare = clearShares[i];
+                result[i] = new EncryptedConfidentialData(new EncryptedVerifiableShare(
+                        clearShare.getShare().getShareholder(), encryptedShares[i - start],
+                        clearShare.getCommitments(), clearShare.getSharedData()));
+            }
         } catch (SecretSharingException e) {
-            logger.error("Failed to encrypt share for client {}", id, e);
-            return null;
+            logger.error("Failed to encrypt shares for client {}", id, e);
+            for (int i = start; i < end; i++) {
+                result[i] = new EncryptedConfidentialData(null);
+            }
         }
     }
 
@@ -384,35 +809,28 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             MessageType type = MessageType.getMessageType(in.read());
             Request result = null;
             int len;
-            byte[] plainData = null;
+            byte[] plainData;
             switch (type) {
                 case CLIENT:
-                    len = in.readInt();
-                    if (len != -1) {
-                        plainData = new byte[len];
-                        in.readFully(plainData);
+                    try (ObjectInput privateIn = openPrivateData(privateData)) {
+                        result = readClientRequest(in, privateIn);
                     }
-                    len = in.readInt();
-                    VerifiableShare[] shares = null;
-                    if (len != -1) {
-                        if (len == 0) {
-                            shares = new VerifiableShare[0];
-                        } else if (isCombinePrivateAndCommonData) {
-                            shares = new VerifiableShare[len];
-                            EncryptedPublishedShares publishedShares;
-                            for (int i = 0; i < len; i++) {
-                                publishedShares = new EncryptedPublishedShares();
-                                publishedShares.readExternal(in);
-                                VerifiableShare vs = confidentialityScheme.extractShare(publishedShares);
-                                shares[i] = vs;
-                            }
-                        } else {
-                            shares = readSharesFromPrivateData(len, in, privateData);
+                    break;
+                case CLIENT_BATCH:
+                    try (ObjectInput privateIn = openPrivateData(privateData)) {
+                        Request[] operations = new Request[in.readInt()];
+                        boolean isMissingShares = false;
+                        for (int i = 0; i < operations.length; i++) {
+                            operations[i] = readClientRequest(in, privateIn);
+                            isMissingShares |= operations[i].isMissingShares();
                         }
+                        result = new Request(operations);
+                        result.setMissingShares(isMissingShares);
                     }
-                    result = new Request(type, plainData, shares);
                     break;
                 case APPLICATION:
+                case REPLY_FETCH:
+                case SHARE_DELIVERY:
                     len = in.readInt();
                     plainData = new byte[len];
                     in.readFully(plainData);
@@ -432,61 +850,302 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
         }
     }
 
-    private VerifiableShare[] readSharesFromPrivateData(int size, ObjectInput commonDataStream, byte[] privateData) throws IOException,
+    /**
+     * Opens the private data of a request, which carries this replica's shares when they are not sent together
+     * with the common data.
+     */
+    private ObjectInput openPrivateData(byte[] privateData) throws IOException {
+        if (isCombinePrivateAndCommonData || privateData == null)
+            return null;
+        return new ObjectInputStream(new ByteArrayInputStream(privateData));
+    }
+
+    private Request readClientRequest(ObjectInput in, ObjectInput privateIn) throws IOException,
             SecretSharingException, ClassNotFoundException {
+        byte[] plainData = null;
+        int len = in.readInt();
+        if (len != -1) {
+            plainData = new byte[len];
+            in.readFully(plainData);
+        }
+        len = in.readInt();
+        VerifiableShare[] shares = null;
+        if (len != -1) {
+            if (len == 0) {
+                shares = new VerifiableShare[0];
+            } else if (isCombinePrivateAndCommonData) {
+                shares = new VerifiableShare[len];
+                EncryptedPublishedShares publishedShares;
+                for (int i = 0; i < len; i++) {
+                    publishedShares = new EncryptedPublishedShares();
+                    publishedShares.readExternal(in);
+                    VerifiableShare vs = confidentialityScheme.extractShare(publishedShares);
+                    shares[i] = vs;
+                }
+            } else {
+                shares = readSharesFromPrivateData(len, in, privateIn);
+            }
+        }
+        Request request = new Request(MessageType.CLIENT, plainData, shares);
+        request.setMissingShares(len > 0 && !isCombinePrivateAndCommonData && privateIn == null);
+        return request;
+    }
+
+    /**
+     * Reads this replica's shares. If the private data did not arrive, the shares are placeholders holding only the
+     * public part of the shares, which are completed once the client delivers the private data again.
+     */
+    private VerifiableShare[] readSharesFromPrivateData(int size, ObjectInput commonDataStream, ObjectInput privateIn)
+            throws IOException, SecretSharingException, ClassNotFoundException {
         VerifiableShare[] shares = new VerifiableShare[size];
+        for (int i = 0; i < size; i++) {
+            VerifiableShare placeholder = readPlaceholderShare(commonDataStream);
+            shares[i] = privateIn == null ? placeholder : completeShare(placeholder, privateIn);
+        }
+        return shares;
+    }
 
-        BigInteger shareholder = confidentialityScheme.getMyShareholderId();
-
-        try (ByteArrayInputStream privateBis = new ByteArrayInputStream(privateData);
-             ObjectInput privateIn = new ObjectInputStream(privateBis)) {
-            EncryptedPublishedShares publishedShares;
-            for (int i = 0; i < size; i++) {
-                int l = commonDataStream.readInt();
-                byte[] sharedData = null;
-                if (l != -1) {
-                    sharedData = new byte[l];
-                    commonDataStream.readFully(sharedData);
-                }
-                l = privateIn.readInt();
-                byte[] encShare = null;
-                if (l != -1) {
-                    encShare = new byte[l];
-                    privateIn.readFully(encShare);
+    private VerifiableShare readPlaceholderShare(ObjectInput commonDataStream) throws IOException,
+            ClassNotFoundException {
+        int l = commonDataStream.readInt();
+        byte[] sharedData = null;
+        if (l != -1) {
+            sharedData = new byte[l];
+            commonDataStream.readFully(sharedData);
+        }
+        Commitment commitment;
+        if (isLinearCommitmentScheme)
+            commitment = CommitmentUtils.getInstance().readCommitment(commonDataStream);
+        else {
+            byte[] c = new byte[commonDataStream.readInt()];
+            commonDataStream.readFully(c);
+            commitment = new ConstantCommitment(c, new TreeMap<>());
+        }
+        return new VerifiableShare(new Share(confidentialityScheme.getMyShareholderId(), BigInteger.ZERO),
+                commitment, sharedData);
+    }
+
+    private VerifiableShare completeShare(VerifiableShare placeholder, ObjectInput privateIn) throws IOException,
+            SecretSharingException {
+        int l = privateIn.readInt();
+        byte[] encShare = null;
+        if (l != -1) {
+            encShare = new byte[l];
+            privateIn.readFully(encShare);
+        }
+        Commitment commitment = placeholder.getCommitments();
+        if (!isLinearCommitmentScheme) {
+            byte[] witness = new byte[privateIn.readInt()];
+            privateIn.readFully(witness);
+            TreeMap<Integer, byte[]> witnesses = new TreeMap<>();
+            witnesses.put(confidentialityScheme.getMyShareholderId().hashCode(), witness);
+            commitment = new ConstantCommitment(((ConstantCommitment) commitment).getCommitment(), witnesses);
+        }
+        Map<Integer, byte[]> encryptedShares = new HashMap<>(1);
+        encryptedShares.put(processId, encShare);
+        EncryptedPublishedShares publishedShares = new EncryptedPublishedShares(
+                encryptedShares, commitment, placeholder.getSharedData());
+        return confidentialityScheme.extractShare(publishedShares);
+    }
+
+    /**
+     * Tells the client that this replica executed its request without the private data, so that the client
+     * delivers it again with a {@link MessageType#SHARE_DELIVERY} request.
+     */
+    private void registerMissingShares(byte[] command, Request request, MessageContext msgCtx) {
+        synchronized (missingShares) {
+            missingShares.put(hashRequest(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence()),
+                    new MissingShares(request, msgCtx));
+        }
+        logger.info("Executed request {} of client {} without my shares", msgCtx.getSequence(), msgCtx.getSender());
+        TOMMessage notification = new TOMMessage(processId, msgCtx.getSession(), msgCtx.getSequence(),
+                msgCtx.getOperationId(), TOMUtil.computeHash(command), replicaContext.getCurrentView().getId(),
+                TOMMessageType.REPLY);
+        replicaContext.getServerCommunicationSystem().send(new int[]{msgCtx.getSender()}, notification);
+    }
+
+    /**
+     * Verifies the shares delivered by the client and queues them to be applied by the delivery thread between
+     * consensus decisions.
+     */
+    private byte[] deliverMissingShares(Request request, byte[] privateData, MessageContext msgCtx) {
+        int sequence = ByteBuffer.wrap(request.getPlainData()).getInt();
+        int hash = hashRequest(msgCtx.getSender(), msgCtx.getSession(), sequence);
+        MissingShares entry;
+        synchronized (missingShares) {
+            entry = missingShares.get(hash);
+        }
+        if (entry == null || entry.msgCtx.getSender() != msgCtx.getSender()
+                || entry.msgCtx.getSession() != msgCtx.getSession() || entry.msgCtx.getSequence() != sequence)
+            return new byte[0];
+        List<VerifiableShare> placeholders = getPlaceholders(entry.request);
+        VerifiableShare[] shares = new VerifiableShare[placeholders.size()];
+        try (ObjectInput privateIn = new ObjectInputStream(new ByteArrayInputStream(privateData))) {
+            for (int i = 0; i < shares.length; i++) {
+                shares[i] = completeShare(placeholders.get(i), privateIn);
+                if (!commitmentScheme.checkValidityWithoutPreComputation(shares[i].getShare(),
+                        shares[i].getCommitments())) {
+                    logger.warn("Client {} delivered an invalid share for request {}", msgCtx.getSender(),
+                            sequence);
+                    return new byte[0];
                 }
-                Commitment commitment;
-                if (isLinearCommitmentScheme)
-                    commitment = CommitmentUtils.getInstance().readCommitment(commonDataStream);
-                else {
-                    byte[] c = new byte[commonDataStream.readInt()];
-                    commonDataStream.readFully(c);
-                    byte[] witness = new byte[privateIn.readInt()];
-                    privateIn.readFully(witness);
-                    TreeMap<Integer, byte[]> witnesses = new TreeMap<>();
-                    witnesses.put(shareholder.hashCode(), witness);
-                    commitment = new ConstantCommitment(c, witnesses);
+            }
+        } catch (IOException | SecretSharingException e) {
+            logger.warn("Failed to read missing shares of request {} of client {}", sequence, msgCtx.getSender(),
+                    e);
+            return new byte[0];
+        }
+        synchronized (missingShares) {
+            if (missingShares.get(hash) != entry) // delivered concurrently
+                return new byte[0];
+            missingShares.remove(hash);
+        }
+        entry.shares = shares;
+        synchronized (deliveredShares) {
+            deliveredShares.add(entry);
+        }
+        logger.info("Received missing shares of request {} of client {}", sequence, msgCtx.getSender());
+        return new byte[0];
+    }
+
+    /**
+     * Applies the delivered shares between consensus decisions, so that the checkpoints built after this decision
+     * include them. Each replica receives its shares at a different time, so they are not added to the replicated
+     * log, whose common part must be equal in every replica. They are kept in a replica-local record instead, used
+     * to replay the log until a checkpoint covers their requests.
+     */
+    private void applyDeliveredShares() {
+        List<MissingShares> entries;
+        synchronized (deliveredShares) {
+            if (deliveredShares.isEmpty())
+                return;
+            entries = new ArrayList<>(deliveredShares);
+            deliveredShares.clear();
+        }
+        stateLock.lock();
+        try {
+            for (MissingShares entry : entries) {
+                replacePlaceholders(entry, entry.shares, entry.msgCtx);
+                synchronized (appliedDeliveries) {
+                    appliedDeliveries.put(hashRequest(entry.msgCtx.getSender(), entry.msgCtx.getSession(),
+                            entry.msgCtx.getSequence()), entry);
                 }
-                Map<Integer, byte[]> encryptedShares = new HashMap<>(1);
-                encryptedShares.put(processId, encShare);
-                publishedShares = new EncryptedPublishedShares(
-                        encryptedShares, commitment, sharedData);
-                VerifiableShare vs = confidentialityScheme.extractShare(publishedShares);
-                shares[i] = vs;
             }
+        } finally {
+            stateLock.unlock();
         }
-        return shares;
     }
 
-    private void saveState(byte[] snapshot, int lastCID) {
-        logLock.lock();
+    /**
+     * Replays the delivery of the shares of a request executed with placeholders, or registers them as missing if
+     * they were not delivered before the log was replayed.
+     */
+    private void replayMissingShares(Request request, MessageContext msgCtx) {
+        int hash = hashRequest(msgCtx.getSender(), msgCtx.getSession(), msgCtx.getSequence());
+        MissingShares entry = new MissingShares(request, msgCtx);
+        MissingShares delivered;
+        synchronized (appliedDeliveries) {
+            delivered = appliedDeliveries.get(hash);
+        }
+        if (delivered != null && delivered.msgCtx.getSender() == msgCtx.getSender()
+                && delivered.msgCtx.getSession() == msgCtx.getSession()
+                && delivered.msgCtx.getSequence() == msgCtx.getSequence()) {
+            replacePlaceholders(entry, delivered.shares, msgCtx);
+            return;
+        }
+        synchronized (missingShares) {
+            missingShares.put(hash, entry);
+        }
+    }
+
+    /**
+     * Forgets the delivered shares of the requests covered by the checkpoint of the given consensus.
+     */
+    private void forgetAppliedDeliveries(int lastCID) {
+        synchronized (appliedDeliveries) {
+            appliedDeliveries.values().removeIf(entry -> entry.msgCtx.getConsensusId() <= lastCID);
+        }
+    }
+
+    private void replacePlaceholders(MissingShares entry, VerifiableShare[] shares, MessageContext msgCtx) {
+        if (confidentialExecutor instanceof ConfidentialShareReplaceable) {
+            ((ConfidentialShareReplaceable) confidentialExecutor).appReplacePlaceholderShares(shares, msgCtx);
+            return;
+        }
+        if (entry == null) {
+            logger.warn("Cannot replace the placeholder shares of request {} of client {}", msgCtx.getSequence(),
+                    msgCtx.getSender());
+            return;
+        }
+        List<VerifiableShare> placeholders = getPlaceholders(entry.request);
+        for (int i = 0; i < placeholders.size() && i < shares.length; i++) {
+            placeholders.get(i).setShare(shares[i].getShare());
+            placeholders.get(i).setCommitments(shares[i].getCommitments());
+        }
+    }
+
+    private static List<VerifiableShare> getPlaceholders(Request request) {
+        Request[] operations = request.getType() == MessageType.CLIENT_BATCH
+                ? request.getOperations() : new Request[]{request};
+        List<VerifiableShare> placeholders = new ArrayList<>();
+        for (Request operation : operations) {
+            if (operation.getShares() != null)
+                Collections.addAll(placeholders, operation.getShares());
+        }
+        return placeholders;
+    }
+
+    private void saveState(ChunkedByteArray snapshot, int lastCID) {
+        if (snapshot == null) {
+            logger.error("Failed to serialize state of CID {}. Keeping its commands in the log", lastCID);
+            return;
+        }
         logger.debug("Saving state of CID {}", lastCID);
+        byte[] snapshotHash = computeHash(snapshot);
+        logLock.lock();
+        try {
+            log.newCheckpoint(snapshot, snapshotHash, lastCID);
+        } finally {
+            logLock.unlock();
+        }
+        forgetAppliedDeliveries(lastCID);
+        logger.debug("Finished saving state of CID {}", lastCID);
+    }
 
-        log.newCheckpoint(snapshot, TOMUtil.computeHash(snapshot), lastCID);
+    private byte[] computeHash(ChunkedByteArray state) {
+        try {
+            MessageDigest digest = TOMUtil.getHashEngine();
+            state.update(digest);
+            return digest.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to initialize hash engine", e);
+        }
+    }
 
-        logLock.unlock();
+    private void saveIncrementalState(Map<String, ConfidentialSnapshot> changedEntries, int lastCID) {
+        logger.debug("Saving {} changed entries of CID {}", changedEntries.size(), lastCID);
+        StateDelta delta = StateDelta.of(changedEntries);
+        logLock.lock();
+        try {
+            incrementalState.apply(delta);
+            log.newIncrementalCheckpoint(incrementalState, delta, lastCID);
+        } finally {
+            logLock.unlock();
+        }
+        forgetAppliedDeliveries(lastCID);
         logger.debug("Finished saving state of CID {}", lastCID);
     }
 
+    private void installIncrementalState(ConfidentialSnapshot snapshot) {
+        try {
+            incrementalState = IncrementalState.fromSnapshot(snapshot);
+            ((ConfidentialIncrementalCheckpointable) confidentialExecutor)
+                    .installEntries(incrementalState.getEntries());
+        } catch (IOException e) {
+            logger.error("Failed to install incremental state", e);
+        }
+    }
+
     private void saveCommands(byte[][] commands, MessageContext[] msgCtx) {
         if (commands.length != msgCtx.length) {
             logger.debug("----SIZE OF COMMANDS AND MESSAGE CONTEXTS IS DIFFERENT----");
@@ -525,21 +1184,73 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
             //logger.debug("Not last in the batch");
             return;
         }
+        executePendingRequests();
+        applyDeliveredShares();
 
+        // the commands stay in the log until the checkpoint of this consensus is built in background
+        saveCommands(commands.toArray(new byte[0][]), msgContexts.toArray(new MessageContext[0]));
         if (cid > 0 && (cid % checkpointPeriod) == 0) {
             logger.info("Performing checkpoint for consensus " + cid);
+            awaitPendingCheckpoint();
+            Runnable checkpoint;
             stateLock.lock();
-            ConfidentialSnapshot snapshot = confidentialExecutor.getConfidentialSnapshot();
-            stateLock.unlock();
-            saveState(snapshot.serialize(), cid);
-        } else {
-            saveCommands(commands.toArray(new byte[0][]), msgContexts.toArray(new MessageContext[0]));
+            try {
+                checkpoint = incrementalState != null ? captureIncrementalCheckpoint(cid) : captureCheckpoint(cid);
+            } finally {
+                stateLock.unlock();
+            }
+            pendingCheckpoint = checkpointExecutor.submit(() -> {
+                checkpoint.run();
+                logger.info("Finished checkpoint for consensus {}", cid);
+            });
         }
         getStateManager().setLastCID(cid);
         commands.clear();
         msgContexts.clear();
     }
 
+    private Runnable captureCheckpoint(int cid) {
+        Supplier<ConfidentialSnapshot> snapshotView;
+        if (confidentialExecutor instanceof ConfidentialCheckpointable) {
+            snapshotView = ((ConfidentialCheckpointable) confidentialExecutor).captureSnapshotView();
+        } else {
+            ConfidentialSnapshot snapshot = confidentialExecutor.getConfidentialSnapshot();
+            snapshotView = () -> snapshot;
+        }
+        return () -> {
+            ConfidentialSnapshot snapshot = snapshotView.get();
+            saveState(snapshot == null ? null : snapshot.serializeChunked(), cid);
+        };
+    }
+
+    /**
+     * Only the entries written since the previous checkpoint are copied, and only they are hashed and stored.
+     */
+    private Runnable captureIncrementalCheckpoint(int cid) {
+        ConfidentialIncrementalCheckpointable checkpointable = (ConfidentialIncrementalCheckpointable) confidentialExecutor;
+        Map<String, ConfidentialSnapshot> changedEntries = new TreeMap<>();
+        for (String key : checkpointable.takeDirtyKeys())
+            changedEntries.put(key, checkpointable.getEntry(key));
+        return () -> saveIncrementalState(changedEntries, cid);
+    }
+
+    /**
+     * Waits for the previous checkpoint, so that at most one checkpoint is built at a time and a state received
+     * from other replicas is not replaced by an older checkpoint.
+     */
+    private void awaitPendingCheckpoint() {
+        if (pendingCheckpoint == null)
+            return;
+        try {
+            pendingCheckpoint.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Failed to perform checkpoint", e.getCause());
+        }
+        pendingCheckpoint = null;
+    }
+
     @Override
     public void onReconfigurationRequest(TOMMessage reconfigurationRequest) {
         logger.info("onReconfigurationRequest");
@@ -574,4 +1285,70 @@ public final class ConfidentialRecoverable implements SingleExecutable, Recovera
     public void onReconfigurationFailure() {
         logger.error("Reconfiguration failed");
     }
+
+    private static class CachedReply {
+        private final int sender;
+        private final int session;
+        private final int sequence;
+        private final TOMMessageType type;
+        private final ConfidentialMessage response;
+
+        private CachedReply(int sender, int session, int sequence, TOMMessageType type,
+                            ConfidentialMessage response) {
+            this.sender = sender;
+            this.session = session;
+            this.sequence = sequence;
+            this.type = type;
+            this.response = response;
+        }
+    }
+
+    private class PendingExecution implements ConflictAwareScheduler.Task {
+        private final byte[] command;
+        private final Request request;
+        private final MessageContext msgCtx;
+        private final ConflictClasses conflictClasses;
+        private ConfidentialMessage response;
+
+        private PendingExecution(byte[] command, Request request, MessageContext msgCtx) {
+            this.command = command;
+            this.request = request;
+            this.msgCtx = msgCtx;
+            if (scheduler == null) {
+                this.conflictClasses = null;
+                return;
+            }
+            ConfidentialParallelExecutable executor = (ConfidentialParallelExecutable) confidentialExecutor;
+            if (request.getType() == MessageType.CLIENT_BATCH) {
+                ConflictClasses classes = ConflictClasses.none();
+                for (Request operation : request.getOperations())
+                    classes = classes.merge(executor.getConflictClasses(operation.getPlainData(),
+                            operation.getShares()));
+                this.conflictClasses = classes;
+            } else {
+                this.conflictClasses = executor.getConflictClasses(request.getPlainData(), request.getShares());
+            }
+        }
+
+        @Override
+        public ConflictClasses getConflictClasses() {
+            return conflictClasses;
+        }
+
+        @Override
+        public void run() {
+            response = executeClientRequest(request, msgCtx);
+        }
+    }
+
+    private static class MissingShares {
+        private final Request request;
+        private final MessageContext msgCtx;
+        private VerifiableShare[] shares; // delivered by the client, once they verify
+
+        private MissingShares(Request request, MessageContext msgCtx) {
+            this.request = request;
+            this.msgCtx = msgCtx;
+        }
+    }
 }
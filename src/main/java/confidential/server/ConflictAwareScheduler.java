@@ -0,0 +1,116 @@
+package confidential.server;
+
+import confidential.facade.server.ConflictClasses;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executes the requests of a consensus decision on a pool of workers. A request starts only after every earlier
+ * request it conflicts with has finished, so the final state is the same as executing the requests in delivery
+ * order.
+ * <p>
+ * The workers are not taken from the {@link ComputeScheduler}: they run application code, which may block on the
+ * application's own locks or I/O and may itself submit work to the compute scheduler and wait for it. Running it in
+ * the compute pool could then hold every slot of the client class while waiting for tasks that cannot start.
+ */
+final class ConflictAwareScheduler {
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final ExecutorService workers;
+
+    ConflictAwareScheduler(int nThreads) {
+        this.workers = Executors.newFixedThreadPool(nThreads, r -> {
+            Thread thread = new Thread(r, "Confidential execution thread");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Executes the tasks and waits for all of them to finish. A task that fails is not retried and the tasks that
+     * depend on it are not executed, so every replica skips the same tasks.
+     * @throws RuntimeException The failure of the first task in delivery order that failed or was skipped
+     */
+    void execute(List<? extends Task> tasks) {
+        Map<Object, CompletableFuture<Void>> lastWriters = new HashMap<>();
+        Map<Object, List<CompletableFuture<Void>>> readers = new HashMap<>();
+        List<CompletableFuture<Void>> sinceLastGlobal = new ArrayList<>();
+        CompletableFuture<Void> lastGlobal = CompletableFuture.completedFuture(null);
+        CompletableFuture<?>[] executions = new CompletableFuture<?>[tasks.size()];
+
+        for (int i = 0; i < executions.length; i++) {
+            Task task = tasks.get(i);
+            ConflictClasses classes = task.getConflictClasses();
+            List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+            dependencies.add(lastGlobal);
+            if (classes.isGlobal()) {
+                dependencies.addAll(sinceLastGlobal);
+            } else {
+                for (Object key : classes.getReadKeys()) {
+                    CompletableFuture<Void> writer = lastWriters.get(key);
+                    if (writer != null)
+                        dependencies.add(writer);
+                }
+                for (Object key : classes.getWriteKeys()) {
+                    CompletableFuture<Void> writer = lastWriters.get(key);
+                    if (writer != null)
+                        dependencies.add(writer);
+                    List<CompletableFuture<Void>> keyReaders = readers.get(key);
+                    if (keyReaders != null)
+                        dependencies.addAll(keyReaders);
+                }
+            }
+
+            CompletableFuture<Void> execution = CompletableFuture.allOf(dependencies.toArray(new CompletableFuture<?>[0]))
+                    .thenRunAsync(task, workers);
+            executions[i] = execution;
+
+            if (classes.isGlobal()) {
+                lastGlobal = execution;
+                sinceLastGlobal.clear();
+                lastWriters.clear();
+                readers.clear();
+            } else {
+                sinceLastGlobal.add(execution);
+                for (Object key : classes.getReadKeys())
+                    readers.computeIfAbsent(key, k -> new ArrayList<>()).add(execution);
+                for (Object key : classes.getWriteKeys()) {
+                    lastWriters.put(key, execution);
+                    readers.remove(key);
+                }
+            }
+        }
+        try {
+            CompletableFuture.allOf(executions).join();
+        } catch (CompletionException e) {
+            for (CompletableFuture<?> execution : executions) {
+                if (!execution.isCompletedExceptionally())
+                    continue;
+                try {
+                    execution.join();
+                } catch (CompletionException failure) {
+                    Throwable cause = failure.getCause();
+                    logger.error("Failed to execute request", cause);
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    if (cause instanceof Error)
+                        throw (Error) cause;
+                    throw failure;
+                }
+            }
+            throw e;
+        }
+    }
+
+    interface Task extends Runnable {
+        ConflictClasses getConflictClasses();
+    }
+}
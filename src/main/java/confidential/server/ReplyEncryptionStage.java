@@ -0,0 +1,51 @@
+package confidential.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Encrypts and sends replies after execution, overlapping with the execution of the next requests. Replies are
+ * encrypted in the client class of the compute scheduler. Replies of different clients are processed in parallel,
+ * while replies of the same client are sent in the order they were submitted.
+ */
+final class ReplyEncryptionStage {
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final Executor workers;
+    private final Map<Integer, CompletableFuture<Void>> lastReplies;
+
+    ReplyEncryptionStage(ComputeScheduler computeScheduler) {
+        this.workers = task -> computeScheduler.execute(ComputeScheduler.ComputeClass.CLIENT, task);
+        this.lastReplies = new HashMap<>();
+    }
+
+    /**
+     * Runs the reply task after the previous reply task of the same client.
+     */
+    void submit(int client, Runnable replyTask) {
+        synchronized (lastReplies) {
+            CompletableFuture<Void> previous = lastReplies.get(client);
+            if (previous == null)
+                previous = CompletableFuture.completedFuture(null);
+            CompletableFuture<Void> reply = previous.thenRunAsync(() -> run(client, replyTask), workers);
+            lastReplies.put(client, reply);
+            reply.thenRun(() -> {
+                synchronized (lastReplies) {
+                    lastReplies.remove(client, reply);
+                }
+            });
+        }
+    }
+
+    private void run(int client, Runnable replyTask) {
+        try {
+            replyTask.run();
+        } catch (RuntimeException e) {
+            logger.error("Failed to send reply to client {}", client, e);
+        }
+    }
+}
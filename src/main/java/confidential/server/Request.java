@@ -9,11 +9,25 @@ public final class Request {
     private final MessageType type;
     private final byte[] plainData;
     private VerifiableShare[] shares;
+    private final Request[] operations;
+    private boolean isMissingShares;
 
     public Request(MessageType type, byte[] plainData, VerifiableShare... shares) {
         this.type = type;
         this.plainData = plainData;
         this.shares = shares;
+        this.operations = null;
+    }
+
+    /**
+     * Creates a {@link MessageType#CLIENT_BATCH} request.
+     * @param operations Client requests in the batch
+     */
+    public Request(Request[] operations) {
+        this.type = MessageType.CLIENT_BATCH;
+        this.plainData = null;
+        this.shares = null;
+        this.operations = operations;
     }
 
     public MessageType getType() {
@@ -32,17 +46,36 @@ public final class Request {
         this.shares = shares;
     }
 
+    /**
+     * @return Client requests of a {@link MessageType#CLIENT_BATCH} request, or null for other requests
+     */
+    public Request[] getOperations() {
+        return operations;
+    }
+
+    /**
+     * @return True if the shares of this request are placeholders because its private data was not received. This
+     * flag is serialized with the request, so it is kept in this replica's log.
+     */
+    public boolean isMissingShares() {
+        return isMissingShares;
+    }
+
+    public void setMissingShares(boolean isMissingShares) {
+        this.isMissingShares = isMissingShares;
+    }
+
     public byte[] serialize() {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutput out = new ObjectOutputStream(bos)) {
             out.write((byte)type.ordinal());
-            out.writeInt(plainData == null ? -1 : plainData.length);
-            if (plainData != null)
-                out.write(plainData);
-            out.writeInt(shares == null ? -1 : shares.length);
-            if (shares != null) {
-                for (VerifiableShare share : shares)
-                    share.writeExternal(out);
+            out.writeBoolean(isMissingShares);
+            if (type == MessageType.CLIENT_BATCH) {
+                out.writeInt(operations.length);
+                for (Request operation : operations)
+                    writeContent(out, operation.plainData, operation.shares);
+            } else {
+                writeContent(out, plainData, shares);
             }
             out.flush();
             bos.flush();
@@ -57,25 +90,53 @@ public final class Request {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
              ObjectInput in = new ObjectInputStream(bis)) {
             MessageType type = MessageType.getMessageType(in.read());
-            int len = in.readInt();
-            byte[] plainData = len == -1 ? null : new byte[len];
-            if (len != -1)
-                in.readFully(plainData);
-
-            len = in.readInt();
-            VerifiableShare[] shares = len == -1 ? null : new VerifiableShare[len];
-            if (len != -1) {
-                VerifiableShare share;
-                for (int i = 0; i < shares.length; i++) {
-                    share = new VerifiableShare();
-                    share.readExternal(in);
-                    shares[i] = share;
-                }
+            boolean isMissingShares = in.readBoolean();
+            Request request;
+            if (type == MessageType.CLIENT_BATCH) {
+                Request[] operations = new Request[in.readInt()];
+                for (int i = 0; i < operations.length; i++)
+                    operations[i] = readContent(in, MessageType.CLIENT);
+                request = new Request(operations);
+            } else {
+                request = readContent(in, type);
             }
-            return new Request(type, plainData, shares);
+            request.isMissingShares = isMissingShares;
+            return request;
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
             return null;
         }
     }
+
+    private static void writeContent(ObjectOutput out, byte[] plainData, VerifiableShare[] shares)
+            throws IOException {
+        out.writeInt(plainData == null ? -1 : plainData.length);
+        if (plainData != null)
+            out.write(plainData);
+        out.writeInt(shares == null ? -1 : shares.length);
+        if (shares != null) {
+            for (VerifiableShare share : shares)
+                share.writeExternal(out);
+        }
+    }
+
+    private static Request readContent(ObjectInput in, MessageType type) throws IOException,
+            ClassNotFoundException {
+        int len = in.readInt();
+        byte[] plainData = len == -1 ? null : new byte[len];
+        if (len != -1)
+            in.readFully(plainData);
+
+        len = in.readInt();
+        VerifiableShare[] shares = len == -1 ? null : new VerifiableShare[len];
+        if (len != -1) {
+            VerifiableShare share;
+            for (int i = 0; i < shares.length; i++) {
+                share = new VerifiableShare();
+                share.readExternal(in);
+                shares[i] = share;
+            }
+        }
+        return new Request(type, plainData, shares);
+    }
 }
@@ -0,0 +1,162 @@
+package confidential.statemanagement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable sequence of bytes stored in chunks of bounded size. Serialized snapshots are written to and read from it
+ * as streams, so that they are persisted, hashed and copied chunk by chunk without allocating a single array of
+ * the whole state, whose size is limited to 2 GB.
+ */
+public final class ChunkedByteArray {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private final int chunkSize;
+    private final List<byte[]> chunks;
+    private long size;
+
+    public ChunkedByteArray() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public ChunkedByteArray(int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive");
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayList<>();
+    }
+
+    public static ChunkedByteArray wrap(byte[] data) {
+        ChunkedByteArray array = new ChunkedByteArray(chunkSizeFor(data == null ? 0 : data.length));
+        if (data != null)
+            array.write(data, 0, data.length);
+        return array;
+    }
+
+    /**
+     * Reads length bytes from the stream.
+     */
+    public static ChunkedByteArray readFrom(InputStream in, long length) throws IOException {
+        ChunkedByteArray array = new ChunkedByteArray(chunkSizeFor(length));
+        while (array.size < length) {
+            int offset = (int) (array.size % array.chunkSize);
+            if (offset == 0)
+                array.chunks.add(new byte[array.chunkSize]);
+            byte[] chunk = array.chunks.get(array.chunks.size() - 1);
+            int read = in.read(chunk, offset, (int) Math.min(chunk.length - offset, length - array.size));
+            if (read < 0)
+                throw new IOException("Stream ended after " + array.size + " of " + length + " bytes");
+            array.size += read;
+        }
+        return array;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public OutputStream getOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) {
+                ChunkedByteArray.this.write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                ChunkedByteArray.this.write(b, off, len);
+            }
+        };
+    }
+
+    public InputStream getInputStream() {
+        return new InputStream() {
+            private long position;
+
+            @Override
+            public int read() {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (position >= size)
+                    return -1;
+                byte[] chunk = chunks.get((int) (position / chunkSize));
+                int offset = (int) (position % chunkSize);
+                int n = (int) Math.min(len, Math.min(chunk.length - offset, size - position));
+                System.arraycopy(chunk, offset, b, off, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public long skip(long n) {
+                long skipped = Math.max(0, Math.min(n, size - position));
+                position += skipped;
+                return skipped;
+            }
+
+            @Override
+            public int available() {
+                return (int) Math.min(Integer.MAX_VALUE, size - position);
+            }
+        };
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            int len = (int) Math.min(chunk.length, remaining);
+            out.write(chunk, 0, len);
+            remaining -= len;
+        }
+    }
+
+    public void update(MessageDigest digest) {
+        long remaining = size;
+        for (byte[] chunk : chunks) {
+            int len = (int) Math.min(chunk.length, remaining);
+            digest.update(chunk, 0, len);
+            remaining -= len;
+        }
+    }
+
+    /**
+     * Copies the bytes to a single array, for interfaces that require one.
+     */
+    public byte[] toByteArray() {
+        if (size > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("Cannot copy " + size + " bytes to an array");
+        byte[] result = new byte[(int) size];
+        int position = 0;
+        for (byte[] chunk : chunks) {
+            int len = Math.min(chunk.length, result.length - position);
+            System.arraycopy(chunk, 0, result, position, len);
+            position += len;
+        }
+        return result;
+    }
+
+    private static int chunkSizeFor(long length) {
+        return (int) Math.max(1, Math.min(DEFAULT_CHUNK_SIZE, length));
+    }
+
+    private void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            int offset = (int) (size % chunkSize);
+            if (offset == 0)
+                chunks.add(new byte[chunkSize]);
+            byte[] chunk = chunks.get(chunks.size() - 1);
+            int n = Math.min(len, chunk.length - offset);
+            System.arraycopy(b, off, chunk, offset, n);
+            off += n;
+            len -= n;
+            size += n;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package confidential.statemanagement;
 
+import confidential.statemanagement.utils.StreamingDigest;
 import vss.secretsharing.VerifiableShare;
 
 import java.io.*;
+import java.security.NoSuchAlgorithmException;
 
 public class ConfidentialSnapshot {
     private final byte[] plainData;
@@ -21,46 +23,77 @@ public class ConfidentialSnapshot {
         return shares;
     }
 
+    /**
+     * Digest of the part of the snapshot that is equal in all replicas: the plain data and, for each share, its shared
+     * data and the consistent hash of its commitments. Renewed shares have new commitments, so replicas whose
+     * snapshots have the same digest hold shares of the same sharing of the same state.
+     */
+    public byte[] computeCommonDigest() throws NoSuchAlgorithmException {
+        StreamingDigest digest = new StreamingDigest();
+        digest.updateInt(plainData == null ? -1 : plainData.length);
+        if (plainData != null)
+            digest.update(plainData);
+        digest.updateInt(shares == null ? -1 : shares.length);
+        if (shares != null) {
+            for (VerifiableShare share : shares) {
+                byte[] sharedData = share.getSharedData();
+                digest.updateInt(sharedData == null ? -1 : sharedData.length);
+                if (sharedData != null)
+                    digest.update(sharedData);
+                digest.updateInt(share.getCommitments().consistentHash());
+            }
+        }
+        return digest.digest();
+    }
+
     public static ConfidentialSnapshot deserialize(byte[] serializedData) {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(serializedData);
              ObjectInput in = new ObjectInputStream(bis)) {
-            int len = in.readInt();
-            byte[] plainData = null;
-            if (len > -1) {
-                plainData = new byte[len];
-                in.readFully(plainData);
-            }
+            return readFrom(in);
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
 
-            len = in.readInt();
-            VerifiableShare[] shares = null;
-            if (len > -1) {
-                shares = new VerifiableShare[len];
-                VerifiableShare share;
-                for (int i = 0; i < len; i++) {
-                    share = new VerifiableShare();
-                    share.readExternal(in);
-                    shares[i] = share;
-                }
-            }
-            return new ConfidentialSnapshot(plainData, shares);
+    public static ConfidentialSnapshot deserialize(ChunkedByteArray serializedData) {
+        try (ObjectInput in = new ObjectInputStream(new BufferedInputStream(serializedData.getInputStream()))) {
+            return readFrom(in);
         } catch (IOException | ClassNotFoundException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Reads a snapshot written by {@link #writeTo(ObjectOutput)}, one share at a time.
+     */
+    public static ConfidentialSnapshot readFrom(ObjectInput in) throws IOException, ClassNotFoundException {
+        int len = in.readInt();
+        byte[] plainData = null;
+        if (len > -1) {
+            plainData = new byte[len];
+            in.readFully(plainData);
+        }
+
+        len = in.readInt();
+        VerifiableShare[] shares = null;
+        if (len > -1) {
+            shares = new VerifiableShare[len];
+            VerifiableShare share;
+            for (int i = 0; i < len; i++) {
+                share = new VerifiableShare();
+                share.readExternal(in);
+                shares[i] = share;
+            }
+        }
+        return new ConfidentialSnapshot(plainData, shares);
+    }
+
     public byte[] serialize() {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutput out = new ObjectOutputStream(bos)) {
-            out.writeInt(plainData == null ? -1 : plainData.length);
-            if (plainData != null)
-                out.write(plainData);
-
-            out.writeInt(shares == null ? -1 : shares.length);
-            if (shares != null) {
-                for (VerifiableShare share : shares)
-                    share.writeExternal(out);
-            }
+            writeTo(out);
             out.flush();
             bos.flush();
             return bos.toByteArray();
@@ -69,4 +102,34 @@ public class ConfidentialSnapshot {
         }
         return null;
     }
+
+    /**
+     * Serializes the snapshot in the same format as {@link #serialize()}, without copying it to a single array.
+     */
+    public ChunkedByteArray serializeChunked() {
+        ChunkedByteArray serializedData = new ChunkedByteArray();
+        try (ObjectOutput out = new ObjectOutputStream(serializedData.getOutputStream())) {
+            writeTo(out);
+            out.flush();
+            return serializedData;
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    /**
+     * Writes the plain data followed by the shares, including their commitments, one share at a time.
+     */
+    public void writeTo(ObjectOutput out) throws IOException {
+        out.writeInt(plainData == null ? -1 : plainData.length);
+        if (plainData != null)
+            out.write(plainData);
+
+        out.writeInt(shares == null ? -1 : shares.length);
+        if (shares != null) {
+            for (VerifiableShare share : shares)
+                share.writeExternal(out);
+        }
+    }
 }
@@ -13,13 +13,14 @@ public class ConfidentialStateLog {
 
     private CommandsInfo[] messageBatches; // batches received since the last checkpoint.
     private int lastCheckpointCID; // Consensus ID for the last checkpoint
-    private byte[] state; // State associated with the last checkpoint
+    private ChunkedByteArray state; // State associated with the last checkpoint
     private byte[] stateHash; // Hash of the state associated with the last checkpoint
     private int position; // next position in the array of batches to be written
     private int lastCID; // Consensus ID for the last messages batch delivered to the application
     private int id; //replica ID
+    private IncrementalState incrementalState; // Entries of the last checkpoint, when checkpoints are incremental
 
-    public ConfidentialStateLog(int id, int k, byte[]initialState, byte[] initialStateHash) {
+    public ConfidentialStateLog(int id, int k, ChunkedByteArray initialState, byte[] initialStateHash) {
         this.messageBatches = new CommandsInfo[k - 1];
         this.lastCheckpointCID = -1;
         this.state = initialState;
@@ -29,13 +30,34 @@ public class ConfidentialStateLog {
         this.id = id;
     }
 
-    public void newCheckpoint(byte[] state, byte[] stateHash, int lastConsensusId) {
+    /**
+     * Replaces the checkpoint and removes the batches it covers. Batches delivered after lastConsensusId, while the
+     * checkpoint was being built, are kept.
+     */
+    public void newCheckpoint(ChunkedByteArray state, byte[] stateHash, int lastConsensusId) {
+        replaceCheckpoint(state, stateHash, null, lastConsensusId);
+    }
+
+    /**
+     * Replaces the checkpoint with an incremental state to which the delta of this checkpoint was already applied.
+     * The serialized state is only built when it is requested.
+     */
+    public void newIncrementalCheckpoint(IncrementalState incrementalState, StateDelta delta, int lastConsensusId) {
+        replaceCheckpoint(null, incrementalState.getRootHash(), incrementalState, lastConsensusId);
+    }
+
+    private void replaceCheckpoint(ChunkedByteArray state, byte[] stateHash, IncrementalState incrementalState,
+                                   int lastConsensusId) {
+        int nCovered = Math.min(position, Math.max(0, lastConsensusId - lastCheckpointCID));
+        CommandsInfo[] remaining = Arrays.copyOfRange(messageBatches, nCovered, position);
         Arrays.fill(messageBatches, null); // removing previous messages
-        position = 0;
+        System.arraycopy(remaining, 0, messageBatches, 0, remaining.length);
+        position = remaining.length;
         this.state = state;
         this.stateHash = stateHash;
+        this.incrementalState = incrementalState;
         this.lastCheckpointCID = lastConsensusId;
-        this.lastCID = lastConsensusId;
+        this.lastCID = Math.max(lastCID, lastConsensusId);
     }
 
     public int getLastCheckpointCID() {
@@ -46,7 +68,14 @@ public class ConfidentialStateLog {
         return lastCID;
     }
 
-    public byte[] getState() {
+    /**
+     * @return Serialized state of the last checkpoint, which is only copied to a single array when it is sent to
+     * other replicas
+     * @throws IllegalStateException If the incremental state of the checkpoint cannot be serialized
+     */
+    public ChunkedByteArray getState() {
+        if (state == null && incrementalState != null)
+            state = incrementalState.serialize();
         return state;
     }
 
@@ -55,11 +84,11 @@ public class ConfidentialStateLog {
     }
 
     public void addMessageBatch(byte[][] commands, MessageContext[] msgCtx, int lastConsensusId) {
-        if (position < messageBatches.length) {
-            messageBatches[position] = new CommandsInfo(commands, msgCtx);
-            position++;
-            lastCID = lastConsensusId;
-        }
+        if (position == messageBatches.length) // a checkpoint is still being built
+            messageBatches = Arrays.copyOf(messageBatches, Math.max(1, messageBatches.length * 2));
+        messageBatches[position] = new CommandsInfo(commands, msgCtx);
+        position++;
+        lastCID = lastConsensusId;
     }
 
     public CommandsInfo getMessageBatch(int cid) {
@@ -88,7 +117,7 @@ public class ConfidentialStateLog {
             }
             lastCID = cid;
             return new DefaultApplicationState(batches, lastCheckpointCID,
-                    lastCID, (setState ? state : null), stateHash, id);
+                    lastCID, (setState && getState() != null ? getState().toByteArray() : null), stateHash, id);
         }
         return null;
     }
@@ -103,7 +132,8 @@ public class ConfidentialStateLog {
             }
         }
         this.lastCheckpointCID = transState.getLastCheckpointCID();
-        this.state = transState.getState();
+        this.state = transState.getState() == null ? null : ChunkedByteArray.wrap(transState.getState());
         this.stateHash = transState.getStateHash();
+        this.incrementalState = null;
     }
 }
@@ -15,6 +15,7 @@ import confidential.reconfiguration.ReconfigurationParameters;
 import confidential.server.ServerConfidentialityScheme;
 import confidential.statemanagement.privatestate.receiver.COBRAStateCombiner;
 import confidential.statemanagement.privatestate.receiver.StateReceivedListener;
+import confidential.statemanagement.privatestate.receiver.StateTransferProgress;
 import confidential.statemanagement.privatestate.sender.COBRAStateSeparator;
 import confidential.statemanagement.privatestate.sender.StateSeparationListener;
 import confidential.statemanagement.recovery.RecoveryBlindedStateHandler;
@@ -33,6 +34,7 @@ import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
+import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
@@ -60,6 +62,10 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
     private final Set<Integer> usedReplicas;
     private boolean isRefreshing;
     private RecoveryBlindedStateHandler recoveryBlindedStateHandler;
+    private StateTransferProgress transferProgress;
+    private long lastVerifiedProgress;
+    private int durableCheckpointCID;
+    private byte[] durableCheckpointDigest;
     private RecoveryBlindedStateSender recoveryStateSender;
     private ResharingBlindedStateSender resharingStateSender;
     private ReconfigurationParameters reconfigurationParameters;
@@ -77,6 +83,7 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         SERVER_RECOVERY_STATE_LISTENING_PORT = Configuration.getInstance().getRecoveryPort();
         SERVER_RESHARING_STATE_LISTENING_PORT = SERVER_RECOVERY_STATE_LISTENING_PORT * 2;
         resharingNewGroupPoints = new PolynomialStorage();
+        durableCheckpointCID = -1;
     }
 
     public void setDistributedPolynomial(DistributedPolynomial distributedPolynomial) {
@@ -93,6 +100,18 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         this.confidentialityScheme = confidentialityScheme;
     }
 
+    /**
+     * Sets the checkpoint recovered from disk, which is proven to the other replicas in the next recovery so that
+     * they only send the log after it.
+     * @param digest Common digest of the checkpoint (see {@link ConfidentialSnapshot#computeCommonDigest()})
+     */
+    public void setDurableCheckpoint(int cid, byte[] digest) {
+        lockTimer.lock();
+        durableCheckpointCID = cid;
+        durableCheckpointDigest = digest;
+        lockTimer.unlock();
+    }
+
     @Override
     public void init(TOMLayer tomLayer, DeliveryThread dt) {
         super.init(tomLayer, dt);
@@ -102,6 +121,8 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
 
     private int getRandomReplica() {
         int[] processes = SVController.getCurrentViewOtherAcceptors();
+        if (Arrays.stream(processes).allMatch(usedReplicas::contains))
+            usedReplicas.clear();
         Random rnd = new Random();
         while (true) {
             int i = rnd.nextInt(processes.length);
@@ -123,6 +144,11 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
 
         int stateSenderReplica = getRandomReplica();
 
+        if (transferProgress == null || transferProgress.getCid() != waitingCID)
+            transferProgress = new StateTransferProgress(waitingCID);
+        int resumeShare = transferProgress.getNumberOfReconstructedShares();
+        long verifiedProgress = transferProgress.getVerifiedProgress();
+
         DefaultSMMessage recoverySMMessage = new DefaultSMMessage(
                 processId,
                 waitingCID,
@@ -132,16 +158,32 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
                 -1,
                 tomLayer.execManager.getCurrentLeader(),
                 stateSenderReplica,
-                SERVER_RECOVERY_STATE_LISTENING_PORT
+                SERVER_RECOVERY_STATE_LISTENING_PORT,
+                resumeShare,
+                durableCheckpointCID,
+                durableCheckpointDigest
         );
 
         logger.info("Replica {} will send full state", stateSenderReplica);
+        if (durableCheckpointDigest != null)
+            logger.info("Asking for the log after my checkpoint of CID {}", durableCheckpointCID);
+        if (verifiedProgress > 0)
+            logger.info("Resuming state transfer up to CID {} from share {}", waitingCID, resumeShare);
         int f = SVController.getCurrentViewF();
         int quorum = SVController.getCurrentViewN() - f;
         logger.info("Starting recovery state handler");
-        StateReceivedListener stateReceivedListener = (commonState, shares)
-                -> new COBRAStateCombiner(processId,
-                commonState, shares, this).start();
+        StateReceivedListener stateReceivedListener = new StateReceivedListener() {
+            @Override
+            public void onStateReceived(byte[] commonState, Iterator<VerifiableShare> shares) {
+                new COBRAStateCombiner(processId, commonState, shares, ConfidentialStateManager.this).start();
+            }
+
+            @Override
+            public void onStateTransferStalled() {
+                logger.info("State transfer stalled. Retrying without waiting for the timeout");
+                triggerTimeout(createStateTimeoutMessage());
+            }
+        };
         recoveryBlindedStateHandler = new RecoveryBlindedStateHandler(
                 SVController,
                 SERVER_RECOVERY_STATE_LISTENING_PORT,
@@ -149,7 +191,9 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
                 quorum,
                 stateSenderReplica,
                 confidentialityScheme,
-                stateReceivedListener
+                stateReceivedListener,
+                transferProgress,
+                resumeShare
         );
         recoveryBlindedStateHandler.start();
 
@@ -163,26 +207,34 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
             @Override
             public void run() {
                 logger.info("Timeout to retrieve state");
-                SMMessage message = new DefaultSMMessage(
-                        processId,
-                        waitingCID,
-                        TOMUtil.TRIGGER_SM_LOCALLY,
-                        null,
-                        null,
-                        -1,
-                        -1,
-                        -1,
-                        -1
-                );
-                triggerTimeout(message);
+                triggerTimeout(createStateTimeoutMessage());
             }
         };
 
         stateTimer = new Timer("State Timer");
-        timeout *= 2;
+        if (verifiedProgress == lastVerifiedProgress)
+            timeout *= 2; // only backs off when the previous attempt verified nothing
+        lastVerifiedProgress = verifiedProgress;
         stateTimer.schedule(stateTask, timeout);
     }
 
+    private SMMessage createStateTimeoutMessage() {
+        return new DefaultSMMessage(
+                processId,
+                waitingCID,
+                TOMUtil.TRIGGER_SM_LOCALLY,
+                null,
+                null,
+                -1,
+                -1,
+                -1,
+                -1,
+                0,
+                -1,
+                null
+        );
+    }
+
     @Override
     public void stateTimeout() {
         lockTimer.lock();
@@ -190,6 +242,10 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         if (stateTimer != null) {
             stateTimer.cancel();
         }
+        if (recoveryBlindedStateHandler != null) {
+            recoveryBlindedStateHandler.interrupt();
+            recoveryBlindedStateHandler = null;
+        }
         reset();
         requestState();
         lockTimer.unlock();
@@ -209,13 +265,34 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
             }
 
             DefaultSMMessage defaultSMMessage = (DefaultSMMessage) msg;
-
-            StateSeparationListener listener = (commonState, shares, commitments)
-                    -> triggerRecoveryStateTransfer(msg, defaultSMMessage.getStateSenderReplica(),
-                    defaultSMMessage.getServerPort(), commonState, shares, commitments);
+            if (holdsCheckpointOf(appState, defaultSMMessage)) {
+                logger.info("Replica {} holds the checkpoint of CID {}. Sending only the log after it",
+                        msg.getSender(), appState.getLastCheckpointCID());
+                appState = new DefaultApplicationState(appState.getMessageBatches(),
+                        appState.getLastCheckpointCID(), appState.getLastCID(), null, null, processId);
+            }
+            DefaultApplicationState finalAppState = appState;
+
+            StateSeparationListener listener = (commonState, shares, commitments) -> {
+                int resumeShare = defaultSMMessage.getResumeShare();
+                if (resumeShare < 0 || resumeShare > shares.size()) {
+                    logger.warn("Replica {} asked to resume state transfer from share {} of {}", msg.getSender(),
+                            resumeShare, shares.size());
+                    return;
+                }
+                if (resumeShare > 0)
+                    logger.info("Resuming state transfer to {} from share {} of {}", msg.getSender(), resumeShare,
+                            shares.size());
+                for (int i = 0; i < resumeShare; i++) {
+                    shares.removeFirst();
+                    commitments.removeFirst();
+                }
+                triggerRecoveryStateTransfer(msg, defaultSMMessage.getStateSenderReplica(),
+                        defaultSMMessage.getServerPort(), commonState, shares, commitments);
+            };
 
             new COBRAStateSeparator(
-                    appState,
+                    finalAppState,
                     listener
             ).start();
         } else if (msg instanceof PolynomialRecovery) {
@@ -337,6 +414,25 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         }
     }
 
+    /**
+     * Checks if the requester proved to hold the checkpoint of the state, i.e., the common digest of its checkpoint
+     * matches the one of the checkpoint in the state.
+     */
+    private boolean holdsCheckpointOf(DefaultApplicationState appState, DefaultSMMessage request) {
+        if (request.getCheckpointDigest() == null || request.getCheckpointCID() != appState.getLastCheckpointCID()
+                || appState.getSerializedState() == null)
+            return false;
+        ConfidentialSnapshot snapshot = ConfidentialSnapshot.deserialize(appState.getSerializedState());
+        if (snapshot == null)
+            return false;
+        try {
+            return request.holdsCheckpoint(appState.getLastCheckpointCID(), snapshot.computeCommonDigest());
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Failed to compute digest of checkpoint", e);
+            return false;
+        }
+    }
+
     private void removeFaultyProcesses(Set<Integer> faultyProcesses) {
         int[] currentHonestProcesses = new int[SVController.getCurrentViewN() - faultyProcesses.size()];
         InetSocketAddress[] socketAddresses = new InetSocketAddress[SVController.getCurrentViewN() - faultyProcesses.size()];
@@ -569,12 +665,14 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
     private void startPolynomialRecovery(ResharingPolynomialContext context, PolynomialRecovery request) {
         VerifiableShare[] pointsForNewGroup = context.getPointsForNewGroup();
         int[] ids = request.getPolynomialInitialIds();
+        int[] nPolynomialsPerId = request.getNPolynomialsPerId();
         int f = SVController.getCurrentViewF();
         int quorum =  f * 2 + 1;
-        StateReceivedListener stateReceivedListener = (commonState, shares) -> {
-            Iterator<VerifiableShare> it = shares.iterator();
-            for (int id : ids) {
-                pointsForNewGroup[id] = it.next();
+        StateReceivedListener stateReceivedListener = (commonState, shares) -> new Thread(() -> {
+            for (int i = 0; i < ids.length; i++) {
+                for (int j = ids[i]; j < ids[i] + nPolynomialsPerId[i]; j++) {
+                    pointsForNewGroup[j] = shares.next();
+                }
             }
 
             isRefreshing = true;
@@ -582,7 +680,7 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
             resharingStateSender = null;
             resharingStateHandler.setRefreshShares(context.getPointsForNewGroup());
             resharingNewGroupPoints.putPoints(context.getInitialId(), context.getPointsForNewGroup());
-        };
+        }, "Polynomial Recovery Thread").start();
         recoveryBlindedStateHandler = new RecoveryBlindedStateHandler(
                 SVController,
                 SERVER_RECOVERY_STATE_LISTENING_PORT,
@@ -602,7 +700,7 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
         int[] nPolynomials = new int[size];
         int index = 0;
         for (Map.Entry<Integer, InvalidPolynomialContext> entry : context.getInvalidPolynomialsContexts().entrySet()) {
-            ids[index] = entry.getKey();
+            ids[index] = entry.getKey() * context.getPolynomialsPerExecution();
             nPolynomials[index] = entry.getValue().getNInvalidPolynomials();
             index++;
         }
@@ -728,6 +826,9 @@ public class ConfidentialStateManager extends StateManager implements Reconstruc
             isInitializing = false;
 
             waitingCID = -1;
+            transferProgress = null;
+            durableCheckpointDigest = null; // later recoveries start from other replicas' checkpoints
+            durableCheckpointCID = -1;
 
             dt.canDeliver();
             dt.deliverUnlock();
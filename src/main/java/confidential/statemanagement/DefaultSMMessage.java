@@ -7,18 +7,26 @@ import bftsmart.statemanagement.SMMessage;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Arrays;
 
 public class DefaultSMMessage extends SMMessage {
     private int stateSenderReplica;
     private int serverPort;
+    private int resumeShare;
+    private int checkpointCID;
+    private byte[] checkpointDigest;
 
     public DefaultSMMessage() {}
 
     protected DefaultSMMessage(int sender, int cid, int type, ApplicationState state, View view, int regency,
-                               int leader, int stateSenderReplica, int serverPort) {
+                               int leader, int stateSenderReplica, int serverPort, int resumeShare,
+                               int checkpointCID, byte[] checkpointDigest) {
         super(sender, cid, type, state, view, regency, leader);
         this.stateSenderReplica = stateSenderReplica;
         this.serverPort = serverPort;
+        this.resumeShare = resumeShare;
+        this.checkpointCID = checkpointCID;
+        this.checkpointDigest = checkpointDigest;
     }
 
     public int getStateSenderReplica() {
@@ -29,11 +37,45 @@ public class DefaultSMMessage extends SMMessage {
         return serverPort;
     }
 
+    /**
+     * @return Number of shares the requester already reconstructed, which are not blinded and sent again
+     */
+    public int getResumeShare() {
+        return resumeShare;
+    }
+
+    /**
+     * @return Consensus id of the checkpoint the requester holds on disk or -1 if it has none
+     */
+    public int getCheckpointCID() {
+        return checkpointCID;
+    }
+
+    /**
+     * @return Common digest of the checkpoint the requester holds (see
+     * {@link ConfidentialSnapshot#computeCommonDigest()}) or null if it has none
+     */
+    public byte[] getCheckpointDigest() {
+        return checkpointDigest;
+    }
+
+    /**
+     * @return True if the requester holds the checkpoint of the given consensus id with the given common digest
+     */
+    public boolean holdsCheckpoint(int cid, byte[] digest) {
+        return checkpointDigest != null && checkpointCID == cid && Arrays.equals(checkpointDigest, digest);
+    }
+
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         super.writeExternal(out);
         out.writeInt(stateSenderReplica);
         out.writeInt(serverPort);
+        out.writeInt(resumeShare);
+        out.writeInt(checkpointCID);
+        out.writeInt(checkpointDigest == null ? -1 : checkpointDigest.length);
+        if (checkpointDigest != null)
+            out.write(checkpointDigest);
     }
 
     @Override
@@ -41,5 +83,12 @@ public class DefaultSMMessage extends SMMessage {
         super.readExternal(in);
         stateSenderReplica = in.readInt();
         serverPort = in.readInt();
+        resumeShare = in.readInt();
+        checkpointCID = in.readInt();
+        int len = in.readInt();
+        if (len > -1) {
+            checkpointDigest = new byte[len];
+            in.readFully(checkpointDigest);
+        }
     }
 }
@@ -0,0 +1,491 @@
+package confidential.statemanagement;
+
+import bftsmart.tom.MessageContext;
+import bftsmart.tom.server.defaultservices.CommandsInfo;
+import bftsmart.tom.server.defaultservices.DefaultApplicationState;
+import confidential.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Log that also persists the commands and checkpoints to disk, so that a restarted replica recovers its state
+ * locally and only asks the other replicas for the consensus decisions it missed.
+ * <p>
+ * Each batch of commands is appended as a record [length][consensus id][CRC32][serialized commands] to a
+ * memory-mapped segment file of cobra.log.segment_size bytes. Segments are forced to disk after every batch when
+ * system.totalordermulticast.sync_log is true. Otherwise they are forced every cobra.log.sync_interval
+ * milliseconds, which commits several batches together. Checkpoints are written to a separate file that is
+ * replaced atomically, after which the batches delivered after the checkpoint are written to new segments and the
+ * old segments are deleted once the new ones are on disk. Replay scans the segments sequentially, skips the batches
+ * it already read and stops at the first gap in the consensus ids. A record with a wrong checksum is the tail of a
+ * write interrupted by a crash, so replay moves on to the next segment, which may hold a rewrite of the batches.
+ * <p>
+ * Incremental checkpoints are written as delta files holding only the changed entries and the resulting state
+ * hash. Every cobra.checkpoint.compaction_period deltas, the full state is written as the checkpoint and the deltas
+ * are deleted. Replay applies the deltas newer than the checkpoint in order and checks each resulting state hash.
+ */
+public class DiskConfidentialStateLog extends ConfidentialStateLog {
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT_FILE = "checkpoint.ckp";
+    private static final String TEMPORARY_CHECKPOINT_FILE = "checkpoint.tmp";
+    private static final String DELTA_PREFIX = "delta-";
+    private static final String DELTA_SUFFIX = ".ckp";
+    private final Logger logger = LoggerFactory.getLogger("confidential");
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncLog;
+    private final boolean syncCheckpoint;
+    private final int compactionPeriod;
+    private final CRC32 crc;
+    private MappedByteBuffer segment;
+    private int segmentIndex;
+    private boolean isDirty;
+    private boolean hasCheckpoint;
+    private int nDeltas;
+
+    public DiskConfidentialStateLog(int id, int k, ChunkedByteArray initialState, byte[] initialStateHash, boolean syncLog,
+                                    boolean syncCheckpoint) throws IOException {
+        super(id, k, initialState, initialStateHash);
+        Configuration configuration = Configuration.getInstance();
+        this.directory = Paths.get(configuration.getLogDirectory(), "replica-" + id);
+        this.segmentSize = configuration.getLogSegmentSize();
+        this.syncLog = syncLog;
+        this.syncCheckpoint = syncCheckpoint;
+        this.compactionPeriod = configuration.getCheckpointCompactionPeriod();
+        this.crc = new CRC32();
+        Files.createDirectories(directory);
+        this.segmentIndex = -1;
+        for (Path segmentPath : listSegments())
+            segmentIndex = Math.max(segmentIndex, getSegmentIndex(segmentPath));
+
+        long syncInterval = configuration.getLogSyncInterval();
+        if (!syncLog && syncInterval > 0) {
+            ScheduledExecutorService syncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Confidential log sync thread");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncScheduler.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Reads the last checkpoint and the commands logged after it.
+     * @return State stored on disk or null if there is no durable state
+     */
+    public DefaultApplicationState loadDurableState() {
+        hasCheckpoint = readCheckpoint();
+        if (hasCheckpoint)
+            readDeltas();
+        List<Path> segments = listSegments();
+        int nRecords = 0;
+        scan:
+        for (Path segmentPath : segments) {
+            MappedByteBuffer buffer = null;
+            try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                    int length = buffer.getInt();
+                    if (length <= 0)
+                        break;
+                    int cid = buffer.getInt();
+                    long checksum = buffer.getLong();
+                    if (length > buffer.remaining()) {
+                        logger.warn("Log record of CID {} in {} is truncated", cid, segmentPath);
+                        continue scan;
+                    }
+                    byte[] payload = new byte[length];
+                    buffer.get(payload);
+                    if (computeChecksum(cid, payload) != checksum) {
+                        logger.warn("Log record of CID {} in {} is corrupted", cid, segmentPath);
+                        continue scan;
+                    }
+                    if (cid <= getLastCID()) // covered by the checkpoint or already read before a rewrite
+                        continue;
+                    if (cid != getLastCID() + 1) {
+                        logger.warn("Log record of CID {} in {} does not follow CID {}", cid, segmentPath,
+                                getLastCID());
+                        break scan;
+                    }
+                    CommandsInfo batch = deserializeBatch(payload);
+                    if (batch == null)
+                        break scan;
+                    super.addMessageBatch(batch.commands, batch.msgCtx, cid);
+                    nRecords++;
+                }
+            } catch (IOException e) {
+                logger.error("Failed to read log segment {}", segmentPath, e);
+                break;
+            } finally {
+                if (buffer != null)
+                    unmap(buffer);
+            }
+        }
+        logger.info("Read {} batches of commands from disk after checkpoint of CID {}", nRecords,
+                getLastCheckpointCID());
+        try {
+            // new records must not be appended after a corrupted one
+            rewriteSegments();
+        } catch (IOException e) {
+            logger.error("Failed to rewrite log segments", e);
+        }
+        if (!hasCheckpoint && nRecords == 0)
+            return null;
+        return getApplicationState(getLastCID(), true);
+    }
+
+    @Override
+    public void newCheckpoint(ChunkedByteArray state, byte[] stateHash, int lastConsensusId) {
+        super.newCheckpoint(state, stateHash, lastConsensusId);
+        try {
+            writeCheckpoint(state, stateHash, lastConsensusId);
+            rewriteSegments();
+        } catch (IOException e) {
+            logger.error("Failed to write checkpoint of CID {} to disk", lastConsensusId, e);
+        }
+    }
+
+    @Override
+    public void newIncrementalCheckpoint(IncrementalState incrementalState, StateDelta delta, int lastConsensusId) {
+        super.newIncrementalCheckpoint(incrementalState, delta, lastConsensusId);
+        try {
+            if (!hasCheckpoint || nDeltas >= compactionPeriod)
+                writeCheckpoint(getState(), getStateHash(), lastConsensusId);
+            else
+                writeDelta(delta, getStateHash(), lastConsensusId);
+            rewriteSegments();
+        } catch (IOException | IllegalStateException e) {
+            // the next delta would not follow the one missing on disk, so the next checkpoint is written in full
+            hasCheckpoint = false;
+            logger.error("Failed to write checkpoint of CID {} to disk", lastConsensusId, e);
+        }
+    }
+
+    @Override
+    public void addMessageBatch(byte[][] commands, MessageContext[] msgCtx, int lastConsensusId) {
+        super.addMessageBatch(commands, msgCtx, lastConsensusId);
+        try {
+            append(lastConsensusId, serializeBatch(new CommandsInfo(commands, msgCtx)));
+            if (syncLog)
+                sync();
+        } catch (IOException e) {
+            logger.error("Failed to write commands of CID {} to disk", lastConsensusId, e);
+        }
+    }
+
+    /**
+     * Replaces the durable state with the state received from other replicas.
+     */
+    @Override
+    public void update(DefaultApplicationState transState) {
+        super.update(transState);
+        try {
+            if (getState() != null)
+                writeCheckpoint(getState(), getStateHash(), getLastCheckpointCID());
+            rewriteSegments();
+        } catch (IOException e) {
+            logger.error("Failed to write received state to disk", e);
+        }
+    }
+
+    /**
+     * Replaces the segments with new ones holding the batches in memory. The old segments are only deleted after
+     * the new ones are forced to disk, so that every batch is in some segment if the replica crashes meanwhile.
+     */
+    private synchronized void rewriteSegments() throws IOException {
+        List<Path> oldSegments = listSegments();
+        closeSegment();
+        CommandsInfo[] batches = getMessageBatches();
+        for (int i = 0; i < getNumBatches(); i++) {
+            int cid = getLastCheckpointCID() + i + 1;
+            append(cid, serializeBatch(batches[i]));
+        }
+        sync();
+        for (Path segmentPath : oldSegments)
+            Files.deleteIfExists(segmentPath);
+    }
+
+    private synchronized void append(int cid, byte[] payload) throws IOException {
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        if (segment == null || segment.remaining() < recordSize)
+            openSegment(Math.max(segmentSize, recordSize + 4));
+        segment.putInt(payload.length);
+        segment.putInt(cid);
+        segment.putLong(computeChecksum(cid, payload));
+        segment.put(payload);
+        isDirty = true;
+    }
+
+    private synchronized void sync() {
+        if (segment != null && isDirty) {
+            segment.force();
+            isDirty = false;
+        }
+    }
+
+    private synchronized void openSegment(int size) throws IOException {
+        closeSegment();
+        segmentIndex++;
+        Path segmentPath = directory.resolve(SEGMENT_PREFIX + segmentIndex + SEGMENT_SUFFIX);
+        try (FileChannel channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    /**
+     * Forces the current segment to disk and unmaps it, so that the next record is appended to a new segment.
+     */
+    private synchronized void closeSegment() {
+        sync();
+        if (segment != null)
+            unmap(segment);
+        segment = null;
+    }
+
+    /**
+     * Releases the mapping of a segment now instead of when the buffer is garbage collected, which may never
+     * happen for a deleted segment and keeps its disk space in use. The buffer must not be accessed afterwards.
+     */
+    private void unmap(MappedByteBuffer buffer) {
+        try {
+            try { // Java 9 and later
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+                theUnsafe.setAccessible(true);
+                Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            } catch (NoSuchMethodException e) { // Java 8
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null)
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("Failed to unmap log segment, it is unmapped when garbage collected", e);
+        }
+    }
+
+    /**
+     * Streams the state to the file chunk by chunk, computing its checksum on the way.
+     */
+    private void writeCheckpoint(ChunkedByteArray state, byte[] stateHash, int cid) throws IOException {
+        Path temporaryPath = directory.resolve(TEMPORARY_CHECKPOINT_FILE);
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(cid);
+            out.writeInt(stateHash.length);
+            out.write(stateHash);
+            out.writeLong(state.size());
+            CRC32 checksum = newChecksum(cid);
+            state.writeTo(new CheckedOutputStream(out, checksum));
+            out.writeLong(checksum.getValue());
+            out.flush();
+            if (syncCheckpoint)
+                channel.force(true);
+        }
+        Files.move(temporaryPath, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        hasCheckpoint = true;
+        deleteDeltas();
+    }
+
+    private void writeDelta(StateDelta delta, byte[] stateHash, int cid) throws IOException {
+        byte[] serializedDelta;
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(bos)) {
+            delta.writeTo(out);
+            out.flush();
+            serializedDelta = bos.toByteArray();
+        }
+        Path temporaryPath = directory.resolve(TEMPORARY_CHECKPOINT_FILE);
+        try (FileChannel channel = FileChannel.open(temporaryPath, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+            out.writeInt(cid);
+            out.writeInt(stateHash.length);
+            out.write(stateHash);
+            out.writeInt(serializedDelta.length);
+            out.write(serializedDelta);
+            out.writeLong(computeChecksum(cid, serializedDelta));
+            out.flush();
+            if (syncCheckpoint)
+                channel.force(true);
+        }
+        Files.move(temporaryPath, directory.resolve(DELTA_PREFIX + cid + DELTA_SUFFIX),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        nDeltas++;
+    }
+
+    /**
+     * Applies to the checkpoint read from disk the deltas written after it. Stops at the first delta that is
+     * corrupted or does not lead to its recorded state hash, and deletes it and the following ones.
+     */
+    private void readDeltas() {
+        List<Path> deltas = listFiles(DELTA_PREFIX, DELTA_SUFFIX);
+        IncrementalState incrementalState = null;
+        nDeltas = 0;
+        for (int i = 0; i < deltas.size(); i++) {
+            Path deltaPath = deltas.get(i);
+            int cid = getFileIndex(deltaPath, DELTA_PREFIX, DELTA_SUFFIX);
+            try {
+                if (cid <= getLastCheckpointCID()) { // left by an interrupted compaction
+                    Files.deleteIfExists(deltaPath);
+                    continue;
+                }
+                byte[] stateHash;
+                StateDelta delta;
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                        Files.newInputStream(deltaPath)))) {
+                    if (in.readInt() != cid)
+                        throw new IOException("Delta file " + deltaPath + " has a wrong CID");
+                    stateHash = new byte[in.readInt()];
+                    in.readFully(stateHash);
+                    byte[] serializedDelta = new byte[in.readInt()];
+                    in.readFully(serializedDelta);
+                    if (computeChecksum(cid, serializedDelta) != in.readLong())
+                        throw new IOException("Delta of CID " + cid + " on disk is corrupted");
+                    delta = StateDelta.readFrom(new DataInputStream(new ByteArrayInputStream(serializedDelta)));
+                }
+                if (incrementalState == null) {
+                    ConfidentialSnapshot snapshot = ConfidentialSnapshot.deserialize(getState());
+                    if (snapshot == null)
+                        throw new IOException("Failed to deserialize checkpoint");
+                    incrementalState = IncrementalState.fromSnapshot(snapshot);
+                }
+                incrementalState.apply(delta);
+                if (!Arrays.equals(stateHash, incrementalState.getRootHash()))
+                    throw new IOException("Delta of CID " + cid + " does not lead to the recorded state hash");
+                super.newIncrementalCheckpoint(incrementalState, delta, cid);
+                nDeltas++;
+            } catch (IOException e) {
+                logger.error("Failed to read delta of CID {} from disk", cid, e);
+                for (Path path : deltas.subList(i, deltas.size())) {
+                    try {
+                        Files.deleteIfExists(path);
+                    } catch (IOException e1) {
+                        logger.error("Failed to delete {}", path, e1);
+                    }
+                }
+                break;
+            }
+        }
+        if (nDeltas > 0)
+            logger.info("Read {} checkpoint deltas from disk up to CID {}", nDeltas, getLastCheckpointCID());
+    }
+
+    private void deleteDeltas() throws IOException {
+        for (Path deltaPath : listFiles(DELTA_PREFIX, DELTA_SUFFIX))
+            Files.deleteIfExists(deltaPath);
+        nDeltas = 0;
+    }
+
+    private boolean readCheckpoint() {
+        Path checkpointPath = directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(checkpointPath))
+            return false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(checkpointPath)))) {
+            int cid = in.readInt();
+            byte[] stateHash = new byte[in.readInt()];
+            in.readFully(stateHash);
+            long stateSize = in.readLong();
+            CRC32 checksum = newChecksum(cid);
+            ChunkedByteArray state = ChunkedByteArray.readFrom(new CheckedInputStream(in, checksum), stateSize);
+            if (checksum.getValue() != in.readLong()) {
+                logger.error("Checkpoint of CID {} on disk is corrupted", cid);
+                return false;
+            }
+            super.newCheckpoint(state, stateHash, cid);
+            logger.info("Read checkpoint of CID {} from disk", cid);
+            return true;
+        } catch (IOException e) {
+            logger.error("Failed to read checkpoint from disk", e);
+            return false;
+        }
+    }
+
+    private List<Path> listSegments() {
+        return listFiles(SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    private static int getSegmentIndex(Path segmentPath) {
+        return getFileIndex(segmentPath, SEGMENT_PREFIX, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return Files named prefix + index + suffix, sorted by index
+     */
+    private List<Path> listFiles(String prefix, String suffix) {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "*" + suffix)) {
+            for (Path path : stream)
+                files.add(path);
+        } catch (IOException e) {
+            logger.error("Failed to list {}*{} files", prefix, suffix, e);
+        }
+        files.sort((f1, f2) -> Integer.compare(getFileIndex(f1, prefix, suffix), getFileIndex(f2, prefix, suffix)));
+        return files;
+    }
+
+    private static int getFileIndex(Path path, String prefix, String suffix) {
+        String name = path.getFileName().toString();
+        return Integer.parseInt(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static CRC32 newChecksum(int cid) {
+        CRC32 checksum = new CRC32();
+        checksum.update(ByteBuffer.allocate(4).putInt(cid).array());
+        return checksum;
+    }
+
+    private long computeChecksum(int cid, byte[] payload) {
+        synchronized (crc) {
+            crc.reset();
+            crc.update(ByteBuffer.allocate(4).putInt(cid).array());
+            crc.update(payload);
+            return crc.getValue();
+        }
+    }
+
+    private static byte[] serializeBatch(CommandsInfo batch) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             ObjectOutput out = new ObjectOutputStream(bos)) {
+            out.writeObject(batch);
+            out.flush();
+            bos.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private CommandsInfo deserializeBatch(byte[] payload) {
+        try (ByteArrayInputStream bis = new ByteArrayInputStream(payload);
+             ObjectInput in = new ObjectInputStream(bis)) {
+            return (CommandsInfo) in.readObject();
+        } catch (IOException | ClassNotFoundException e) {
+            logger.error("Failed to deserialize logged commands", e);
+            return null;
+        }
+    }
+}
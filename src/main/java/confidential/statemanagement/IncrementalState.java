@@ -0,0 +1,224 @@
+package confidential.statemanagement;
+
+import vss.secretsharing.VerifiableShare;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Checkpointed state of an application implementing
+ * {@link confidential.facade.server.ConfidentialIncrementalCheckpointable}, kept as serialized entries and updated
+ * with the {@link StateDelta} of each checkpoint.
+ * <p>
+ * The state hash is the root of a Merkle tree whose leaves are a fixed number of buckets. Each key belongs to the
+ * bucket given by its hash code and the hash of a bucket covers the keys and entries it contains. Applying a delta
+ * only rehashes the changed buckets and their paths to the root, so its cost depends on the number of changes and
+ * not on the size of the state.
+ */
+public final class IncrementalState {
+    private static final int N_BUCKETS = 1 << 12;
+    private final TreeMap<String, byte[]> entries;
+    private final Map<Integer, TreeMap<String, byte[]>> buckets;
+    private final byte[][] tree;
+    private final MessageDigest messageDigest;
+
+    public IncrementalState() {
+        this.entries = new TreeMap<>();
+        this.buckets = new HashMap<>();
+        this.tree = new byte[2 * N_BUCKETS][];
+        try {
+            this.messageDigest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Failed to initialize message digest", e);
+        }
+        byte[] emptyBucket = messageDigest.digest();
+        for (int i = N_BUCKETS; i < tree.length; i++)
+            tree[i] = emptyBucket;
+        for (int i = N_BUCKETS - 1; i > 0; i--)
+            tree[i] = hashChildren(i);
+    }
+
+    /**
+     * Rebuilds the incremental state from a snapshot created by {@link #serialize()}.
+     */
+    public static IncrementalState fromSnapshot(ConfidentialSnapshot snapshot) throws IOException {
+        IncrementalState state = new IncrementalState();
+        Map<String, ConfidentialSnapshot> entries = new TreeMap<>();
+        if (snapshot.getPlainData() != null) {
+            try (ByteArrayInputStream bis = new ByteArrayInputStream(snapshot.getPlainData());
+                 ObjectInput in = new ObjectInputStream(bis)) {
+                VerifiableShare[] shares = snapshot.getShares();
+                int nextShare = 0;
+                int size = in.readInt();
+                for (int i = 0; i < size; i++) {
+                    String key = in.readUTF();
+                    int len = in.readInt();
+                    byte[] plainData = null;
+                    if (len > -1) {
+                        plainData = new byte[len];
+                        in.readFully(plainData);
+                    }
+                    len = in.readInt();
+                    VerifiableShare[] entryShares = null;
+                    if (len > -1) {
+                        entryShares = Arrays.copyOfRange(shares, nextShare, nextShare + len);
+                        nextShare += len;
+                    }
+                    entries.put(key, new ConfidentialSnapshot(plainData, entryShares));
+                }
+            }
+        }
+        state.apply(StateDelta.of(entries));
+        return state;
+    }
+
+    public synchronized void apply(StateDelta delta) {
+        Set<Integer> changedNodes = new HashSet<>();
+        for (Map.Entry<String, byte[]> entry : delta.getEntries().entrySet()) {
+            String key = entry.getKey();
+            int bucket = getBucket(key);
+            TreeMap<String, byte[]> bucketLeaves = buckets.get(bucket);
+            if (entry.getValue() == null) {
+                entries.remove(key);
+                if (bucketLeaves != null) {
+                    bucketLeaves.remove(key);
+                    if (bucketLeaves.isEmpty())
+                        buckets.remove(bucket);
+                }
+            } else {
+                entries.put(key, entry.getValue());
+                if (bucketLeaves == null) {
+                    bucketLeaves = new TreeMap<>();
+                    buckets.put(bucket, bucketLeaves);
+                }
+                bucketLeaves.put(key, hashLeaf(key, entry.getValue()));
+            }
+            changedNodes.add(N_BUCKETS + bucket);
+        }
+
+        for (int node : changedNodes)
+            tree[node] = hashBucket(node - N_BUCKETS);
+        while (!changedNodes.isEmpty() && !changedNodes.contains(1)) {
+            Set<Integer> parents = new HashSet<>();
+            for (int node : changedNodes)
+                parents.add(node / 2);
+            for (int parent : parents)
+                tree[parent] = hashChildren(parent);
+            changedNodes = parents;
+        }
+    }
+
+    public synchronized byte[] getRootHash() {
+        return tree[1].clone();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return Entries of the state, sorted by key
+     */
+    public synchronized Map<String, ConfidentialSnapshot> getEntries() {
+        Map<String, ConfidentialSnapshot> result = new TreeMap<>();
+        for (Map.Entry<String, byte[]> entry : entries.entrySet())
+            result.put(entry.getKey(), ConfidentialSnapshot.deserialize(entry.getValue()));
+        return result;
+    }
+
+    /**
+     * Serializes the whole state as a single snapshot. Its plain data lists the key, plain data and number of shares
+     * of each entry, and its shares are the shares of all entries in key order, so that the state can be blinded
+     * and transferred like any other snapshot. The entries are read twice, first for the plain data and then for
+     * the shares, so that only the serialized output holds the whole state.
+     * @throws IllegalStateException If an entry cannot be serialized, which fails the checkpoint being written
+     */
+    public synchronized ChunkedByteArray serialize() {
+        ChunkedByteArray plainData = new ChunkedByteArray();
+        int nShares = 0;
+        try (ObjectOutput out = new ObjectOutputStream(plainData.getOutputStream())) {
+            out.writeInt(entries.size());
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                ConfidentialSnapshot entrySnapshot = deserializeEntry(entry.getKey(), entry.getValue());
+                byte[] entryPlainData = entrySnapshot.getPlainData();
+                VerifiableShare[] entryShares = entrySnapshot.getShares();
+                out.writeUTF(entry.getKey());
+                out.writeInt(entryPlainData == null ? -1 : entryPlainData.length);
+                if (entryPlainData != null)
+                    out.write(entryPlainData);
+                out.writeInt(entryShares == null ? -1 : entryShares.length);
+                if (entryShares != null)
+                    nShares += entryShares.length;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize incremental state", e);
+        }
+        if (plainData.size() > Integer.MAX_VALUE)
+            throw new IllegalStateException("Plain data of the state has " + plainData.size() + " bytes");
+
+        ChunkedByteArray serializedState = new ChunkedByteArray();
+        try (ObjectOutputStream out = new ObjectOutputStream(serializedState.getOutputStream())) {
+            out.writeInt((int) plainData.size());
+            plainData.writeTo(out);
+            out.writeInt(nShares);
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                VerifiableShare[] entryShares = deserializeEntry(entry.getKey(), entry.getValue()).getShares();
+                if (entryShares != null) {
+                    for (VerifiableShare share : entryShares)
+                        share.writeExternal(out);
+                }
+            }
+            out.flush();
+            return serializedState;
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize incremental state", e);
+        }
+    }
+
+    private static ConfidentialSnapshot deserializeEntry(String key, byte[] entry) throws IOException {
+        ConfidentialSnapshot entrySnapshot = ConfidentialSnapshot.deserialize(entry);
+        if (entrySnapshot == null)
+            throw new IOException("Failed to deserialize entry " + key);
+        return entrySnapshot;
+    }
+
+    private static int getBucket(String key) {
+        return Math.floorMod(key.hashCode(), N_BUCKETS);
+    }
+
+    private byte[] hashLeaf(String key, byte[] entry) {
+        messageDigest.reset();
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        updateLength(keyBytes.length);
+        messageDigest.update(keyBytes);
+        messageDigest.update(entry);
+        return messageDigest.digest();
+    }
+
+    private byte[] hashBucket(int bucket) {
+        messageDigest.reset();
+        TreeMap<String, byte[]> bucketLeaves = buckets.get(bucket);
+        if (bucketLeaves != null) {
+            for (byte[] leaf : bucketLeaves.values())
+                messageDigest.update(leaf);
+        }
+        return messageDigest.digest();
+    }
+
+    private byte[] hashChildren(int node) {
+        messageDigest.reset();
+        messageDigest.update(tree[2 * node]);
+        messageDigest.update(tree[2 * node + 1]);
+        return messageDigest.digest();
+    }
+
+    private void updateLength(int length) {
+        messageDigest.update((byte) (length >>> 24));
+        messageDigest.update((byte) (length >>> 16));
+        messageDigest.update((byte) (length >>> 8));
+        messageDigest.update((byte) length);
+    }
+}
@@ -0,0 +1,63 @@
+package confidential.statemanagement;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Entries of an incremental state changed since the previous checkpoint. Each entry is a serialized
+ * {@link ConfidentialSnapshot}, or null if the entry was removed.
+ */
+public final class StateDelta {
+    private final TreeMap<String, byte[]> entries;
+
+    private StateDelta(TreeMap<String, byte[]> entries) {
+        this.entries = entries;
+    }
+
+    public static StateDelta of(Map<String, ConfidentialSnapshot> changedEntries) {
+        TreeMap<String, byte[]> entries = new TreeMap<>();
+        for (Map.Entry<String, ConfidentialSnapshot> entry : changedEntries.entrySet())
+            entries.put(entry.getKey(), entry.getValue() == null ? null : entry.getValue().serialize());
+        return new StateDelta(entries);
+    }
+
+    /**
+     * @return Changed entries sorted by key
+     */
+    public Map<String, byte[]> getEntries() {
+        return Collections.unmodifiableMap(entries);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(entries.size());
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            out.writeUTF(entry.getKey());
+            byte[] value = entry.getValue();
+            out.writeInt(value == null ? -1 : value.length);
+            if (value != null)
+                out.write(value);
+        }
+    }
+
+    public static StateDelta readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        TreeMap<String, byte[]> entries = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            String key = in.readUTF();
+            int len = in.readInt();
+            byte[] value = null;
+            if (len > -1) {
+                value = new byte[len];
+                in.readFully(value);
+            }
+            entries.put(key, value);
+        }
+        return new StateDelta(entries);
+    }
+}
@@ -7,7 +7,18 @@ import java.util.Map;
 import java.util.Set;
 
 public interface BlindedCommitmentHandler {
-    void handleNewCommitments(int from, Commitment[] commitments, byte[] commitmentsHash);
-    boolean prepareCommitments();
+    /**
+     * Handles the commitments of a chunk of blinded shares.
+     * @param commitments All commitments received from the replica so far, or null if it only sent their hash
+     * @param commitmentsHash Hash of the commitments of the chunk
+     */
+    void handleNewCommitments(int from, int firstShare, int nShares, Commitment[] commitments,
+                              byte[] commitmentsHash);
+
+    /**
+     * @return Number of shares, from the first one, whose commitments can be used to reconstruct them
+     */
+    int getNumberOfPreparedShares();
+
     Map<BigInteger, Commitment[]> readAllCommitments(Set<BigInteger> shareholders);
 }
@@ -4,29 +4,35 @@ import confidential.server.ServerConfidentialityScheme;
 import vss.commitment.Commitment;
 
 import java.math.BigInteger;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
 
 public class ConstantCommitmentHandler implements BlindedCommitmentHandler {
     private final Map<Integer, Commitment[]> allCommitments;
+    private final Map<Integer, Integer> nReceivedShares;
     private final int quorum;
     private final ServerConfidentialityScheme confidentialityScheme;
 
     public ConstantCommitmentHandler(int quorum, ServerConfidentialityScheme confidentialityScheme) {
         allCommitments = new HashMap<>(quorum);
+        nReceivedShares = new HashMap<>(quorum);
         this.quorum = quorum;
         this.confidentialityScheme = confidentialityScheme;
     }
 
     @Override
-    public void handleNewCommitments(int from, Commitment[] commitments, byte[] commitmentsHash) {
+    public void handleNewCommitments(int from, int firstShare, int nShares, Commitment[] commitments,
+                                     byte[] commitmentsHash) {
         allCommitments.put(from, commitments);
+        nReceivedShares.put(from, firstShare + nShares);
     }
 
     @Override
-    public boolean prepareCommitments() {
-        return allCommitments.size() >= quorum;
+    public int getNumberOfPreparedShares() {
+        if (nReceivedShares.size() < quorum)
+            return 0;
+        Integer[] received = nReceivedShares.values().toArray(new Integer[0]);
+        Arrays.sort(received, Collections.reverseOrder());
+        return received[quorum - 1];
     }
 
     @Override
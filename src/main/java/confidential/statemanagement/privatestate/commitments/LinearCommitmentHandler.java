@@ -10,41 +10,43 @@ import java.util.*;
 public class LinearCommitmentHandler implements BlindedCommitmentHandler {
     private final Logger logger = LoggerFactory.getLogger("state_transfer");
     private final int f;
-    private final Map<Integer, Integer> commitmentsHashCode;
+    private final Map<Integer, Map<Integer, Integer>> chunkHashVotes;
+    private final Map<Integer, int[]> selectedChunks;
     private final int stateSenderReplica;
     private Commitment[] selectedCommitments;
-    private int selectedCommitmentHash;
+    private int nPreparedShares;
 
     public LinearCommitmentHandler(int f, int quorum, int stateSenderReplica) {
         this.f = f;
-        this.commitmentsHashCode = new HashMap<>(quorum);
+        this.chunkHashVotes = new HashMap<>();
+        this.selectedChunks = new HashMap<>();
         this.stateSenderReplica = stateSenderReplica;
     }
 
     @Override
-    public void handleNewCommitments(int from, Commitment[] commitments, byte[] commitmentsHash) {
+    public void handleNewCommitments(int from, int firstShare, int nShares, Commitment[] commitments,
+                                     byte[] commitmentsHash) {
         int commitmentsHashCode = Arrays.hashCode(commitmentsHash);
         if (from == stateSenderReplica) {
             selectedCommitments = commitments;
-            selectedCommitmentHash = commitmentsHashCode;
-            logger.debug("Replica {} sent me {} commitments", from, commitments.length);
-        } else {
-            logger.debug("Replica {} sent me hash of commitments", from);
+            selectedChunks.put(firstShare, new int[]{nShares, commitmentsHashCode});
+            logger.debug("Replica {} sent me commitments of shares {} to {}", from, firstShare,
+                    firstShare + nShares);
         }
 
-        this.commitmentsHashCode.merge(commitmentsHashCode, 1, Integer::sum);
+        chunkHashVotes.computeIfAbsent(firstShare, k -> new HashMap<>())
+                .merge(commitmentsHashCode, 1, Integer::sum);
+        //commitments of a chunk are correct once more than f replicas sent the same hash
+        int[] chunk;
+        while ((chunk = selectedChunks.get(nPreparedShares)) != null
+                && chunkHashVotes.get(nPreparedShares).getOrDefault(chunk[1], 0) > f) {
+            nPreparedShares += chunk[0];
+        }
     }
 
     @Override
-    public boolean prepareCommitments() {
-        if (selectedCommitments == null)
-            return false;
-        if (haveCorrectState(commitmentsHashCode, selectedCommitmentHash)) {
-            return true;
-        } else {
-            logger.debug("I don't have enough same commitments");
-            return false;
-        }
+    public int getNumberOfPreparedShares() {
+        return nPreparedShares;
     }
 
     @Override
@@ -55,19 +57,4 @@ public class LinearCommitmentHandler implements BlindedCommitmentHandler {
         }
         return result;
     }
-
-    private boolean haveCorrectState(Map<Integer, Integer> states,
-                                     int selectedStateHash) {
-        Optional<Map.Entry<Integer, Integer>> max = states.entrySet().stream()
-                .max(Comparator.comparingInt(Map.Entry::getValue));
-        if (!max.isPresent()) {
-            return false;
-        }
-        Map.Entry<Integer, Integer> entry = max.get();
-        if (entry.getValue() <= f) {
-            return false;
-        }
-
-        return selectedStateHash == entry.getKey();
-    }
 }
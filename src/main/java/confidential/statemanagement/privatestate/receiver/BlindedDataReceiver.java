@@ -3,51 +3,98 @@ package confidential.statemanagement.privatestate.receiver;
 import bftsmart.reconfiguration.ServerViewController;
 import bftsmart.reconfiguration.views.View;
 import confidential.Configuration;
-import confidential.statemanagement.utils.HashThread;
+import confidential.statemanagement.utils.MerkleTree;
+import confidential.statemanagement.utils.StreamingDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.commitment.Commitment;
 import vss.commitment.CommitmentUtils;
 
-import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
+import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.security.NoSuchAlgorithmException;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Accepts the connections of the blinded state senders and reads from all of them concurrently, each one on a
+ * worker thread with its own buffer, so that the transfer takes as long as the slowest sender needed for the quorum
+ * instead of the sum of all senders. The chunks of the common state are fetched from all senders that announced the
+ * agreed Merkle root (see {@link CommonStateAssembler}), and the commitments are hashed as they arrive. The handler
+ * is told when no more blinded data can arrive, i.e., when every connection ended and no more will be accepted.
+ * <p>
+ * The workers only read from the sockets, so they spend the transfer blocked on I/O. They are not taken from the
+ * {@link confidential.server.ComputeScheduler}, where they would hold the slots that the recovery computations
+ * need to process the data they receive.
+ */
 public class BlindedDataReceiver extends Thread {
     private final Logger logger = LoggerFactory.getLogger("state_transfer");
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int CHUNK_TIMEOUT = 30_000;
     private final BlindedStateHandler blindedStateHandler;
     private final Set<String> knownServerIps;
     private final ServerViewController svController;
     private final int serverPort;
     private final int quorum;
-    private final int stateSenderReplica;
+    private final int nSenders;
     private ServerSocket serverSocket;
     private final CommitmentUtils commitmentUtils;
+    private final ExecutorService receivers;
+    private final Set<Socket> connections;
+    private final AtomicInteger nReceivedStates;
+    private final AtomicBoolean receivedFullState;
+    private final AtomicInteger nFinishedSenders;
+    private volatile boolean accepting;
+    private final CommonStateAssembler commonStateAssembler;
 
     public BlindedDataReceiver(BlindedStateHandler blindedStateHandler, ServerViewController svController,
-                               int serverPort, int quorum, int stateSenderReplica) throws IOException {
+                               int serverPort, int f, int quorum, StateTransferProgress progress) throws IOException {
         super("Blinded Data Receiver Thread");
         this.blindedStateHandler = blindedStateHandler;
         this.svController = svController;
         this.serverPort = serverPort;
         this.quorum = quorum;
-        this.stateSenderReplica = stateSenderReplica;
         View currentView = svController.getCurrentView();
+        this.nSenders = currentView.getN() - 1;
         this.knownServerIps = new HashSet<>(currentView.getN());
         this.commitmentUtils = CommitmentUtils.getInstance();
         for (int process : currentView.getProcesses()) {
             String ip = currentView.getAddress(process).getAddress().getHostAddress();
             knownServerIps.add(ip);
         }
+        this.receivers = Executors.newFixedThreadPool(currentView.getN(), r -> {
+            Thread thread = new Thread(r, "Blinded Data Receiver Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.nReceivedStates = new AtomicInteger();
+        this.receivedFullState = new AtomicBoolean();
+        this.nFinishedSenders = new AtomicInteger();
+        this.accepting = true;
+        this.commonStateAssembler = new CommonStateAssembler(f, progress);
     }
 
     public void shutdown() {
+        closeServerSocket();
+        for (Socket connection : connections) {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        receivers.shutdownNow();
+    }
+
+    private void closeServerSocket() {
         try {
             if (serverSocket != null && serverSocket.isBound())
                 serverSocket.close();
@@ -68,170 +115,218 @@ public class BlindedDataReceiver extends Thread {
             serverSocket.bind(new InetSocketAddress(myIp, serverPort));
             logger.debug("Listening for blinded data on {}:{} (pid:{})",
                     serverSocket.getInetAddress().getHostAddress(), serverSocket.getLocalPort(), this.getId());
-            int nReceivedStates = 0;
-            boolean receivedFullState = false;
-            while (nReceivedStates < quorum || !receivedFullState) {
-                try (Socket client = serverSocket.accept();
-                     ObjectInput in = new ObjectInputStream(client.getInputStream())) {
-                    client.setKeepAlive(true);
-                    client.setTcpNoDelay(true);
-
-                    String clientIp = client.getInetAddress().getHostAddress();
-                    if (!knownServerIps.contains(clientIp)) {
-                        logger.warn("Received connection from unknown server with ip {}", clientIp);
-                        continue;
+            while (nReceivedStates.get() < quorum || !receivedFullState.get()) {
+                Socket client;
+                try {
+                    client = serverSocket.accept();
+                } catch (IOException e) {
+                    if (serverSocket.isClosed()) {
+                        logger.debug("Blinded data receiver server is closed");
+                        break;
                     }
+                    logger.error("Failed to accept connection", e);
+                    continue;
+                }
+                String clientIp = client.getInetAddress().getHostAddress();
+                if (!knownServerIps.contains(clientIp)) {
+                    logger.warn("Received connection from unknown server with ip {}", clientIp);
+                    client.close();
+                    continue;
+                }
+                connections.add(client);
+                receivers.execute(() -> receiveBlindedData(client, usingLinearScheme));
+            }
+        } catch (IOException e) {
+            logger.error("Failed to initialize server socket.", e);
+        }
+        accepting = false;
+        receivers.shutdown(); // connections already accepted are still read
+        checkNoMoreBlindedData();
+        logger.debug("Exiting blinded data receiver thread");
+    }
 
-                    long t1CommonState, t1Commitments, t1BlindedShares;
-                    long t2CommonState, t2Commitments, t2BlindedShares;
-                    long elapsedTotal, elapsedCommonState = 0, elapsedCommitments = 0, elapsedBlindedShares = 0;
-
-                    byte[] commonState = null;
-                    byte[] commonStateHash = null;
-                    byte[][] shares;
-                    Commitment[] commitments = null;
-                    byte[] commitmentsHash = null;
-
-                    int pid = in.readInt();
-
-                    logger.debug("Going to receive blinded data from {}", pid);
-
-                    //Reading common state
-                    HashThread commonStateHashThread = null;
-                    byte flag = (byte) in.read();
-                    int size = in.readInt();
-                    if (flag == 0) {
-                        logger.debug("Going to receive {} bytes of common state", size);
-                        commonState = new byte[size];
-                        commonStateHashThread = new HashThread();
-                        commonStateHashThread.setData(commonState);
-                        commonStateHashThread.start();
-                        int i = 0;
-                        while (i < size) {
-                            t1CommonState = System.nanoTime();
-                            int received = in.read(commonState, i, size - i);
-                            t2CommonState = System.nanoTime();
-                            elapsedCommonState += t2CommonState - t1CommonState;
-                            if (received > -1) {
-                                commonStateHashThread.update(i, received);
-                                i += received;
-                            }
-                        }
-                        logger.debug("Received common state from {}", pid);
-                        commonStateHashThread.update(-1, -1);
-                    } else {
-                        logger.debug("Going to receive common state hash");
-                        commonStateHash = new byte[size];
-                        t1CommonState = System.nanoTime();
-                        in.readFully(commonStateHash);
-                        t2CommonState = System.nanoTime();
-                        elapsedCommonState += t2CommonState - t1CommonState;
-                    }
+    private void checkNoMoreBlindedData() {
+        if ((!accepting || nFinishedSenders.get() >= nSenders) && connections.isEmpty())
+            blindedStateHandler.noMoreBlindedData();
+    }
 
-                    //Trying to read commitments
-                    HashThread commitmentsHashThread = null;
-                    if (usingLinearScheme) {
-                        flag = (byte) in.read();
-                        if (flag == 0) {
-                            t1Commitments = System.nanoTime();
-                            int nCommitments = in.readInt();
-                            t2Commitments = System.nanoTime();
-                            elapsedCommitments += t2Commitments - t1Commitments;
-                            logger.debug("Going to receive {} commitments from {}", nCommitments, pid);
-                            commitments = new Commitment[nCommitments];
-
-                            int totalCommitmentsArraySize = 4 * nCommitments;
-                            byte[] commitmentsHashArray = new byte[totalCommitmentsArraySize];
-
-                            commitmentsHashThread = new HashThread();
-                            commitmentsHashThread.setData(commitmentsHashArray);
-                            commitmentsHashThread.start();
-                            int index = 0;
-                            byte[] b;
-                            for (int i = 0; i < nCommitments; i++) {
-                                t1Commitments = System.nanoTime();
-                                commitments[i] = commitmentUtils.readCommitment(in);
-                                t2Commitments = System.nanoTime();
-                                elapsedCommitments += t2Commitments - t1Commitments;
-                                b = confidential.Utils.toBytes(commitments[i].consistentHash());
-                                for (byte value : b) {
-                                    commitmentsHashArray[index++] = value;
-                                }
-                                commitmentsHashThread.update(index - 4, 4);
-                            }
-                            commitmentsHashThread.update(-1, -1);
-                        }
-                    } else {
-                        int nCommitments = in.readInt();
-                        commitments = new Commitment[nCommitments];
-                        for (int i = 0; i < nCommitments; i++) {
-                            t1Commitments = System.nanoTime();
-                            commitments[i] = commitmentUtils.readCommitment(in);
-                            t2Commitments = System.nanoTime();
-                            elapsedCommitments += t2Commitments - t1Commitments;
-                        }
-                    }
+    /**
+     * Fetches chunks of the common state from the sender until all chunks were received, by this or other senders.
+     * A sender that sends an invalid chunk is not asked for more chunks and one that does not answer in time is
+     * disconnected, and their chunk is fetched from another sender.
+     * @return Number of chunks received from the sender
+     */
+    private int receiveCommonStateChunks(int pid, Socket connection, ObjectInput in, DataOutputStream requests)
+            throws IOException, InterruptedException, NoSuchAlgorithmException {
+        StreamingDigest digest = new StreamingDigest();
+        int nChunks = 0;
+        int chunkIndex;
+        int timeout = connection.getSoTimeout();
+        connection.setSoTimeout(CHUNK_TIMEOUT);
+        while ((chunkIndex = commonStateAssembler.nextChunk()) != -1) {
+            try {
+                requests.writeInt(chunkIndex);
+                requests.flush();
+                int len = in.readInt();
+                if (len != commonStateAssembler.getChunkLength(chunkIndex))
+                    throw new IOException("Replica " + pid + " sent chunk " + chunkIndex + " with " + len
+                            + " bytes");
+                byte[] chunk = new byte[len];
+                in.readFully(chunk);
+                if (!commonStateAssembler.deliverChunk(chunkIndex, chunk, digest)) {
+                    logger.warn("Replica {} sent invalid chunk {} of common state", pid, chunkIndex);
+                    break;
+                }
+                nChunks++;
+            } catch (IOException e) {
+                commonStateAssembler.failChunk(chunkIndex);
+                throw e;
+            }
+        }
+        connection.setSoTimeout(timeout);
+        return nChunks;
+    }
 
+    private void deliverCommonStateIfComplete() {
+        byte[] commonState = commonStateAssembler.getCommonState();
+        if (commonState == null || !receivedFullState.compareAndSet(false, true))
+            return;
+        logger.debug("Assembled {} bytes of common state", commonState.length);
+        blindedStateHandler.deliverCommonState(commonState, commonStateAssembler.getRoot());
+        if (nReceivedStates.get() >= quorum)
+            closeServerSocket();
+    }
 
-                    //Reading blinded shares
-                    int nShares = in.readInt();
-                    logger.debug("Going to receive {} shares from {}", nShares, pid);
-                    shares = new byte[nShares][];
-                    byte[] b;
-                    for (int i = 0; i < nShares; i++) {
-                        size = in.readInt();
-                        b = new byte[size];
-                        t1BlindedShares = System.nanoTime();
-                        in.readFully(b);
-                        t2BlindedShares = System.nanoTime();
-                        elapsedBlindedShares += t2BlindedShares - t1BlindedShares;
-                        shares[i] = b;
-                    }
+    private void receiveBlindedData(Socket client, boolean usingLinearScheme) {
+        try (Socket connection = client;
+             ObjectInput in = new ObjectInputStream(new BufferedInputStream(connection.getInputStream(),
+                     BUFFER_SIZE))) {
+            connection.setKeepAlive(true);
+            connection.setTcpNoDelay(true);
+
+            long t1CommonState, t1Commitments, t1BlindedShares;
+            long t2CommonState, t2Commitments, t2BlindedShares;
+            long elapsedTotal, elapsedCommonState = 0, elapsedCommitments = 0, elapsedBlindedShares = 0;
 
-                    logger.debug("Received blinded state from {}", pid);
+            byte[] commonStateHash;
+            Commitment[] commitments = null;
 
-                    //Reading commitments
-                    if (commitments == null) {
-                        size = in.readInt();
-                        commitmentsHash = new byte[size];
+            int pid = in.readInt();
+
+            logger.debug("Going to receive blinded data from {}", pid);
+
+            //Reading common state chunks
+            int stateSize = in.readInt();
+            int chunkSize = in.readInt();
+            byte[][] chunkHashes = new byte[in.readInt()][];
+            for (int i = 0; i < chunkHashes.length; i++) {
+                chunkHashes[i] = new byte[in.readInt()];
+                in.readFully(chunkHashes[i]);
+            }
+            commonStateHash = MerkleTree.computeRoot(chunkHashes);
+            DataOutputStream requests = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            if (commonStateAssembler.announce(pid, stateSize, chunkSize, chunkHashes, commonStateHash)) {
+                t1CommonState = System.nanoTime();
+                int nChunks = receiveCommonStateChunks(pid, connection, in, requests);
+                t2CommonState = System.nanoTime();
+                elapsedCommonState += t2CommonState - t1CommonState;
+                logger.debug("Received {} chunks of common state from {}", nChunks, pid);
+            } else {
+                logger.warn("Replica {} sent a different common state", pid);
+            }
+            requests.writeInt(-1);
+            requests.flush();
+            deliverCommonStateIfComplete();
 
+            //Reading blinded shares in chunks, each one with its commitments or their hash
+            boolean receivingCommitments = true;
+            StreamingDigest commitmentsDigest = null;
+            if (usingLinearScheme) {
+                byte flag = (byte) in.read();
+                receivingCommitments = flag == 0;
+                if (receivingCommitments)
+                    commitmentsDigest = new StreamingDigest();
+            }
+            int nShares = in.readInt();
+            int nCommitments = in.readInt();
+            if (nShares < 0 || nCommitments < 0 || (nShares == 0 ? nCommitments != 0 : nCommitments % nShares != 0))
+                throw new IOException("Replica " + pid + " announced " + nShares + " shares with " + nCommitments
+                        + " commitments");
+            int commitmentsPerShare = nShares == 0 ? 0 : nCommitments / nShares;
+            logger.debug("Going to receive {} shares and {} commitments from {}", nShares, nCommitments, pid);
+            if (receivingCommitments)
+                commitments = new Commitment[nCommitments];
+            blindedStateHandler.startBlindedData(pid, commonStateHash, nShares);
+            int nReceivedShares = 0;
+            int nChunks = 0;
+            byte[] b;
+            int size;
+            while (nReceivedShares < nShares) {
+                int chunkLength = in.readInt();
+                if (chunkLength <= 0 || chunkLength > nShares - nReceivedShares)
+                    throw new IOException("Replica " + pid + " sent a chunk of " + chunkLength + " shares");
+                int end = nReceivedShares + chunkLength;
+                byte[][] shares = new byte[chunkLength][];
+                if (receivingCommitments) {
+                    for (int i = nReceivedShares * commitmentsPerShare; i < end * commitmentsPerShare; i++) {
                         t1Commitments = System.nanoTime();
-                        in.readFully(commitmentsHash);
+                        commitments[i] = commitmentUtils.readCommitment(in);
                         t2Commitments = System.nanoTime();
                         elapsedCommitments += t2Commitments - t1Commitments;
-                    } else if (commitmentsHashThread != null) {
-                        commitmentsHash = commitmentsHashThread.getHash();
-                    }
-                    if (commonStateHashThread != null) {
-                        commonStateHash = commonStateHashThread.getHash();
+                        if (commitmentsDigest != null)
+                            commitmentsDigest.updateInt(commitments[i].consistentHash());
                     }
-
-                    elapsedTotal = elapsedCommonState + elapsedCommitments + elapsedBlindedShares;
-
-                    logger.debug("Took {} ms to receive common state from {}", elapsedCommonState / 1_000_000.0, pid);
-                    logger.debug("Took {} ms to receive commitments from {}", elapsedCommitments / 1_000_000.0, pid);
-                    logger.debug("Took {} ms to receive blinded shares from {}", elapsedBlindedShares / 1_000_000.0, pid);
-                    logger.debug("Took {} ms to receive state from {} (total)", elapsedTotal / 1_000_000.0, pid);
-                    blindedStateHandler.deliverBlindedData(pid, shares, commonState, commonStateHash,
-                            commitments, commitmentsHash);
-                    if (pid == stateSenderReplica)
-                        receivedFullState = true;
-                    nReceivedStates++;
-                } catch (NoSuchAlgorithmException e) {
-                    logger.error("Failed to create hash thread.", e);
-                } catch (ClassNotFoundException e) {
-                    logger.error("Failed to read commitments.", e);
-                } catch (IOException e) {
-                    if (serverSocket.isClosed()) {
-                        logger.debug("Blinded data receiver server is closed");
-                        break;
-                    }
-                    logger.error("Failed to receive data", e);
                 }
+                for (int i = 0; i < chunkLength; i++) {
+                    size = in.readInt();
+                    b = new byte[size];
+                    t1BlindedShares = System.nanoTime();
+                    in.readFully(b);
+                    t2BlindedShares = System.nanoTime();
+                    elapsedBlindedShares += t2BlindedShares - t1BlindedShares;
+                    shares[i] = b;
+                }
+                byte[] commitmentsHash = null;
+                if (!receivingCommitments) {
+                    commitmentsHash = new byte[in.readInt()];
+                    t1Commitments = System.nanoTime();
+                    in.readFully(commitmentsHash);
+                    t2Commitments = System.nanoTime();
+                    elapsedCommitments += t2Commitments - t1Commitments;
+                } else if (commitmentsDigest != null) {
+                    commitmentsHash = commitmentsDigest.digest();
+                }
+                blindedStateHandler.deliverBlindedShares(pid, nReceivedShares, shares, commitments, commitmentsHash);
+                nReceivedShares = end;
+                nChunks++;
             }
+
+            logger.debug("Received blinded state from {} in {} chunks", pid, nChunks);
+
+            elapsedTotal = elapsedCommonState + elapsedCommitments + elapsedBlindedShares;
+
+            logger.debug("Took {} ms to receive common state from {}", elapsedCommonState / 1_000_000.0, pid);
+            logger.debug("Took {} ms to receive commitments from {}", elapsedCommitments / 1_000_000.0, pid);
+            logger.debug("Took {} ms to receive blinded shares from {}", elapsedBlindedShares / 1_000_000.0, pid);
+            logger.debug("Took {} ms to receive state from {} (total)", elapsedTotal / 1_000_000.0, pid);
+            if (nReceivedStates.incrementAndGet() >= quorum && receivedFullState.get())
+                closeServerSocket(); // no more senders are needed
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while receiving common state");
+        } catch (NoSuchAlgorithmException e) {
+            logger.error("Failed to create message digest.", e);
+        } catch (ClassNotFoundException e) {
+            logger.error("Failed to read commitments.", e);
         } catch (IOException e) {
-            logger.error("Failed to initialize server socket.", e);
+            if (serverSocket.isClosed() && receivers.isShutdown()) {
+                logger.debug("Blinded data receiver server is closed");
+                return;
+            }
+            logger.error("Failed to receive data", e);
+        } finally {
+            connections.remove(client);
+            nFinishedSenders.incrementAndGet();
+            checkNoMoreBlindedData();
         }
-        logger.debug("Exiting blinded data receiver thread");
     }
 }
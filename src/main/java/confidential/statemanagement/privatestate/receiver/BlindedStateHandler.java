@@ -2,6 +2,7 @@ package confidential.statemanagement.privatestate.receiver;
 
 import bftsmart.reconfiguration.ServerViewController;
 import confidential.Configuration;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import confidential.statemanagement.privatestate.commitments.BlindedCommitmentHandler;
 import confidential.statemanagement.privatestate.commitments.ConstantCommitmentHandler;
@@ -23,17 +24,26 @@ import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * Reconstructs the private state in chunks. A chunk of shares is reconstructed once enough replicas delivered its
+ * blinded shares and its commitments are prepared, while the remaining chunks are still being received. The
+ * reconstructed shares are handed to the state listener as they become available.
+ * <p>
+ * A resumable transfer records the reconstructed shares in a {@link StateTransferProgress} and starts after the
+ * shares reconstructed by previous attempts, which the senders do not send again.
+ */
 public abstract class BlindedStateHandler extends Thread {
     protected final Logger logger = LoggerFactory.getLogger("state_transfer");
+    private static final int RECONSTRUCTION_BATCH_SIZE = 1024;
     protected final BigInteger shareholderId;
     protected final BigInteger field;
     private final StateReceivedListener stateReceivedListener;
     protected final AtomicInteger corruptedServers;
     protected final int f;
-    private final int stateSenderReplica;
     protected final ServerConfidentialityScheme confidentialityScheme;
     protected final CommitmentScheme commitmentScheme;
     protected final InterpolationStrategy interpolationStrategy;
+    protected final ComputeScheduler computeScheduler;
     private final BlindedCommitmentHandler commitmentsHandler;
 
     private final Lock lock;
@@ -43,18 +53,37 @@ public abstract class BlindedStateHandler extends Thread {
 
     private final Map<Integer, Integer> commonState;
     private byte[] selectedCommonState;
+    private byte[] selectedCommonStateRoot;
     private int selectedCommonStateHash;
     private byte[] correctCommonState;
+    private byte[] correctCommonStateRoot;
     private int nCommonStateReceived;
 
     private final Map<Integer, Share[]> allBlindedShares;
+    private final Map<Integer, Integer> nReceivedBlindedShares;
     private final Map<Integer, Integer> blindedSharesSize;
     private int correctBlindedSharesSize;
+    private ReconstructedShares reconstructedShares;
     private final BlindedDataReceiver blindedDataReceiver;
+    private final StateTransferProgress progress;
+    private final int resumeShare;
+    private boolean noMoreBlindedData;
 
     public BlindedStateHandler(ServerViewController svController, int serverPort, int f, int quorum,
                                int stateSenderReplica, ServerConfidentialityScheme confidentialityScheme,
                                StateReceivedListener stateReceivedListener) {
+        this(svController, serverPort, f, quorum, stateSenderReplica, confidentialityScheme, stateReceivedListener,
+                null, 0);
+    }
+
+    /**
+     * @param progress Progress kept across attempts of the transfer or null if the transfer is not resumable
+     * @param resumeShare Number of shares of the progress that the senders were asked to skip
+     */
+    public BlindedStateHandler(ServerViewController svController, int serverPort, int f, int quorum,
+                               int stateSenderReplica, ServerConfidentialityScheme confidentialityScheme,
+                               StateReceivedListener stateReceivedListener, StateTransferProgress progress,
+                               int resumeShare) {
         super("Blinded State Handler Thread");
         int pid = svController.getStaticConf().getProcessId();
         this.shareholderId = confidentialityScheme.getMyShareholderId();
@@ -62,18 +91,21 @@ public abstract class BlindedStateHandler extends Thread {
         this.stateReceivedListener = stateReceivedListener;
         this.corruptedServers = new AtomicInteger(0);
         this.f = f;
-        this.stateSenderReplica = stateSenderReplica;
         this.confidentialityScheme = confidentialityScheme;
         this.commitmentScheme = confidentialityScheme.getCommitmentScheme();
         this.interpolationStrategy = confidentialityScheme.getInterpolationStrategy();
+        this.computeScheduler = ComputeScheduler.getInstance();
         this.lock = new ReentrantLock(true);
         this.waitingBlindedDataCondition = lock.newCondition();
 
         this.stillValidSenders = ConcurrentHashMap.newKeySet(quorum);
         this.commonState = new HashMap<>(quorum);
         this.allBlindedShares = new HashMap<>(quorum);
+        this.nReceivedBlindedShares = new HashMap<>(quorum);
         this.blindedSharesSize = new HashMap<>(quorum);
         this.correctBlindedSharesSize = -1;
+        this.progress = progress;
+        this.resumeShare = resumeShare;
 
         if (Configuration.getInstance().getVssScheme().equals("1")) {//linear scheme
             this.commitmentsHandler = new LinearCommitmentHandler(f, quorum, stateSenderReplica);
@@ -83,8 +115,7 @@ public abstract class BlindedStateHandler extends Thread {
 
         int port = serverPort + pid;
         try {
-            blindedDataReceiver = new BlindedDataReceiver(this, svController,
-                    port, quorum, stateSenderReplica);
+            blindedDataReceiver = new BlindedDataReceiver(this, svController, port, f, quorum, progress);
             blindedDataReceiver.start();
         } catch (IOException e) {
             throw new IllegalStateException("Failed to initialize blinded data receiver thread", e);
@@ -93,121 +124,241 @@ public abstract class BlindedStateHandler extends Thread {
 
     @Override
     public void interrupt() {
+        super.interrupt(); // before closing the connections, so that closing them is not taken as a stall
         blindedDataReceiver.shutdown();
         blindedDataReceiver.interrupt();
-        super.interrupt();
     }
 
-    public void deliverBlindedData(int from, byte[][] shares, byte[] serializedCommonState, byte[] commonStateHash,
-                                   Commitment[] commitments, byte[] commitmentsHash) {
+    /**
+     * Delivers the common state assembled from the chunks sent by several replicas.
+     * @param commonStateHash Merkle root of the chunks of the common state
+     */
+    public void deliverCommonState(byte[] serializedCommonState, byte[] commonStateHash) {
         lock.lock();
-        logger.debug("Received blinded data from {}", from);
-        int commonStateHashCode = Arrays.hashCode(commonStateHash);
-        if (from == stateSenderReplica) {
-            selectedCommonState = serializedCommonState;
-            selectedCommonStateHash = commonStateHashCode;
-            logger.debug("Replica {} sent me a common state of {} bytes", from,
-                    serializedCommonState == null ? "null" : serializedCommonState.length);
-        } else {
-            logger.debug("Replica {} sent me common state hash", from);
-        }
-
-        commonState.merge(commonStateHashCode, 1, Integer::sum);
-
-        commitmentsHandler.handleNewCommitments(from, commitments, commitmentsHash);
+        selectedCommonState = serializedCommonState;
+        selectedCommonStateRoot = commonStateHash;
+        selectedCommonStateHash = Arrays.hashCode(commonStateHash);
+        logger.debug("Received common state of {} bytes", serializedCommonState.length);
+        waitingBlindedDataCondition.signal();
+        lock.unlock();
+    }
 
+    /**
+     * Starts receiving the blinded shares of a replica, which are then delivered in chunks.
+     * @param commonStateHash Merkle root of the common state the replica sent
+     */
+    public void startBlindedData(int from, byte[] commonStateHash, int nShares) {
+        lock.lock();
+        logger.debug("Going to receive {} blinded shares from {}", nShares, from);
+        commonState.merge(Arrays.hashCode(commonStateHash), 1, Integer::sum);
         nCommonStateReceived++;
+        blindedSharesSize.merge(nShares, 1, Integer::sum);
+        allBlindedShares.put(from, new Share[nShares]);
+        nReceivedBlindedShares.put(from, 0);
+        stillValidSenders.add(from);
+        waitingBlindedDataCondition.signal();
+        lock.unlock();
+    }
 
+    /**
+     * Delivers a chunk of blinded shares, which follows the previous chunk delivered by the same replica.
+     * @param commitments All commitments received from the replica so far, or null if it only sent their hash
+     * @param commitmentsHash Hash of the commitments of the chunk
+     */
+    public void deliverBlindedShares(int from, int firstShare, byte[][] shares, Commitment[] commitments,
+                                     byte[] commitmentsHash) {
         Share[] blindedShares = reconstructBlindedShares(from, shares);
+        int nShares = shares.length;
+        lock.lock();
+        commitmentsHandler.handleNewCommitments(from, firstShare, nShares, commitments, commitmentsHash);
         if (blindedShares == null) {
             logger.warn("Failed to reconstruct blinded shares from {}", from);
+            stillValidSenders.remove(from);
         } else {
-            this.allBlindedShares.put(from, blindedShares);
-            this.blindedSharesSize.merge(blindedShares.length, 1, Integer::sum);
-            stillValidSenders.add(from);
+            System.arraycopy(blindedShares, 0, allBlindedShares.get(from), firstShare, nShares);
+            nReceivedBlindedShares.put(from, firstShare + nShares);
         }
         waitingBlindedDataCondition.signal();
         lock.unlock();
     }
 
+    /**
+     * Called by the receiver when every connection ended and no more will be accepted.
+     */
+    void noMoreBlindedData() {
+        lock.lock();
+        noMoreBlindedData = true;
+        waitingBlindedDataCondition.signal();
+        lock.unlock();
+    }
+
     protected abstract Share[] reconstructBlindedShares(int from, byte[][] shares);
 
-    protected abstract LinkedList<VerifiableShare> reconstructShares(int nShares,
-                                                                   Map<Integer, Share[]> allBlindedShares,
-                                                                   Map<BigInteger, Commitment[]> allBlindedCommitments);
+    /**
+     * Reconstructs the shares from firstShare to firstShare + nShares using the blinded shares of all given replicas.
+     * @return Reconstructed shares or null if any of them could not be reconstructed
+     */
+    protected abstract VerifiableShare[] reconstructShares(int firstShare, int nShares,
+                                                           Map<Integer, Share[]> allBlindedShares,
+                                                           Map<BigInteger, Commitment[]> allBlindedCommitments);
+
+    protected abstract ComputeScheduler.ComputeClass getComputeClass();
 
     @Override
     public void run() {
-        while (true) {
-            try {
-                lock.lock();
-                logger.debug("Processing new blinded data");
-                if (allBlindedShares.size() <= f + 1 || selectedCommonState == null || nCommonStateReceived <= f) {
-                    logger.debug("Waiting for more state: {} <= {} | selectedCommonState={} | {} <= {}",
-                            allBlindedShares.size(), f + 1, selectedCommonState == null ? "null" : "not null",
-                            nCommonStateReceived, f + 1);
-                    waitingBlindedDataCondition.await();
-                    continue;
-                } else {
-                    logger.debug("I have the minimum number of blinded shares, common state and common state hashes");
-                }
-                if (correctCommonState == null) {
-                    if (haveCorrectState(selectedCommonState, commonState, selectedCommonStateHash)) {
-                        correctCommonState = selectedCommonState;
-                    } else {
-                        logger.debug("I don't have enough same common states");
-                        waitingBlindedDataCondition.await();
-                        continue;
-                    }
-                }
+        try {
+            if (!reconstructState() && !isInterrupted()) {
+                logger.warn("No more blinded data will arrive and the state cannot be reconstructed");
+                stateReceivedListener.onStateTransferStalled();
+            }
+        } catch (InterruptedException e) {
+            logger.debug("Interrupted while reconstructing private state");
+        } finally {
+            if (reconstructedShares != null)
+                reconstructedShares.close();
+        }
+        blindedDataReceiver.shutdown();
+        blindedDataReceiver.interrupt();
+        logger.debug("Exiting blinded state handler thread");
+    }
 
-                if (!commitmentsHandler.prepareCommitments()) {
-                    logger.debug("Commitments are not prepared");
-                    waitingBlindedDataCondition.await();
-                    continue;
+    /**
+     * @return False if the blinded data stopped arriving before the state was reconstructed
+     */
+    private boolean reconstructState() throws InterruptedException {
+        VerifiableShare[] resumedShares = null;
+        lock.lock();
+        try {
+            while (!haveCorrectCommonState()) {
+                logger.debug("Waiting for more state: selectedCommonState={} | {} <= {}",
+                        selectedCommonState == null ? "null" : "not null", nCommonStateReceived, f);
+                if (!awaitBlindedData())
+                    return false;
+            }
+            logger.debug("Correct blinded shares size is {}", correctBlindedSharesSize);
+            if (resumeShare > 0) {
+                if (!progress.hasCommonStateRoot(correctCommonStateRoot)
+                        || progress.getNumberOfReconstructedShares() < resumeShare) {
+                    logger.warn("Common state changed since share {} was reconstructed", resumeShare);
+                    return false;
                 }
+                resumedShares = Arrays.copyOf(progress.getReconstructedShares(), resumeShare);
+                logger.info("Resuming reconstruction after {} shares", resumeShare);
+            }
+            reconstructedShares = new ReconstructedShares(resumeShare + correctBlindedSharesSize);
+        } finally {
+            lock.unlock();
+        }
+        if (resumedShares != null)
+            reconstructedShares.add(resumedShares);
+        stateReceivedListener.onStateReceived(correctCommonState, reconstructedShares);
 
-                if (correctBlindedSharesSize == -1) {
-                    correctBlindedSharesSize = selectCorrectKey(blindedSharesSize);
-                    logger.debug("Correct blinded shares size is {}", correctBlindedSharesSize);
+        long startTime = System.nanoTime();
+        int nReconstructedShares = 0;
+        int minNumberOfSenders = 0;
+        while (nReconstructedShares < correctBlindedSharesSize) {
+            Map<Integer, Share[]> senders = new HashMap<>(stillValidSenders.size());
+            Map<BigInteger, Commitment[]> allBlindedCommitments;
+            int end;
+            lock.lock();
+            try {
+                while ((end = selectSenders(nReconstructedShares,
+                        Math.max(minNumberOfSenders, getMinNumberOfSenders()), senders)) == -1) {
+                    logger.debug("Waiting for more blinded shares from share {}", nReconstructedShares);
+                    if (!awaitBlindedData())
+                        return false;
                 }
-
-                if (correctCommonState != null && correctBlindedSharesSize != -1) {
-                    logger.debug("Reconstructing state");
-                    long startTime = System.nanoTime();
-                    LinkedList<VerifiableShare> reconstructedShares = reconstructPrivateState();
-                    long endTime = System.nanoTime();
-                    double totalTime = (endTime - startTime) / 1_000_000.0;
-                    logger.info("Took {} ms to reconstruct shares [{} shares]", totalTime, reconstructedShares.size());
-                    stateReceivedListener.onStateReceived(correctCommonState, reconstructedShares);
-                    break;
-                } else {
-                    logger.debug("correctBlindedSharesSize={}", correctBlindedSharesSize);
+                Set<BigInteger> validShareholders = new HashSet<>(senders.size());
+                for (Integer sender : senders.keySet()) {
+                    validShareholders.add(confidentialityScheme.getShareholder(sender));
                 }
-
-            } catch (InterruptedException e) {
-                //logger.error("Failed to reconstruct private state", e);
-                break;
+                allBlindedCommitments = commitmentsHandler.readAllCommitments(validShareholders);
             } finally {
                 lock.unlock();
             }
+
+            VerifiableShare[] shares = reconstructShares(nReconstructedShares, end - nReconstructedShares,
+                    senders, allBlindedCommitments);
+            if (shares == null) {
+                logger.warn("Failed to reconstruct shares {} to {}. Waiting for more blinded shares.",
+                        nReconstructedShares, end);
+                minNumberOfSenders = senders.size() + 1;
+                continue;
+            }
+            logger.debug("Reconstructed shares {} to {} from {} replicas", nReconstructedShares, end,
+                    senders.size());
+            if (progress != null)
+                progress.addReconstructedShares(resumeShare + nReconstructedShares, shares);
+            reconstructedShares.add(shares);
+            nReconstructedShares = end;
+            minNumberOfSenders = 0;
         }
-        blindedDataReceiver.shutdown();
-        blindedDataReceiver.interrupt();
-        logger.debug("Exiting blinded state handler thread");
+        double totalTime = (System.nanoTime() - startTime) / 1_000_000.0;
+        logger.info("Took {} ms to reconstruct shares [{} shares]", totalTime, correctBlindedSharesSize);
+        logger.debug("{}", computeScheduler.getMetrics(getComputeClass()));
+        return true;
     }
 
-    private LinkedList<VerifiableShare> reconstructPrivateState() {
-        //Collecting all commitments
-        Set<BigInteger> validShareholders = new HashSet<>(stillValidSenders.size());
-        for (Integer validSender : stillValidSenders) {
-            validShareholders.add(confidentialityScheme.getShareholder(validSender));
+    /**
+     * Waits for more blinded data. Must be called with the lock held.
+     * @return False if no more blinded data will arrive
+     */
+    private boolean awaitBlindedData() throws InterruptedException {
+        if (noMoreBlindedData)
+            return false;
+        waitingBlindedDataCondition.await();
+        return true;
+    }
+
+    private boolean haveCorrectCommonState() {
+        if (selectedCommonState == null || nCommonStateReceived <= f)
+            return false;
+        if (correctCommonState == null) {
+            if (!haveCorrectState(selectedCommonState, commonState, selectedCommonStateHash)) {
+                logger.debug("I don't have enough same common states");
+                return false;
+            }
+            correctCommonState = selectedCommonState;
+            correctCommonStateRoot = selectedCommonStateRoot;
         }
+        if (correctBlindedSharesSize == -1)
+            correctBlindedSharesSize = selectCorrectKey(blindedSharesSize);
+        return correctBlindedSharesSize != -1;
+    }
 
-        Map<BigInteger, Commitment[]> allBlindedCommitments = commitmentsHandler.readAllCommitments(validShareholders);
+    private int getMinNumberOfSenders() {
+        return f + (corruptedServers.get() < f ? 2 : 1);
+    }
 
-        return reconstructShares(correctBlindedSharesSize, allBlindedShares,
-                allBlindedCommitments);
+    /**
+     * Selects the next range of shares to reconstruct, which starts at firstShare and ends at the last share
+     * received from at least minNumberOfSenders valid replicas, limited by the prepared commitments.
+     * @param senders Filled with the blinded shares of every valid replica that delivered the whole range
+     * @return End of the range or -1 if there are not enough blinded shares or commitments
+     */
+    private int selectSenders(int firstShare, int minNumberOfSenders, Map<Integer, Share[]> senders) {
+        List<Integer> nReceived = new ArrayList<>(stillValidSenders.size());
+        for (Integer sender : stillValidSenders) {
+            Share[] shares = allBlindedShares.get(sender);
+            int received = nReceivedBlindedShares.getOrDefault(sender, 0);
+            if (shares != null && shares.length == correctBlindedSharesSize && received > firstShare)
+                nReceived.add(received);
+        }
+        if (nReceived.size() < minNumberOfSenders)
+            return -1;
+        nReceived.sort(Collections.reverseOrder());
+        int end = Math.min(nReceived.get(minNumberOfSenders - 1), firstShare + RECONSTRUCTION_BATCH_SIZE);
+        end = Math.min(end, commitmentsHandler.getNumberOfPreparedShares());
+        if (end <= firstShare)
+            return -1;
+        senders.clear();
+        for (Integer sender : stillValidSenders) {
+            Share[] shares = allBlindedShares.get(sender);
+            if (shares != null && shares.length == correctBlindedSharesSize
+                    && nReceivedBlindedShares.getOrDefault(sender, 0) >= end)
+                senders.put(sender, shares);
+        }
+        return end;
     }
 
     private boolean haveCorrectState(byte[] selectedState, Map<Integer, Integer> states,
@@ -10,6 +10,7 @@ import bftsmart.tom.util.TOMUtil;
 import confidential.server.Request;
 import confidential.statemanagement.ConfidentialSnapshot;
 import confidential.statemanagement.ReconstructionCompleted;
+import confidential.statemanagement.privatestate.sender.COBRAStateSeparator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.secretsharing.VerifiableShare;
@@ -20,7 +21,7 @@ import java.io.ObjectInput;
 import java.io.ObjectInputStream;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -30,14 +31,14 @@ public class COBRAStateCombiner extends Thread {
 	private final Logger logger = LoggerFactory.getLogger("state_transfer");
 	private final int pid;
 	private final byte[] commonState;
-	private final LinkedList<VerifiableShare> shares;
+	private final Iterator<VerifiableShare> reconstructedShares;
 	private final ReconstructionCompleted reconstructionListener;
 
-	public COBRAStateCombiner(int pid, byte[] commonState, LinkedList<VerifiableShare> shares,
+	public COBRAStateCombiner(int pid, byte[] commonState, Iterator<VerifiableShare> reconstructedShares,
 							  ReconstructionCompleted reconstructionListener) {
 		this.pid = pid;
 		this.commonState = commonState;
-		this.shares = shares;
+		this.reconstructedShares = reconstructedShares;
 		this.reconstructionListener = reconstructionListener;
 	}
 
@@ -57,6 +58,8 @@ public class COBRAStateCombiner extends Thread {
 			reconstructionListener.onReconstructionCompleted(reconstructedState);
 		} catch (IOException | ClassNotFoundException e) {
 			logger.error("Failed to combine states.", e);
+		} catch (NoSuchElementException e) {
+			logger.error("Failed to combine states. Missing reconstructed shares.", e);
 		}
 	}
 
@@ -65,7 +68,6 @@ public class COBRAStateCombiner extends Thread {
 		int lastCID = commonStateStream.readInt();
 		int logSize = commonStateStream.readInt();
 
-		Iterator<VerifiableShare> reconstructedShares = shares.iterator();
 		CommandsInfo[] reconstructedLog = null;
 		if (logSize != -1)  {
 			reconstructedLog = reconstructLog(commonStateStream, logSize, reconstructedShares);
@@ -126,6 +128,31 @@ public class COBRAStateCombiner extends Thread {
 				if (nShares == -1) {
 					command = new byte[commonStateStream.readInt()];
 					commonStateStream.readFully(command);
+				} else if (nShares == COBRAStateSeparator.BATCH_MARKER) {
+					VerifiableShare[][] operationShares = new VerifiableShare[commonStateStream.readInt()][];
+					for (int k = 0; k < operationShares.length; k++) {
+						int nOperationShares = commonStateStream.readInt();
+						if (nOperationShares > -1)
+							operationShares[k] = getRefreshedShares(commonStateStream, nOperationShares,
+									reconstructedShares);
+					}
+
+					byte[] b = new byte[commonStateStream.readInt()];
+					commonStateStream.readFully(b);
+					Request request = Request.deserialize(b);
+					if (request == null || request.getOperations() == null
+							|| request.getOperations().length != operationShares.length) {
+						logger.error("Failed to deserialize request batch");
+						return null;
+					}
+					Request[] operations = request.getOperations();
+					for (int k = 0; k < operations.length; k++)
+						operations[k].setShares(operationShares[k]);
+					command = request.serialize();
+					if (command == null) {
+						logger.error("Failed to serialize request batch");
+						return null;
+					}
 				} else {
 					VerifiableShare[] shares = getRefreshedShares(commonStateStream, nShares, reconstructedShares);
 
@@ -0,0 +1,133 @@
+package confidential.statemanagement.privatestate.receiver;
+
+import confidential.statemanagement.utils.MerkleTree;
+import confidential.statemanagement.utils.StreamingDigest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Assembles the common state from chunks fetched concurrently from several senders. Each sender announces the size,
+ * chunk size and chunk hashes of its common state. The chunks are only fetched once f + 1 senders announced the
+ * same Merkle root, and each chunk is verified against the agreed chunk hashes before it is accepted. A chunk that
+ * fails to arrive or to verify is returned to the queue and fetched from another sender. Chunks verified by a
+ * previous attempt of the same transfer are not fetched again.
+ */
+class CommonStateAssembler {
+    private final Logger logger = LoggerFactory.getLogger("state_transfer");
+    private final int f;
+    private final StateTransferProgress progress;
+    private final Map<ByteBuffer, Integer> rootVotes;
+    private ByteBuffer agreedAnnouncement;
+    private byte[] agreedRoot;
+    private int agreedStateSize;
+    private int agreedChunkSize;
+    private byte[][] agreedChunkHashes;
+    private byte[] commonState;
+    private final Deque<Integer> missingChunks;
+    private int nRemainingChunks;
+
+    /**
+     * @param progress Progress kept across attempts of the transfer or null if the transfer is not resumable
+     */
+    CommonStateAssembler(int f, StateTransferProgress progress) {
+        this.f = f;
+        this.progress = progress;
+        this.rootVotes = new HashMap<>();
+        this.missingChunks = new ArrayDeque<>();
+    }
+
+    /**
+     * Registers the announcement of a sender and waits until f + 1 senders agree on a root.
+     * @return True if the announced root is the agreed one, in which case chunks can be fetched from the sender
+     */
+    synchronized boolean announce(int pid, int stateSize, int chunkSize, byte[][] chunkHashes, byte[] root)
+            throws InterruptedException {
+        ByteBuffer announcement = ByteBuffer.allocate(root.length + 8).put(root).putInt(stateSize).putInt(chunkSize);
+        announcement.flip();
+        if (chunkHashes.length != MerkleTree.getNumberOfChunks(stateSize, chunkSize)) {
+            logger.warn("Replica {} announced {} chunk hashes for {} bytes of common state", pid,
+                    chunkHashes.length, stateSize);
+            return false;
+        }
+        int votes = rootVotes.merge(announcement, 1, Integer::sum);
+        if (agreedAnnouncement == null && votes > f) {
+            logger.debug("{} replicas agree on common state of {} bytes in {} chunks", votes, stateSize,
+                    chunkHashes.length);
+            agreedAnnouncement = announcement;
+            agreedRoot = root;
+            agreedStateSize = stateSize;
+            agreedChunkSize = chunkSize;
+            agreedChunkHashes = chunkHashes;
+            nRemainingChunks = chunkHashes.length;
+            if (progress == null) {
+                commonState = new byte[stateSize];
+            } else {
+                commonState = progress.resumeCommonState(root, stateSize, chunkSize, chunkHashes.length);
+            }
+            for (int i = 0; i < chunkHashes.length; i++) {
+                if (progress != null && progress.isChunkVerified(i))
+                    nRemainingChunks--;
+                else
+                    missingChunks.add(i);
+            }
+            if (nRemainingChunks < chunkHashes.length)
+                logger.info("Resuming common state with {} of {} chunks already verified",
+                        chunkHashes.length - nRemainingChunks, chunkHashes.length);
+            notifyAll();
+        }
+        while (agreedAnnouncement == null)
+            wait();
+        return agreedAnnouncement.equals(announcement);
+    }
+
+    synchronized byte[] getRoot() {
+        return agreedRoot;
+    }
+
+    /**
+     * @return Index of a chunk to fetch or -1 if all chunks were received
+     */
+    synchronized int nextChunk() throws InterruptedException {
+        while (missingChunks.isEmpty() && nRemainingChunks > 0)
+            wait(); // chunks being fetched may fail and return to the queue
+        return nRemainingChunks == 0 ? -1 : missingChunks.poll();
+    }
+
+    synchronized int getChunkLength(int index) {
+        return Math.min(agreedChunkSize, agreedStateSize - index * agreedChunkSize);
+    }
+
+    /**
+     * @return True if the chunk is valid. Returns false and queues the chunk to be fetched again otherwise
+     */
+    boolean deliverChunk(int index, byte[] chunk, StreamingDigest digest) {
+        if (chunk.length != getChunkLength(index) || !Arrays.equals(digest.digest(chunk), agreedChunkHashes[index])) {
+            failChunk(index);
+            return false;
+        }
+        System.arraycopy(chunk, 0, commonState, index * agreedChunkSize, chunk.length);
+        if (progress != null)
+            progress.chunkVerified(index);
+        synchronized (this) {
+            nRemainingChunks--;
+            if (nRemainingChunks == 0)
+                notifyAll();
+        }
+        return true;
+    }
+
+    synchronized void failChunk(int index) {
+        missingChunks.addFirst(index);
+        notifyAll();
+    }
+
+    /**
+     * @return Common state if all its chunks were received or null otherwise
+     */
+    synchronized byte[] getCommonState() {
+        return agreedAnnouncement != null && nRemainingChunks == 0 ? commonState : null;
+    }
+}
@@ -0,0 +1,74 @@
+package confidential.statemanagement.privatestate.receiver;
+
+import vss.secretsharing.VerifiableShare;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Shares reconstructed in chunks by the blinded state handler, in the order in which they appear in the common
+ * state. The state combiner consumes them while the remaining chunks are still being received and reconstructed,
+ * blocking until the next share is available.
+ */
+public class ReconstructedShares implements Iterator<VerifiableShare> {
+    private final int nShares;
+    private final Deque<VerifiableShare> availableShares;
+    private int nConsumedShares;
+    private boolean closed;
+
+    ReconstructedShares(int nShares) {
+        this.nShares = nShares;
+        this.availableShares = new ArrayDeque<>();
+    }
+
+    public int getNumberOfShares() {
+        return nShares;
+    }
+
+    synchronized void add(VerifiableShare[] shares) {
+        Collections.addAll(availableShares, shares);
+        notifyAll();
+    }
+
+    /**
+     * Wakes up the consumer when no more shares will be reconstructed.
+     */
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean hasNext() {
+        return nConsumedShares < nShares;
+    }
+
+    /**
+     * @throws NoSuchElementException If all shares were consumed or the reconstruction stopped before this share
+     */
+    @Override
+    public synchronized VerifiableShare next() {
+        if (nConsumedShares >= nShares)
+            throw new NoSuchElementException();
+        try {
+            while (availableShares.isEmpty() && !closed)
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (availableShares.isEmpty())
+            throw new NoSuchElementException("Share reconstruction stopped at share " + nConsumedShares);
+        nConsumedShares++;
+        return availableShares.poll();
+    }
+
+    /**
+     * Shares are already discarded once consumed.
+     */
+    @Override
+    public void remove() {
+    }
+}
@@ -2,11 +2,21 @@ package confidential.statemanagement.privatestate.receiver;
 
 import vss.secretsharing.VerifiableShare;
 
-import java.util.LinkedList;
+import java.util.Iterator;
 
 /**
  * @author robin
  */
 public interface StateReceivedListener {
-	void onStateReceived(byte[] commonState, LinkedList<VerifiableShare> shares);
+	/**
+	 * Called before the shares are reconstructed. The shares are reconstructed by the caller thread, so they must be
+	 * consumed by another thread.
+	 */
+	void onStateReceived(byte[] commonState, Iterator<VerifiableShare> shares);
+
+	/**
+	 * Called when no more blinded data will arrive and the state cannot be reconstructed with the data received.
+	 */
+	default void onStateTransferStalled() {
+	}
 }
@@ -0,0 +1,94 @@
+package confidential.statemanagement.privatestate.receiver;
+
+import vss.secretsharing.VerifiableShare;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Verified progress of the recovery state transfer up to a consensus id, kept across retries. It holds the chunks
+ * of the common state that matched the agreed Merkle root and the prefix of the private state that was already
+ * reconstructed, so a retry only fetches the missing chunks and asks the senders to blind the shares that follow
+ * the prefix. Blinded shares are not kept, since every retry uses new blinding polynomials.
+ */
+public class StateTransferProgress {
+    private final int cid;
+    private byte[] commonStateRoot;
+    private int commonStateChunkSize;
+    private byte[] commonState;
+    private boolean[] verifiedChunks;
+    private int nVerifiedChunks;
+    private final List<VerifiableShare> reconstructedShares;
+
+    public StateTransferProgress(int cid) {
+        this.cid = cid;
+        this.reconstructedShares = new ArrayList<>();
+    }
+
+    public int getCid() {
+        return cid;
+    }
+
+    /**
+     * @return Number of reconstructed shares, from which the senders are asked to resume
+     */
+    public synchronized int getNumberOfReconstructedShares() {
+        return reconstructedShares.size();
+    }
+
+    /**
+     * @return Number of verified chunks of the common state plus number of reconstructed shares
+     */
+    public synchronized long getVerifiedProgress() {
+        return (long) nVerifiedChunks + reconstructedShares.size();
+    }
+
+    synchronized VerifiableShare[] getReconstructedShares() {
+        return reconstructedShares.toArray(new VerifiableShare[0]);
+    }
+
+    /**
+     * Appends shares reconstructed from position firstShare. Shares already recorded by a previous attempt are
+     * skipped, since both attempts reconstruct the same shares for the same common state.
+     */
+    synchronized void addReconstructedShares(int firstShare, VerifiableShare[] shares) {
+        int skip = reconstructedShares.size() - firstShare;
+        if (skip < 0)
+            return;
+        for (int i = skip; i < shares.length; i++)
+            reconstructedShares.add(shares[i]);
+    }
+
+    /**
+     * Returns the buffer where the verified chunks of the common state with the given root are kept. If the root or
+     * the layout differs from the one of a previous attempt, everything recorded so far is discarded.
+     */
+    synchronized byte[] resumeCommonState(byte[] root, int stateSize, int chunkSize, int nChunks) {
+        if (commonStateRoot == null || !Arrays.equals(commonStateRoot, root) || commonState.length != stateSize
+                || commonStateChunkSize != chunkSize) {
+            commonStateRoot = root;
+            commonStateChunkSize = chunkSize;
+            commonState = new byte[stateSize];
+            verifiedChunks = new boolean[nChunks];
+            nVerifiedChunks = 0;
+            reconstructedShares.clear();
+        }
+        return commonState;
+    }
+
+    synchronized boolean isChunkVerified(int index) {
+        return verifiedChunks[index];
+    }
+
+    synchronized void chunkVerified(int index) {
+        if (!verifiedChunks[index]) {
+            verifiedChunks[index] = true;
+            nVerifiedChunks++;
+        }
+    }
+
+    synchronized boolean hasCommonStateRoot(byte[] root) {
+        return Arrays.equals(commonStateRoot, root);
+    }
+}
@@ -1,16 +1,14 @@
 package confidential.statemanagement.privatestate.sender;
 
 import confidential.Configuration;
-import confidential.statemanagement.utils.HashThread;
+import confidential.statemanagement.utils.StreamingDigest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.commitment.Commitment;
 import vss.commitment.CommitmentUtils;
 
 import javax.net.SocketFactory;
-import java.io.IOException;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
+import java.io.*;
 import java.net.ConnectException;
 import java.net.Socket;
 import java.net.SocketException;
@@ -30,8 +28,11 @@ public class BlindedDataSender extends Thread {
     private final Condition waitingSharesCondition;
     private final Condition waitingCommonStateCondition;
     private BlindedShares blindedShares;
+    private int nReleasedChunks;
+    private boolean finished;
     private byte[] commonState;
-    private byte[] commonStateHash;
+    private byte[][] commonStateChunkHashes;
+    private int commonStateChunkSize;
     private final CommitmentUtils commitmentUtils;
 
     public BlindedDataSender(int pid, String receiverServersIp, int receiverServerPort, boolean iAmStateSender) {
@@ -49,14 +50,17 @@ public class BlindedDataSender extends Thread {
     public void setBlindedShares(BlindedShares blindedShares) {
         lock.lock();
         this.blindedShares = blindedShares;
+        if (finished)
+            releaseSentChunks(Integer.MAX_VALUE);
         waitingSharesCondition.signal();
         lock.unlock();
     }
 
-    public void setCommonState(byte[] commonState, byte[] commonStateHash) {
+    public void setCommonState(byte[] commonState, byte[][] chunkHashes, int chunkSize) {
         lock.lock();
         this.commonState = commonState;
-        this.commonStateHash = commonStateHash;
+        this.commonStateChunkHashes = chunkHashes;
+        this.commonStateChunkSize = chunkSize;
         waitingCommonStateCondition.signal();
         lock.unlock();
     }
@@ -67,10 +71,12 @@ public class BlindedDataSender extends Thread {
         try {
             //Waiting for common state
             lock.lock();
-            if (commonState == null && commonStateHash == null) {
-                waitingCommonStateCondition.await();
+            try {
+                while (commonState == null)
+                    waitingCommonStateCondition.await();
+            } finally {
+                lock.unlock();
             }
-            lock.unlock();
 
             //connecting
             logger.debug("Connecting to {}:{}", receiverServersIp, receiverServerPort);
@@ -92,89 +98,84 @@ public class BlindedDataSender extends Thread {
                 connection.setKeepAlive(true);
                 connection.setTcpNoDelay(true);
                 out.writeInt(pid);
-                //Sending common state
-                if (iAmStateSender) {
-                    logger.debug("Sending {} bytes of common state", commonState.length);
-                    out.write(0); //sending full state
-                    out.writeInt(commonState.length);
-                    out.write(commonState);
-                } else {
-                    logger.debug("Sending common state hash");
-                    out.write(1); //sending hash
-                    out.writeInt(commonStateHash.length);
-                    out.write(commonStateHash);
+                //Sending common state chunks requested by the receiver
+                out.writeInt(commonState.length);
+                out.writeInt(commonStateChunkSize);
+                out.writeInt(commonStateChunkHashes.length);
+                for (byte[] chunkHash : commonStateChunkHashes) {
+                    out.writeInt(chunkHash.length);
+                    out.write(chunkHash);
                 }
                 out.flush();
-                logger.debug("Sent common state");
+                DataInput requests = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                int chunkIndex;
+                int nChunks = 0;
+                long totalCommonStateBytes = 0;
+                while ((chunkIndex = requests.readInt()) != -1) {
+                    if (chunkIndex < 0 || chunkIndex >= commonStateChunkHashes.length)
+                        throw new IOException("Receiver requested invalid chunk " + chunkIndex);
+                    int offset = chunkIndex * commonStateChunkSize;
+                    int len = Math.min(commonStateChunkSize, commonState.length - offset);
+                    out.writeInt(len);
+                    out.write(commonState, offset, len);
+                    out.flush();
+                    nChunks++;
+                    totalCommonStateBytes += len;
+                }
+                logger.debug("Sent {} bytes of common state in {} chunks", totalCommonStateBytes, nChunks);
 
                 //Waiting for blinded shares
                 lock.lock();
-                if (blindedShares == null) {
-                    waitingSharesCondition.await();
+                try {
+                    while (blindedShares == null)
+                        waitingSharesCondition.await();
+                } finally {
+                    lock.unlock();
                 }
-                lock.unlock();
                 logger.debug("Received blinded shares");
-                //Computing commitments hash
-                HashThread commitmentsHashThread = null;
-                Commitment[] commitments = blindedShares.getCommitment();
+                boolean sendingCommitments = !usingLinearScheme || iAmStateSender;
+                StreamingDigest commitmentsDigest = null;
                 if (usingLinearScheme) {
-                    if (iAmStateSender) {
-                        logger.debug("Sending {} commitments", commitments.length);
-                        out.write(0);//3 - sending commitments first
-                        out.writeInt(commitments.length);
-                        for (Commitment commitment : commitments) {
-                            commitmentUtils.writeCommitment(commitment, out);
-                        }
-                        out.flush();
-                    } else {
-                        out.write(1);//3 - not sending commitments first
-                        int totalCommitmentsArraySize = 4 * commitments.length;
-                        byte[] commitmentsHashArray = new byte[totalCommitmentsArraySize];
-                        commitmentsHashThread = new HashThread();
-                        commitmentsHashThread.setData(commitmentsHashArray);
-                        commitmentsHashThread.start();
-
-                        int index = 0;
-                        byte[] b;
-                        for (Commitment commitment : commitments) {
-                            b = confidential.Utils.toBytes(commitment.consistentHash());
-                            for (byte value : b) {
-                                commitmentsHashArray[index++] = value;
-                            }
-                            commitmentsHashThread.update(index - 4, 4);
-                        }
-                    }
-                } else {
-                    logger.debug("Sending {} commitments", commitments.length);
-                    out.writeInt(commitments.length);
-                    for (Commitment commitment : commitments) {
-                        commitmentUtils.writeCommitment(commitment, out);
-                    }
-                    out.flush();
+                    out.write(sendingCommitments ? 0 : 1);//3 - whether commitments are sent with the shares
+                    if (!sendingCommitments)
+                        commitmentsDigest = new StreamingDigest();
                 }
-
-                //Sending blinded shares
-                long totalBytes = 0;
                 byte[][] shares = blindedShares.getShare();
-                logger.debug("Sending {} blinded shares", shares.length);
+                Commitment[] commitments = blindedShares.getCommitment();
+                int commitmentsPerShare = blindedShares.getCommitmentsPerShare();
+                logger.debug("Sending {} blinded shares and {} commitments", shares.length, commitments.length);
                 out.writeInt(shares.length);
-                for (byte[] blindedShare : shares) {
-                    out.writeInt(blindedShare.length);
-                    out.write(blindedShare);
-                    totalBytes += blindedShare.length;
-                }
-                out.flush();
-                logger.debug("Sent {} bytes of blinded shares", totalBytes);
+                out.writeInt(commitments.length);
 
-                //Sending commitments
-                if (usingLinearScheme && commitmentsHashThread != null) {
-                    logger.debug("Sending commitments hash");
-                    commitmentsHashThread.update(-1, -1);
-                    byte[] commitmentsHash = commitmentsHashThread.getHash();
-                    out.writeInt(commitmentsHash.length);
-                    out.write(commitmentsHash);
+                //Sending each chunk of blinded shares with its commitments or their hash, as soon as it is blinded
+                long totalBytes = 0;
+                int nShareChunks = blindedShares.getNumberOfChunks();
+                for (int chunk = 0; chunk < nShareChunks; chunk++) {
+                    blindedShares.awaitChunk(chunk);
+                    int start = blindedShares.getChunkStart(chunk);
+                    int end = blindedShares.getChunkEnd(chunk);
+                    out.writeInt(end - start);
+                    for (int i = start * commitmentsPerShare; i < end * commitmentsPerShare; i++) {
+                        if (sendingCommitments)
+                            commitmentUtils.writeCommitment(commitments[i], out);
+                        else
+                            commitmentsDigest.updateInt(commitments[i].consistentHash());
+                    }
+                    for (int i = start; i < end; i++) {
+                        out.writeInt(shares[i].length);
+                        out.write(shares[i]);
+                        totalBytes += shares[i].length;
+                    }
+                    //Sending hash of the commitments of the chunk
+                    if (commitmentsDigest != null) {
+                        byte[] commitmentsHash = commitmentsDigest.digest();
+                        out.writeInt(commitmentsHash.length);
+                        out.write(commitmentsHash);
+                    }
+                    out.flush();
+                    releaseSentChunks(chunk + 1);
                 }
-                out.flush();
+                logger.debug("Sent {} bytes of blinded shares in {} chunks", totalBytes, nShareChunks);
                 logger.debug("Sent blinded data to {}:{}", receiverServersIp, receiverServerPort);
             }
             connection.close();
@@ -184,10 +185,27 @@ public class BlindedDataSender extends Thread {
         } catch (IOException | NoSuchAlgorithmException e) {
             logger.error("Failed to send data to {}:{}", receiverServersIp, receiverServerPort, e);
         } finally {
+            lock.lock();
+            finished = true;
+            releaseSentChunks(Integer.MAX_VALUE); // chunks this sender will not send must not hold the window
+            lock.unlock();
             logger.debug("Exiting blinded data sender for {}:{}", receiverServersIp, receiverServerPort);
         }
     }
 
+    private void releaseSentChunks(int nChunks) {
+        lock.lock();
+        try {
+            if (blindedShares == null)
+                return;
+            int end = Math.min(nChunks, blindedShares.getNumberOfChunks());
+            for (; nReleasedChunks < end; nReleasedChunks++)
+                blindedShares.releaseChunk(nReleasedChunks);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public void shutdown() {
         try {
             if (connection != null && connection.isConnected())
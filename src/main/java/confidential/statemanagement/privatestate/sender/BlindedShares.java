@@ -2,13 +2,38 @@ package confidential.statemanagement.privatestate.sender;
 
 import vss.commitment.Commitment;
 
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blinded shares and their commitments, produced and sent in chunks. Each chunk is sent by the data senders as soon
+ * as it is blinded and its entries are released once all data senders sent it. At most a window of chunks is
+ * blinded but not yet sent, which bounds the memory used by blinded shares.
+ */
 public class BlindedShares {
     private final byte[][] share;
     private final Commitment[] commitment;
+    private final int commitmentsPerShare;
+    private final int chunkSize;
+    private final CountDownLatch[] blindedChunks;
+    private final AtomicInteger[] pendingSenders;
+    private final Semaphore window;
 
-    public BlindedShares(byte[][] share, Commitment[] commitment) {
-        this.share = share;
-        this.commitment = commitment;
+    public BlindedShares(int nShares, int commitmentsPerShare, int chunkSize, int nSenders, int windowSize) {
+        this.share = new byte[nShares][];
+        this.commitment = new Commitment[nShares * commitmentsPerShare];
+        this.commitmentsPerShare = commitmentsPerShare;
+        this.chunkSize = chunkSize;
+        int nChunks = (nShares + chunkSize - 1) / chunkSize;
+        this.blindedChunks = new CountDownLatch[nChunks];
+        this.pendingSenders = new AtomicInteger[nChunks];
+        for (int i = 0; i < nChunks; i++) {
+            blindedChunks[i] = new CountDownLatch(1);
+            pendingSenders[i] = new AtomicInteger(nSenders);
+        }
+        this.window = new Semaphore(windowSize);
     }
 
     public byte[][] getShare() {
@@ -18,4 +43,48 @@ public class BlindedShares {
     public Commitment[] getCommitment() {
         return commitment;
     }
+
+    public int getCommitmentsPerShare() {
+        return commitmentsPerShare;
+    }
+
+    public int getNumberOfChunks() {
+        return blindedChunks.length;
+    }
+
+    public int getChunkStart(int chunk) {
+        return chunk * chunkSize;
+    }
+
+    public int getChunkEnd(int chunk) {
+        return Math.min(share.length, (chunk + 1) * chunkSize);
+    }
+
+    /**
+     * Waits until fewer than the window of chunks are blinded but not yet sent by all data senders.
+     */
+    void acquireWindow() throws InterruptedException {
+        window.acquire();
+    }
+
+    void completeChunk(int chunk) {
+        blindedChunks[chunk].countDown();
+    }
+
+    void awaitChunk(int chunk) throws InterruptedException {
+        blindedChunks[chunk].await();
+    }
+
+    /**
+     * Called by each data sender after sending the chunk or when it will not send it.
+     */
+    void releaseChunk(int chunk) {
+        if (pendingSenders[chunk].decrementAndGet() != 0)
+            return;
+        int start = getChunkStart(chunk);
+        int end = getChunkEnd(chunk);
+        Arrays.fill(share, start, end, null);
+        Arrays.fill(commitment, start * commitmentsPerShare, end * commitmentsPerShare, null);
+        window.release();
+    }
 }
@@ -1,27 +1,32 @@
 package confidential.statemanagement.privatestate.sender;
 
 import bftsmart.reconfiguration.ServerViewController;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
-import confidential.statemanagement.utils.HashThread;
+import confidential.Configuration;
+import confidential.statemanagement.utils.MerkleTree;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import vss.commitment.Commitment;
+import vss.facade.SecretSharingException;
 import vss.secretsharing.Share;
 import vss.secretsharing.VerifiableShare;
 
 import java.security.NoSuchAlgorithmException;
 import java.util.LinkedList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 public abstract class BlindedStateSender extends Thread {
     protected final Logger logger = LoggerFactory.getLogger("state_transfer");
+    private static final int BLINDING_CHUNK_SIZE = 1024;
     private final ServerViewController svController;
     private final int pid;
     private final byte[] commonState;
-    private final LinkedList<Share> shares;
-    private final LinkedList<Commitment> commitments;
+    private final Share[] shares;
+    private final Commitment[] commitments;
     private final int blindedStateReceiverPort;
     protected final ServerConfidentialityScheme confidentialityScheme;
     private final boolean iAmStateSender;
@@ -30,6 +35,7 @@ public abstract class BlindedStateSender extends Thread {
     private final Lock lock;
     private final Condition waitingBlindingSharesCondition;
     private BlindedDataSender[] stateSenders;
+    private volatile boolean stopped;
 
     public BlindedStateSender(ServerViewController svController, byte[] commonState, LinkedList<Share> shares,
                               LinkedList<Commitment> commitments, int blindedStateReceiverPort,
@@ -40,8 +46,8 @@ public abstract class BlindedStateSender extends Thread {
         this.svController = svController;
         this.pid = svController.getStaticConf().getProcessId();
         this.commonState = commonState;
-        this.shares = shares;
-        this.commitments = commitments;
+        this.shares = shares.toArray(new Share[0]);
+        this.commitments = commitments.toArray(new Commitment[0]);
         this.blindedStateReceiverPort = blindedStateReceiverPort;
         this.confidentialityScheme = confidentialityScheme;
         this.iAmStateSender = iAmStateSender;
@@ -56,6 +62,7 @@ public abstract class BlindedStateSender extends Thread {
             stateSender.shutdown();
             stateSender.interrupt();
         }
+        stopped = true;
         super.interrupt();
     }
 
@@ -82,17 +89,11 @@ public abstract class BlindedStateSender extends Thread {
                 stateSenders[i] = stateSender;
             }
 
-            HashThread commonStateHashThread = null;
-            if (iAmStateSender) {
-                for (BlindedDataSender stateSender : stateSenders) {
-                    stateSender.setCommonState(commonState, null);
-                }
-            } else {
-                commonStateHashThread = new HashThread();
-                commonStateHashThread.setData(commonState);
-                commonStateHashThread.start();
-                commonStateHashThread.update(0, commonState.length);
-                commonStateHashThread.update(-1, -1);
+            // every sender serves chunks of the common state, which the receivers fetch in parallel
+            int chunkSize = Configuration.getInstance().getRecoveryChunkSize();
+            byte[][] chunkHashes = MerkleTree.hashChunks(commonState, chunkSize);
+            for (BlindedDataSender stateSender : stateSenders) {
+                stateSender.setCommonState(commonState, chunkHashes, chunkSize);
             }
             lock.lock();
             try {
@@ -106,36 +107,76 @@ public abstract class BlindedStateSender extends Thread {
 
             logger.debug("Received blinding shares");
 
-            if (commonStateHashThread != null) {
-                byte[] commonStateHash = commonStateHashThread.getHash();
-                for (BlindedDataSender stateSender : stateSenders) {
-                    stateSender.setCommonState(null, commonStateHash);
-                }
-            }
-
             t1 = System.nanoTime();
-            BlindedShares blindedShares = computeBlindedShares(shares, commitments, blindingShares);
+            int nThreads = Configuration.getInstance().getShareProcessingThreads();
+            BlindedShares blindedShares = new BlindedShares(shares.length, getCommitmentsPerShare(),
+                    BLINDING_CHUNK_SIZE, stateSenders.length, 4 * nThreads);
+            for (BlindedDataSender stateSender : stateSenders) {
+                stateSender.setBlindedShares(blindedShares);
+            }
+            try {
+                computeBlindedShares(blindedShares);
+            } catch (InterruptedException e) {
+                return;
+            }
             t2 = System.nanoTime();
             blindingShares = null;
             totalElapsed += t2 - t1;
             double total = totalElapsed / 1_000_000.0;
-            if (blindedShares == null) {
-                logger.error("Blinded shares are null. Exiting blinded state sender thread.");
-                return;
-            }
-            logger.info("Took {} ms to compute blinded shares [{} shares]", total, blindedShares.getShare().length);
-
-            for (BlindedDataSender stateSender : stateSenders) {
-                stateSender.setBlindedShares(blindedShares);
-            }
+            logger.info("Took {} ms to compute blinded shares while sending them [{} shares]", total,
+                    blindedShares.getShare().length);
 
         } catch (NoSuchAlgorithmException e) {
-            logger.error("Failed to create hash thread.", e);
+            logger.error("Failed to hash common state.", e);
         }
 
         logger.debug("Existing blinded state sender thread");
     }
 
-    protected abstract BlindedShares computeBlindedShares(LinkedList<Share> shares, LinkedList<Commitment> commitments,
-                                                            VerifiableShare[] blindingShares);
+    /**
+     * Blinds the shares chunk by chunk. The data senders send each chunk as soon as it is blinded, while the number
+     * of chunks blinded but not yet sent is bounded by the window of the blinded shares.
+     */
+    private void computeBlindedShares(BlindedShares blindedShares) throws InterruptedException {
+        logger.debug("Computing blinded shares");
+        ComputeScheduler computeScheduler = ComputeScheduler.getInstance();
+        byte[][] resultingShares = blindedShares.getShare();
+        Commitment[] resultingCommitments = blindedShares.getCommitment();
+        VerifiableShare[] blindingShares = this.blindingShares;
+        CountDownLatch latch = new CountDownLatch(blindedShares.getNumberOfChunks());
+        for (int chunk = 0; chunk < blindedShares.getNumberOfChunks(); chunk++) {
+            blindedShares.acquireWindow();
+            int start = blindedShares.getChunkStart(chunk);
+            int end = blindedShares.getChunkEnd(chunk);
+            int finalChunk = chunk;
+            computeScheduler.execute(getComputeClass(), () -> {
+                for (int i = start; i < end && !stopped; i++) {
+                    try {
+                        blindShare(i, shares[i], commitments[i], blindingShares[i], resultingShares,
+                                resultingCommitments);
+                    } catch (SecretSharingException e) {
+                        logger.error("Failed to create blinded share", e);
+                    }
+                    shares[i] = null;
+                    commitments[i] = null;
+                    blindingShares[i] = null;
+                }
+                blindedShares.completeChunk(finalChunk);
+                latch.countDown();
+            });
+        }
+        latch.await();
+        logger.debug("{}", computeScheduler.getMetrics(getComputeClass()));
+    }
+
+    protected abstract ComputeScheduler.ComputeClass getComputeClass();
+
+    protected abstract int getCommitmentsPerShare();
+
+    /**
+     * Stores the blinded share at the given index and its commitments from index * getCommitmentsPerShare().
+     */
+    protected abstract void blindShare(int index, Share share, Commitment commitment, VerifiableShare blindingShare,
+                                       byte[][] resultingShares, Commitment[] resultingCommitments)
+            throws SecretSharingException;
 }
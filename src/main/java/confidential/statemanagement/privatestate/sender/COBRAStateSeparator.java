@@ -5,6 +5,7 @@ import bftsmart.consensus.messages.ConsensusMessage;
 import bftsmart.tom.MessageContext;
 import bftsmart.tom.server.defaultservices.CommandsInfo;
 import bftsmart.tom.server.defaultservices.DefaultApplicationState;
+import confidential.MessageType;
 import confidential.server.Request;
 import confidential.statemanagement.ConfidentialSnapshot;
 import org.slf4j.Logger;
@@ -26,6 +27,12 @@ import java.util.List;
  * @author robin
  */
 public class COBRAStateSeparator extends Thread {
+	/**
+	 * Written instead of the number of shares of a command to mark a {@link MessageType#CLIENT_BATCH} request,
+	 * whose shares are separated per operation.
+	 */
+	public static final int BATCH_MARKER = -2;
+
 	private final Logger logger = LoggerFactory.getLogger("state_transfer");
 	private final DefaultApplicationState applicationState;
 	private final StateSeparationListener separationListener;
@@ -68,7 +75,7 @@ public class COBRAStateSeparator extends Thread {
 			}
 
 			ConfidentialSnapshot snapshot = null;
-			if (state.hasState()) {
+			if (state.hasState() && state.getSerializedState() != null) {
 				snapshot = ConfidentialSnapshot.deserialize(state.getSerializedState());
 			}
 
@@ -116,7 +123,27 @@ public class COBRAStateSeparator extends Thread {
 			outCommonState.writeInt(commands.length);
 			for (byte[] command : commands) {
 				Request request = Request.deserialize(command);
-				if (request == null || request.getShares() == null) {
+				if (request != null && request.getType() == MessageType.CLIENT_BATCH) {
+					Request[] operations = request.getOperations();
+					outCommonState.writeInt(BATCH_MARKER);
+					outCommonState.writeInt(operations.length);
+					for (Request operation : operations) {
+						VerifiableShare[] shares = operation.getShares();
+						outCommonState.writeInt(shares == null ? -1 : shares.length);
+						if (shares != null) {
+							separateShares(shares, outCommonState, sharesToSend, commitmentsToSend);
+							operation.setShares(null);
+						}
+					}
+					request.setMissingShares(false);
+					b = request.serialize();
+					if (b == null) {
+						logger.debug("Failed to serialize blinded request batch");
+						return;
+					}
+					outCommonState.writeInt(b.length);
+					outCommonState.write(b);
+				} else if (request == null || request.getShares() == null) {
 					outCommonState.writeInt(-1);
 					outCommonState.writeInt(command.length);
 					outCommonState.write(command);
@@ -124,6 +151,7 @@ public class COBRAStateSeparator extends Thread {
 					outCommonState.writeInt(request.getShares().length);
 					separateShares(request.getShares(), outCommonState, sharesToSend, commitmentsToSend);
 					request.setShares(null);
+					request.setMissingShares(false);
 					b = request.serialize();
 					if (b == null) {
 						logger.debug("Failed to serialize blinded request");
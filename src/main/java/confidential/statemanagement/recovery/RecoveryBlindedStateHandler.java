@@ -1,10 +1,11 @@
 package confidential.statemanagement.recovery;
 
 import bftsmart.reconfiguration.ServerViewController;
-import confidential.Configuration;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import confidential.statemanagement.privatestate.receiver.BlindedStateHandler;
 import confidential.statemanagement.privatestate.receiver.StateReceivedListener;
+import confidential.statemanagement.privatestate.receiver.StateTransferProgress;
 import vss.commitment.Commitment;
 import vss.facade.SecretSharingException;
 import vss.polynomial.Polynomial;
@@ -14,8 +15,6 @@ import vss.secretsharing.VerifiableShare;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class RecoveryBlindedStateHandler extends BlindedStateHandler {
 
@@ -25,6 +24,19 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
         super(svController, serverPort, f, quorum, stateSenderReplica, confidentialityScheme, stateReceivedListener);
     }
 
+    public RecoveryBlindedStateHandler(ServerViewController svController, int serverPort, int f, int quorum,
+                                       int stateSenderReplica, ServerConfidentialityScheme confidentialityScheme,
+                                       StateReceivedListener stateReceivedListener, StateTransferProgress progress,
+                                       int resumeShare) {
+        super(svController, serverPort, f, quorum, stateSenderReplica, confidentialityScheme, stateReceivedListener,
+                progress, resumeShare);
+    }
+
+    @Override
+    protected ComputeScheduler.ComputeClass getComputeClass() {
+        return ComputeScheduler.ComputeClass.RECOVERY;
+    }
+
     @Override
     protected Share[] reconstructBlindedShares(int from, byte[][] shares) {
         BigInteger shareholder = confidentialityScheme.getShareholder(from);
@@ -37,10 +49,8 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
     }
 
     @Override
-    protected LinkedList<VerifiableShare> reconstructShares(int nShares, Map<Integer, Share[]> allBlindedShares,
-                                                          Map<BigInteger, Commitment[]> allBlindedCommitments) {
-        ExecutorService executorService = Executors
-                .newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads());
+    protected VerifiableShare[] reconstructShares(int firstShare, int nShares, Map<Integer, Share[]> allBlindedShares,
+                                                  Map<BigInteger, Commitment[]> allBlindedCommitments) {
         CountDownLatch latch = new CountDownLatch(nShares);
 
         VerifiableShare[] recoveredShares = new VerifiableShare[nShares];
@@ -57,12 +67,12 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
         }
 
         for (int i = 0; i < nShares; i++) {
-            Map<Integer, Share> blindedShares = new HashMap<>(stillValidSenders.size());
-            Map<BigInteger, Commitment> commitments = new HashMap<>(stillValidSenders.size());
-            Map<BigInteger, Commitment> blindingCommitments = new HashMap<>(stillValidSenders.size());
-            int index = i * 2;
+            Map<Integer, Share> blindedShares = new HashMap<>(servers.length);
+            Map<BigInteger, Commitment> commitments = new HashMap<>(shareholders.length);
+            Map<BigInteger, Commitment> blindingCommitments = new HashMap<>(shareholders.length);
+            int index = (firstShare + i) * 2;
             for (Integer server : servers) {
-                blindedShares.put(server, allBlindedShares.get(server)[i]);
+                blindedShares.put(server, allBlindedShares.get(server)[firstShare + i]);
             }
             for (BigInteger shareholder : shareholders) {
                 commitments.put(shareholder, allBlindedCommitments.get(shareholder)[index]);
@@ -70,11 +80,8 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
             }
 
             int finalI = i;
-            executorService.execute(() -> {
-                VerifiableShare recoveredShare = recoverShare(blindedShares, commitments, blindingCommitments);
-                if (recoveredShare == null)
-                    return;
-                recoveredShares[finalI] = recoveredShare;
+            computeScheduler.execute(getComputeClass(), () -> {
+                recoveredShares[finalI] = recoverShare(blindedShares, commitments, blindingCommitments);
                 latch.countDown();
             });
         }
@@ -82,16 +89,14 @@ public class RecoveryBlindedStateHandler extends BlindedStateHandler {
         try {
             latch.await();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            return null;
         }
-        executorService.shutdown();
-        LinkedList<VerifiableShare> result = new LinkedList<>();
-        for (VerifiableShare refreshedShare : recoveredShares) {
-            if (refreshedShare == null)
+        for (VerifiableShare recoveredShare : recoveredShares) {
+            if (recoveredShare == null)
                 return null;
-            result.add(refreshedShare);
         }
-        return result;
+        return recoveredShares;
     }
 
     private VerifiableShare recoverShare(Map<Integer, Share> blindedShares, Map<BigInteger, Commitment> commitments,
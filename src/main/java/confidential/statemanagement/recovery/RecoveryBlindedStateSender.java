@@ -1,20 +1,15 @@
 package confidential.statemanagement.recovery;
 
 import bftsmart.reconfiguration.ServerViewController;
-import confidential.Configuration;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
-import confidential.statemanagement.privatestate.sender.BlindedShares;
 import confidential.statemanagement.privatestate.sender.BlindedStateSender;
 import vss.commitment.Commitment;
 import vss.secretsharing.Share;
 import vss.secretsharing.VerifiableShare;
 
 import java.math.BigInteger;
-import java.util.Iterator;
 import java.util.LinkedList;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class RecoveryBlindedStateSender extends BlindedStateSender {
 
@@ -27,43 +22,23 @@ public class RecoveryBlindedStateSender extends BlindedStateSender {
     }
 
     @Override
-    protected BlindedShares computeBlindedShares(LinkedList<Share> shares, LinkedList<Commitment> commitments,
-                                                 VerifiableShare[] blindingShares) {
-        logger.debug("Computing blinded shares");
-        ExecutorService executorService = Executors
-                .newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads());
-        int nShares = shares.size();
-        byte[][] resultingShares = new byte[nShares][];
-        Commitment[] resultingCommitments = new Commitment[nShares * 2];
-
-        Iterator<Share> shareIterator = shares.iterator();
-        Iterator<Commitment> commitmentsIterator = commitments.iterator();
-        CountDownLatch latch = new CountDownLatch(nShares);
-        BigInteger field = confidentialityScheme.getField();
-        int recoveringServer = blindedStateReceivers[0];
-        for (int i = 0; i < nShares; i++) {
-            VerifiableShare blindingShare = blindingShares[i];
-            Share share = shareIterator.next();
-            Commitment commitment = commitmentsIterator.next();
-            int finalI = i;
-            executorService.execute(() -> {
-                int index = finalI * 2;
-                BigInteger blindedShare = share.getShare().add(blindingShare.getShare().getShare()).mod(field);
-                resultingShares[finalI] = confidentialityScheme.encryptDataFor(recoveringServer,
-                        blindedShare.toByteArray());
-                resultingCommitments[index] = commitment;
-                resultingCommitments[index + 1] = blindingShare.getCommitments();
-                latch.countDown();
-            });
-        }
+    protected ComputeScheduler.ComputeClass getComputeClass() {
+        return ComputeScheduler.ComputeClass.RECOVERY;
+    }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
-        executorService.shutdown();
+    @Override
+    protected int getCommitmentsPerShare() {
+        return 2;
+    }
 
-        return new BlindedShares(resultingShares, resultingCommitments);
+    @Override
+    protected void blindShare(int index, Share share, Commitment commitment, VerifiableShare blindingShare,
+                              byte[][] resultingShares, Commitment[] resultingCommitments) {
+        BigInteger blindedShare = share.getShare().add(blindingShare.getShare().getShare())
+                .mod(confidentialityScheme.getField());
+        resultingShares[index] = confidentialityScheme.encryptDataFor(blindedStateReceivers[0],
+                blindedShare.toByteArray());
+        resultingCommitments[index * 2] = commitment;
+        resultingCommitments[index * 2 + 1] = blindingShare.getCommitments();
     }
 }
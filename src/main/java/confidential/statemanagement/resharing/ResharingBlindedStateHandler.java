@@ -1,7 +1,7 @@
 package confidential.statemanagement.resharing;
 
 import bftsmart.reconfiguration.ServerViewController;
-import confidential.Configuration;
+import confidential.server.ComputeScheduler;
 import confidential.server.ServerConfidentialityScheme;
 import confidential.statemanagement.privatestate.receiver.BlindedStateHandler;
 import confidential.statemanagement.privatestate.receiver.StateReceivedListener;
@@ -14,8 +14,6 @@ import vss.secretsharing.VerifiableShare;
 import java.math.BigInteger;
 import java.util.*;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -43,6 +41,11 @@ public class ResharingBlindedStateHandler extends BlindedStateHandler {
         lock.unlock();
     }
 
+    @Override
+    protected ComputeScheduler.ComputeClass getComputeClass() {
+        return ComputeScheduler.ComputeClass.RENEWAL;
+    }
+
     @Override
     protected Share[] reconstructBlindedShares(int from, byte[][] shares) {
         BigInteger shareholder = confidentialityScheme.getShareholder(from);
@@ -54,20 +57,18 @@ public class ResharingBlindedStateHandler extends BlindedStateHandler {
     }
 
     @Override
-    protected LinkedList<VerifiableShare> reconstructShares(int nShares,
-                                                          Map<Integer, Share[]> allBlindedShares,
-                                                          Map<BigInteger, Commitment[]> allBlindedCommitments) {
+    protected VerifiableShare[] reconstructShares(int firstShare, int nShares, Map<Integer, Share[]> allBlindedShares,
+                                                  Map<BigInteger, Commitment[]> allBlindedCommitments) {
         lock.lock();
-        if (refreshShares == null) {
-            try {
+        try {
+            while (refreshShares == null)
                 waitingForRefreshShares.await();
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } finally {
+            lock.unlock();
         }
-        lock.unlock();
-        ExecutorService executorService = Executors
-                .newFixedThreadPool(Configuration.getInstance().getShareProcessingThreads());
         CountDownLatch latch = new CountDownLatch(nShares);
 
         VerifiableShare[] recoveredShares = new VerifiableShare[nShares];
@@ -84,17 +85,17 @@ public class ResharingBlindedStateHandler extends BlindedStateHandler {
         }
 
         for (int i = 0; i < nShares; i++) {
-            Map<Integer, Share> blindedShares = new HashMap<>(stillValidSenders.size());
-            Map<BigInteger, Commitment> blindedCommitments = new HashMap<>(stillValidSenders.size());
+            Map<Integer, Share> blindedShares = new HashMap<>(servers.length);
+            Map<BigInteger, Commitment> blindedCommitments = new HashMap<>(shareholders.length);
             for (Integer server : servers) {
-                blindedShares.put(server, allBlindedShares.get(server)[i]);
+                blindedShares.put(server, allBlindedShares.get(server)[firstShare + i]);
             }
             for (BigInteger shareholder : shareholders) {
-                blindedCommitments.put(shareholder, allBlindedCommitments.get(shareholder)[i]);
+                blindedCommitments.put(shareholder, allBlindedCommitments.get(shareholder)[firstShare + i]);
             }
-            VerifiableShare refreshShare = refreshShares[i];
+            VerifiableShare refreshShare = refreshShares[firstShare + i];
             int finalI = i;
-            executorService.execute(() -> {
+            computeScheduler.execute(getComputeClass(), () -> {
                 try {
                     VerifiableShare vs = recoverShare(blindedShares, blindedCommitments);
                     if (vs == null) {
@@ -115,24 +116,23 @@ public class ResharingBlindedStateHandler extends BlindedStateHandler {
                     recoveredShares[finalI] = vs;
                 } catch (SecretSharingException e) {
                     logger.error("Failed to refresh a share", e);
+                } finally {
+                    latch.countDown();
                 }
-                latch.countDown();
             });
         }
 
         try {
             latch.await();
         } catch (InterruptedException e) {
-            e.printStackTrace();
+            Thread.currentThread().interrupt();
+            return null;
         }
-        executorService.shutdown();
-        LinkedList<VerifiableShare> result = new LinkedList<>();
         for (VerifiableShare refreshedShare : recoveredShares) {
             if (refreshedShare == null)
                 return null;
-            result.add(refreshedShare);
         }
-        return result;
+        return recoveredShares;
     }
 
     private VerifiableShare recoverShare(Map<Integer, Share> blindedShares,
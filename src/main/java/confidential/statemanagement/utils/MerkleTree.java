@@ -0,0 +1,63 @@
+package confidential.statemanagement.utils;
+
+import bftsmart.tom.util.TOMUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.IntStream;
+
+/**
+ * Merkle tree over the fixed-size chunks of a byte array. Leaves are the hashes of the chunks and each inner node
+ * is the hash of its two children. A node without a sibling is promoted to the next level unchanged.
+ */
+public final class MerkleTree {
+    private static final ThreadLocal<MessageDigest> DIGESTS = ThreadLocal.withInitial(() -> {
+        try {
+            return TOMUtil.getHashEngine();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private MerkleTree() {}
+
+    public static int getNumberOfChunks(int dataLength, int chunkSize) {
+        return (int) (((long) dataLength + chunkSize - 1) / chunkSize);
+    }
+
+    /**
+     * Hashes the chunks in parallel, each one with the digest of the thread that hashes it.
+     */
+    public static byte[][] hashChunks(byte[] data, int chunkSize) throws NoSuchAlgorithmException {
+        TOMUtil.getHashEngine(); // fails here if the algorithm is not available
+        byte[][] chunkHashes = new byte[getNumberOfChunks(data.length, chunkSize)][];
+        IntStream.range(0, chunkHashes.length).parallel().forEach(i -> {
+            MessageDigest digest = DIGESTS.get();
+            int offset = i * chunkSize;
+            digest.update(data, offset, Math.min(chunkSize, data.length - offset));
+            chunkHashes[i] = digest.digest();
+        });
+        return chunkHashes;
+    }
+
+    public static byte[] computeRoot(byte[][] chunkHashes) throws NoSuchAlgorithmException {
+        MessageDigest digest = TOMUtil.getHashEngine();
+        if (chunkHashes.length == 0)
+            return digest.digest();
+        byte[][] level = chunkHashes;
+        while (level.length > 1) {
+            byte[][] nextLevel = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < nextLevel.length; i++) {
+                if (2 * i + 1 < level.length) {
+                    digest.update(level[2 * i]);
+                    digest.update(level[2 * i + 1]);
+                    nextLevel[i] = digest.digest();
+                } else {
+                    nextLevel[i] = level[2 * i];
+                }
+            }
+            level = nextLevel;
+        }
+        return level[0];
+    }
+}
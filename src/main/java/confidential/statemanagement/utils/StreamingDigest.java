@@ -0,0 +1,54 @@
+package confidential.statemanagement.utils;
+
+import bftsmart.tom.util.TOMUtil;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Digest updated by the thread that reads or writes the data, as each piece goes through the stream. Updates do not
+ * allocate, so hashing costs only the digest computation itself.
+ */
+public final class StreamingDigest {
+    private final MessageDigest digest;
+    private final byte[] intBuffer;
+
+    public StreamingDigest() throws NoSuchAlgorithmException {
+        this.digest = TOMUtil.getHashEngine();
+        this.intBuffer = new byte[4];
+    }
+
+    public void update(byte[] data) {
+        digest.update(data);
+    }
+
+    public void update(byte[] data, int offset, int len) {
+        digest.update(data, offset, len);
+    }
+
+    /**
+     * Updates the digest with the big-endian bytes of the value, as written by {@link confidential.Utils#toBytes(int)}.
+     */
+    public void updateInt(int value) {
+        intBuffer[0] = (byte) (value >>> 24);
+        intBuffer[1] = (byte) (value >>> 16);
+        intBuffer[2] = (byte) (value >>> 8);
+        intBuffer[3] = (byte) value;
+        digest.update(intBuffer, 0, 4);
+    }
+
+    /**
+     * Completes the digest and resets it for the next data.
+     */
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    /**
+     * Computes the digest of the data at once, discarding any previous updates.
+     */
+    public byte[] digest(byte[] data) {
+        digest.reset();
+        return digest.digest(data);
+    }
+}
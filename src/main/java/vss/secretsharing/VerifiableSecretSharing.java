@@ -153,9 +153,7 @@ public class VerifiableSecretSharing {
                     //generating a random encryption key
                     secretAsNumber = new BigInteger(field.bitLength() - 1, rndGenerator);
                     //Encrypting data
-                    byte[] secretKeyBytes = messageDigest.digest(secretAsNumber.toByteArray());
-
-                    SecretKey key = new SecretKeySpec(secretKeyBytes, dataEncryptionAlgorithm);
+                    SecretKey key = computeSecretKey(secretAsNumber);
                     sharedData = encrypt(dataCipher, data, key, dataEncryptionLock);
                     break;
                 case SMALL_SECRET:
@@ -231,12 +229,35 @@ public class VerifiableSecretSharing {
             secretKeyAsNumber = polynomial.getConstant();
         }
 
+        return decodeSecret(secretKeyAsNumber, openShares.getSharedData(), mode);
+    }
+
+    /**
+     * Reconstructs the confidential data from shares that were already verified against their commitments. It
+     * does not update the list of corrupted shareholders, so it can be called concurrently.
+     * @param shares At least threshold + 1 valid shares
+     * @param sharedData Encrypted data if mode == LARGE_SECRET
+     * @param mode See {@link Mode}
+     * @param threshold Fault tolerance
+     * @return Reconstructed confidential data
+     * @throws SecretSharingException If there are not enough shares or failed to decrypt the data
+     */
+    public byte[] combineVerifiedShares(Share[] shares, byte[] sharedData, Mode mode, int threshold)
+            throws SecretSharingException {
+        if (shares.length <= threshold)
+            throw new SecretSharingException("Not enough valid shares!");
+        Share[] minimumShares = shares.length == threshold + 1 ? shares : Arrays.copyOf(shares, threshold + 1);
+        BigInteger secretKeyAsNumber = interpolationStrategy.interpolateAt(BigInteger.ZERO, minimumShares);
+        return decodeSecret(secretKeyAsNumber, sharedData, mode);
+    }
+
+    private byte[] decodeSecret(BigInteger secretKeyAsNumber, byte[] sharedData, Mode mode)
+            throws SecretSharingException {
         switch (mode) {
             case LARGE_SECRET:
-                byte[] keyBytes = messageDigest.digest(secretKeyAsNumber.toByteArray());
-                SecretKey secretKey = new SecretKeySpec(keyBytes, dataEncryptionAlgorithm);
+                SecretKey secretKey = computeSecretKey(secretKeyAsNumber);
                 try {
-                    return decrypt(dataCipher, openShares.getSharedData(), secretKey, dataEncryptionLock);
+                    return decrypt(dataCipher, sharedData, secretKey, dataEncryptionLock);
                 } catch (InvalidKeyException | BadPaddingException | IllegalBlockSizeException e) {
                     throw new SecretSharingException("Error while decrypting secret!", e);
                 }
@@ -245,7 +266,14 @@ public class VerifiableSecretSharing {
             default:
                 throw new SecretSharingException("Unsupported mode " + mode);
         }
+    }
 
+    private SecretKey computeSecretKey(BigInteger secretAsNumber) {
+        byte[] keyBytes;
+        synchronized (messageDigest) {
+            keyBytes = messageDigest.digest(secretAsNumber.toByteArray());
+        }
+        return new SecretKeySpec(keyBytes, dataEncryptionAlgorithm);
     }
 
     /**